@@ -0,0 +1,196 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+class BenchRunner {
+    /* Student t quantile for a 99.9% confidence interval, the same interval JMH reports as error. */
+    private static final double T_999 = 3.291;
+
+    static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final long iterationMillis;
+    private final Pattern filter;
+    private final ArrayList<Result> results = new ArrayList<>();
+
+    /**
+     * A single call of a benchmarked operation. One call may perform several operations, see run().
+     */
+    interface Operation {
+        void call() throws Exception;
+    }
+
+    /**
+     * Minimal stand-in for JMH. Every benchmark runs a number of timed warmup and measured iterations, each one
+     * repeating the operation for a fixed wall clock time, and the runner reports the mean time per operation with
+     * a 99.9% confidence interval over the measured iterations.
+     *
+     * @param _warmupIterations   Iterations run before measuring.
+     * @param _measuredIterations Iterations that are measured.
+     * @param _iterationMillis    Length of every iteration.
+     * @param _filter             Only benchmarks whose name matches are run.
+     */
+    BenchRunner(int _warmupIterations, int _measuredIterations, long _iterationMillis, Pattern _filter) {
+        warmupIterations = _warmupIterations;
+        measuredIterations = _measuredIterations;
+        iterationMillis = _iterationMillis;
+        filter = _filter;
+    }
+
+    /**
+     * @param benchmark Name of the benchmark.
+     * @return Returns whether the benchmark is selected by the filter.
+     */
+    boolean selected(String benchmark) {
+        return filter.matcher(benchmark).find();
+    }
+
+    /**
+     * Measures an operation and records the result.
+     *
+     * @param benchmark  Name of the benchmark.
+     * @param params     Parameters of this run, reported next to the score.
+     * @param opsPerCall Number of operations a single call performs.
+     * @param operation  Operation to measure.
+     * @throws Exception If the operation fails.
+     */
+    void run(String benchmark, Map<String, String> params, long opsPerCall, Operation operation) throws Exception {
+        if (!selected(benchmark)) return;
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(opsPerCall, operation);
+        }
+        double[] scores = new double[measuredIterations];
+        for (int i = 0; i < measuredIterations; i++) {
+            scores[i] = iteration(opsPerCall, operation);
+        }
+        Result result = new Result(benchmark, params, scores);
+        results.add(result);
+        System.err.println(result);
+    }
+
+    /**
+     * @return Returns the nanoseconds per operation of a single iteration.
+     */
+    private double iteration(long opsPerCall, Operation operation) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long deadline = start + iterationMillis * 1_000_000;
+        long now;
+        do {
+            operation.call();
+            ops += opsPerCall;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (double) (now - start) / ops;
+    }
+
+    /**
+     * Writes every recorded result as JSON, one object per benchmark and parameter combination.
+     *
+     * @param file File to write to.
+     * @throws FileNotFoundException If the file could not be created.
+     */
+    void writeJson(File file) throws FileNotFoundException {
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("{");
+            out.println("  \"timestamp\": " + quote(Instant.now().toString()) + ",");
+            out.println("  \"jvm\": " + quote(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")) + ",");
+            out.println("  \"cpus\": " + Runtime.getRuntime().availableProcessors() + ",");
+            out.println("  \"warmupIterations\": " + warmupIterations + ",");
+            out.println("  \"measuredIterations\": " + measuredIterations + ",");
+            out.println("  \"iterationMillis\": " + iterationMillis + ",");
+            out.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                out.println("    " + results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Parameters of a benchmark run, in the given order.
+     *
+     * @param keyValues Alternating names and values.
+     * @return Returns the parameter map.
+     */
+    static Map<String, String> params(Object... keyValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            params.put(String.valueOf(keyValues[i]), String.valueOf(keyValues[i + 1]));
+        }
+        return params;
+    }
+
+    /**
+     * Keeps a value alive so the JIT cannot remove the computation that produced it.
+     *
+     * @param o Result of the benchmarked computation.
+     */
+    static void consume(Object o) {
+        sink = o;
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static class Result {
+        private final String benchmark;
+        private final Map<String, String> params;
+        private final double[] scores;
+        private final double mean;
+        private final double error;
+
+        Result(String _benchmark, Map<String, String> _params, double[] _scores) {
+            benchmark = _benchmark;
+            params = _params;
+            scores = _scores;
+            double sum = 0;
+            for (double score : scores) sum += score;
+            mean = sum / scores.length;
+            double squares = 0;
+            for (double score : scores) squares += (score - mean) * (score - mean);
+            double stdDev = scores.length > 1 ? Math.sqrt(squares / (scores.length - 1)) : 0;
+            error = T_999 * stdDev / Math.sqrt(scores.length);
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"benchmark\": ").append(quote(benchmark)).append(", \"params\": {");
+            int i = 0;
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                if (i++ > 0) json.append(", ");
+                json.append(quote(param.getKey())).append(": ").append(quote(param.getValue()));
+            }
+            json.append("}, \"unit\": \"ns/op\", \"score\": ").append(format(mean));
+            json.append(", \"error\": ").append(format(error)).append(", \"iterations\": [");
+            for (int j = 0; j < scores.length; j++) {
+                if (j > 0) json.append(", ");
+                json.append(format(scores[j]));
+            }
+            return json.append("]}").toString();
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.3f", value);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-40s %-40s %14.1f +- %10.1f ns/op", benchmark, params, mean, error);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.regex.Pattern;
+
+public class BenchSuite {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_MILLIS = 500;
+
+    /**
+     * Runs every benchmark group and writes the results as JSON, so runs of different releases can be compared.
+     * Progress goes to stderr; the peers' own logging is discarded while the suite runs.
+     *
+     * Usage: BenchSuite [output file (bench-results.json)] [benchmark name regex]
+     */
+    public static void main(String args[]) throws Exception {
+        File output = new File(args.length > 0 ? args[0] : "bench-results.json");
+        Pattern filter = Pattern.compile(args.length > 1 ? args[1] : "");
+        BenchRunner runner = new BenchRunner(WARMUP_ITERATIONS, MEASURED_ITERATIONS, ITERATION_MILLIS, filter);
+
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            CodecBenchmark.run(runner);
+            CallbackCountingBenchmark.run(runner);
+            DuplicateDetectionBenchmark.run(runner);
+            LoopbackBroadcastBenchmark.run(runner);
+        } finally {
+            System.setOut(stdout);
+        }
+        runner.writeJson(output);
+        System.out.println("Results written to " + output.getAbsolutePath());
+        /* In-process peers keep their listeners running. */
+        System.exit(0);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+class CallbackCountingBenchmark {
+    private static final int CALLBACKS_PER_THREAD = 2_000;
+    private static final int[] THREADS = {1, 4, 8};
+
+    /**
+     * Contended bookkeeping of a traversal: many handler threads delivering callbacks to the same TraversalState, and
+     * many threads registering and looking up traversals in the striped TraversalStore at once.
+     */
+    private CallbackCountingBenchmark() {
+    }
+
+    static void run(BenchRunner runner) throws Exception {
+        for (int threads : THREADS) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            CyclicBarrier start = new CyclicBarrier(threads);
+            int callbacks = threads * CALLBACKS_PER_THREAD;
+            Object payload = new Object();
+            String[] children = new String[callbacks];
+            for (int i = 0; i < callbacks; i++) children[i] = "10.0." + (i / 256) + "." + (i % 256);
+
+            runner.run("traversalState.callbackReceived", BenchRunner.params("threads", threads), callbacks, () -> {
+                TraversalState state = new TraversalState();
+                for (String child : children) state.expectCallback(child);
+                state.forwardingDone();
+                AtomicInteger nextChild = new AtomicInteger();
+                parallel(pool, threads, () -> {
+                    start.await();
+                    for (int i = 0; i < CALLBACKS_PER_THREAD; i++) {
+                        if (state.claimCallback(children[nextChild.getAndIncrement()])) state.callbackReceived(i % 4 == 0 ? null : payload);
+                    }
+                });
+                BenchRunner.consume(state.completion.join());
+            });
+
+            TraversalStore store = new TraversalStore(TraversalStore.DEFAULT_ACTIVE_TTL_MS, TraversalStore.DEFAULT_FINISHED_TTL_MS, TraversalStore.DEFAULT_MAX_TRAVERSALS);
+            AtomicLong sequence = new AtomicLong();
+            runner.run("traversalStore.registerAndGet", BenchRunner.params("threads", threads), callbacks, () -> parallel(pool, threads, () -> {
+                start.await();
+                for (int i = 0; i < CALLBACKS_PER_THREAD; i++) {
+                    BroadcastId id = new BroadcastId(42, sequence.incrementAndGet());
+                    store.register(id, new TraversalState());
+                    BenchRunner.consume(store.get(id));
+                }
+            }));
+            store.close();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs a task on every thread of the pool and waits for all of them.
+     */
+    private static void parallel(ExecutorService pool, int threads, BenchRunner.Operation task) throws Exception {
+        Future<?>[] futures = new Future<?>[threads];
+        for (int i = 0; i < threads; i++) {
+            futures[i] = pool.submit(() -> {
+                task.call();
+                return null;
+            });
+        }
+        for (Future<?> future : futures) future.get();
+    }
+}
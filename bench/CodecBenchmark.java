@@ -0,0 +1,55 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class CodecBenchmark {
+    /**
+     * Serialization of the messages every broadcast sends: encode and decode of a TraversalObj carrying text or a
+     * poll, and of a bare PollingMessage, on every codec. Frames are measured in steady state, i.e. on a stream whose
+     * intern tables were already filled by earlier frames.
+     */
+    private CodecBenchmark() {
+    }
+
+    static void run(BenchRunner runner) throws Exception {
+        Map<String, Object> messages = new LinkedHashMap<>();
+        messages.put("traversal-text", traversal(new SerializableText("Broadcast payload", "192.168.1.19")));
+        messages.put("traversal-poll", traversal(pollingMessage(32)));
+        messages.put("polling", pollingMessage(32));
+
+        for (Map.Entry<String, Object> message : messages.entrySet()) {
+            for (WireCodec.Type type : WireCodec.Type.values()) {
+                Object o = message.getValue();
+                WireCodec encoder = type.create();
+                WireCodec decoder = type.create();
+                WireBuffer frame = Frames.encode(o, encoder);
+                Frames.decode(frame.array(), Frames.HEADER_LENGTH, frame.length() - Frames.HEADER_LENGTH, decoder);
+                WireBuffer steadyFrame = Frames.encode(o, encoder);
+                Map<String, String> params = BenchRunner.params("message", message.getKey(), "codec", type, "bytes", steadyFrame.length());
+
+                runner.run("codec.encode", params, 1, () -> BenchRunner.consume(Frames.encode(o, encoder)));
+                runner.run("codec.decode", params, 1, () -> BenchRunner.consume(Frames.decode(steadyFrame.array(), Frames.HEADER_LENGTH, steadyFrame.length() - Frames.HEADER_LENGTH, decoder)));
+            }
+        }
+    }
+
+    static TraversalObj traversal(Object data) {
+        TraversalObj o = new TraversalObj();
+        o.data = data;
+        o.globalSource = "192.168.1.19";
+        o.callbackSubject = "192.168.1.187";
+        o.type = "FORWARD";
+        o.id = new BroadcastId.Generator(o.globalSource).next();
+        return o;
+    }
+
+    static PollingMessage pollingMessage(int votes) {
+        PollingMessage poll = PollingMessage.standard();
+        for (int i = 0; i < votes; i++) poll.vote("192.168.1." + (10 + i), i % 3 == 0 ? 1 : 0);
+        return poll;
+    }
+}
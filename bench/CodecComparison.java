@@ -0,0 +1,67 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CodecComparison {
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int MEASURED_ROUNDS = 100_000;
+
+    /**
+     * Prints bytes per message and encode/decode time of every codec, side by side, for the built-in message types.
+     */
+    public static void main(String args[]) throws Exception {
+        Map<String, Object> samples = new LinkedHashMap<>();
+        samples.put("SerializableText", new SerializableText("Hello from the other side of the overlay.", "192.168.1.19"));
+        samples.put("TraversalObj(text)", traversal(new SerializableText("Broadcast payload", "192.168.1.19")));
+        PollingMessage poll = PollingMessage.standard();
+        for (int i = 0; i < 32; i++) poll.vote("192.168.1." + (10 + i), i % 3 == 0 ? 1 : 0);
+        samples.put("TraversalObj(poll, 32 votes)", traversal(poll));
+
+        System.out.printf("%-30s %-7s %10s %14s %14s%n", "message", "codec", "bytes", "encode ns/op", "decode ns/op");
+        for (Map.Entry<String, Object> sample : samples.entrySet()) {
+            for (WireCodec.Type type : WireCodec.Type.values()) {
+                measure(sample.getKey(), type, sample.getValue());
+            }
+        }
+    }
+
+    private static TraversalObj traversal(Object data) {
+        TraversalObj o = new TraversalObj();
+        o.data = data;
+        o.globalSource = "192.168.1.19";
+        o.callbackSubject = "192.168.1.187";
+        o.type = "FORWARD";
+        o.id = new BroadcastId.Generator(o.globalSource).next();
+        return o;
+    }
+
+    /**
+     * Encodes and decodes the same message on one stream, the way consecutive frames of a connection would be.
+     * The reported size is that of a steady-state frame, i.e. after the first frame filled the intern tables.
+     */
+    private static void measure(String name, WireCodec.Type type, Object message) throws Exception {
+        WireCodec encoder = type.create();
+        WireCodec decoder = new BinaryCodec();
+        WireBuffer frame = Frames.encode(message, encoder);
+        Frames.decode(frame.array(), Frames.HEADER_LENGTH, frame.length() - Frames.HEADER_LENGTH, decoder);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            frame = Frames.encode(message, encoder);
+            Frames.decode(frame.array(), Frames.HEADER_LENGTH, frame.length() - Frames.HEADER_LENGTH, decoder);
+        }
+        long encodeNanos = 0, decodeNanos = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            frame = Frames.encode(message, encoder);
+            long encoded = System.nanoTime();
+            Frames.decode(frame.array(), Frames.HEADER_LENGTH, frame.length() - Frames.HEADER_LENGTH, decoder);
+            decodeNanos += System.nanoTime() - encoded;
+            encodeNanos += encoded - start;
+        }
+        System.out.printf("%-30s %-7s %10d %14d %14d%n", name, type, frame.length(), encodeNanos / MEASURED_ROUNDS, decodeNanos / MEASURED_ROUNDS);
+    }
+}
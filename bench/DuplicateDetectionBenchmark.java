@@ -0,0 +1,51 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+class DuplicateDetectionBenchmark {
+    private static final int IDS = 4096;
+
+    /**
+     * Cost of recognizing a broadcast the peer already handles: the seen cache lookup for known and unknown ids, and
+     * decoding a duplicate forward with and without skipping its body.
+     */
+    private DuplicateDetectionBenchmark() {
+    }
+
+    static void run(BenchRunner runner) throws Exception {
+        SeenCache seenCache = new SeenCache(SeenCache.DEFAULT_CAPACITY);
+        BroadcastId.Generator generator = new BroadcastId.Generator("192.168.1.19");
+        BroadcastId[] seen = new BroadcastId[IDS];
+        BroadcastId[] unseen = new BroadcastId[IDS];
+        for (int i = 0; i < IDS; i++) {
+            seen[i] = generator.next();
+            seenCache.add(seen[i]);
+        }
+        for (int i = 0; i < IDS; i++) unseen[i] = generator.next();
+
+        runner.run("seenCache.mightContain", BenchRunner.params("ids", "seen"), IDS, () -> {
+            int hits = 0;
+            for (BroadcastId id : seen) if (seenCache.mightContain(id)) hits++;
+            BenchRunner.consume(hits);
+        });
+        runner.run("seenCache.mightContain", BenchRunner.params("ids", "unseen"), IDS, () -> {
+            int hits = 0;
+            for (BroadcastId id : unseen) if (seenCache.mightContain(id)) hits++;
+            BenchRunner.consume(hits);
+        });
+        runner.run("seenCache.add", BenchRunner.params(), IDS, () -> {
+            for (BroadcastId id : unseen) seenCache.add(id);
+        });
+
+        TraversalObj duplicate = CodecBenchmark.traversal(CodecBenchmark.pollingMessage(32));
+        for (boolean skip : new boolean[]{false, true}) {
+            WireCodec encoder = new BinaryCodec();
+            WireCodec decoder = new BinaryCodec((id, type) -> skip);
+            WireBuffer frame = Frames.encode(duplicate, encoder);
+            Frames.decode(frame.array(), Frames.HEADER_LENGTH, frame.length() - Frames.HEADER_LENGTH, decoder);
+            WireBuffer steadyFrame = Frames.encode(duplicate, encoder);
+            runner.run("duplicate.decode", BenchRunner.params("skipBody", skip), 1, () -> BenchRunner.consume(Frames.decode(steadyFrame.array(), Frames.HEADER_LENGTH, steadyFrame.length() - Frames.HEADER_LENGTH, decoder)));
+        }
+    }
+}
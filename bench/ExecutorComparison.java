@@ -0,0 +1,76 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutorComparison {
+    private static final int BROADCASTS = 200;
+    private static final int FAN_OUT = 4;
+    private static final int DEPTH = 4;
+    private static final int HOP_BLOCK_MS = 2;
+    private static final int LIMIT = 64;
+
+    /**
+     * Starts a burst of simulated broadcasts on every executor mode. Every hop blocks for a moment (like a socket
+     * write or the old callback wait) and then forwards to its children, so the burst needs many threads at once.
+     */
+    public static void main(String args[]) throws Exception {
+        System.out.printf("%-16s %12s %12s %12s %12s%n", "executor", "peak threads", "heap MB", "p50 ms", "p99 ms");
+        for (PeerExecutors.Mode mode : PeerExecutors.Mode.values()) {
+            run(mode.toString(), mode, 0);
+            run(mode + "/" + LIMIT, mode, LIMIT);
+        }
+    }
+
+    private static void run(String name, PeerExecutors.Mode mode, int limit) throws Exception {
+        ExecutorService executor = PeerExecutors.bounded(PeerExecutors.create(mode), limit);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+        Runtime runtime = Runtime.getRuntime();
+
+        int hopsPerBroadcast = 0;
+        for (int level = 0, width = 1; level <= DEPTH; level++, width *= FAN_OUT) hopsPerBroadcast += width;
+        long[] latencies = new long[BROADCASTS];
+        CountDownLatch allDone = new CountDownLatch(BROADCASTS);
+        long heapPeak = 0;
+        for (int i = 0; i < BROADCASTS; i++) {
+            int index = i;
+            long start = System.nanoTime();
+            AtomicInteger hops = new AtomicInteger(hopsPerBroadcast);
+            Runnable done = () -> {
+                latencies[index] = System.nanoTime() - start;
+                allDone.countDown();
+            };
+            executor.execute(() -> hop(executor, 0, hops, done));
+        }
+        while (!allDone.await(10, TimeUnit.MILLISECONDS)) {
+            heapPeak = Math.max(heapPeak, runtime.totalMemory() - runtime.freeMemory());
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %12d %12d %12.1f %12.1f%n", name, threads.getPeakThreadCount(), heapPeak / (1024 * 1024),
+                latencies[BROADCASTS / 2] / 1e6, latencies[BROADCASTS * 99 / 100] / 1e6);
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private static void hop(ExecutorService executor, int level, AtomicInteger hops, Runnable done) {
+        try {
+            Thread.sleep(HOP_BLOCK_MS);
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (level < DEPTH) {
+            for (int i = 0; i < FAN_OUT; i++) executor.execute(() -> hop(executor, level + 1, hops, done));
+        }
+        if (hops.decrementAndGet() == 0) done.run();
+    }
+}
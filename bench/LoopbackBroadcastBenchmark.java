@@ -0,0 +1,95 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class LoopbackBroadcastBenchmark {
+    private static final int[] PEERS = {4, 8, 16};
+    private static final int BASE_PORT = 17000;
+    private static final long CONNECT_DELAY_MS = 200;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * End-to-end broadcasts and polls over real sockets. N peers run in this process, each one bound to its own
+     * loopback address (127.M.N.1, 127.M.N.2, ...), connected as a ring with a chord to the peer two steps ahead.
+     * Every operation starts at the first peer and ends when its traversal completed, in both broadcast modes. Peers
+     * cannot be stopped without exiting the process, so every network gets its own address range and this group must
+     * run last.
+     */
+    private LoopbackBroadcastBenchmark() {
+    }
+
+    static void run(BenchRunner runner) throws Exception {
+        for (Peer.BroadcastMode mode : Peer.BroadcastMode.values()) {
+            for (int numPeers : PEERS) {
+                if (!runner.selected("loopback.")) return;
+                run(runner, mode, numPeers);
+            }
+        }
+    }
+
+    private static void run(BenchRunner runner, Peer.BroadcastMode mode, int numPeers) throws Exception {
+        Peer[] peers = startNetwork(mode, numPeers);
+        Map<String, String> params = BenchRunner.params("peers", numPeers, "mode", mode);
+        runner.run("loopback.broadcast", params, 1, () -> BenchRunner.consume(peers[0].sendToAllPeers(new SerializableText("Broadcast payload", peers[0].localId)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)));
+        runner.run("loopback.poll", params, 1, () -> BenchRunner.consume(peers[0].startPollingMessage().get(TIMEOUT_SECONDS, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * Starts every peer of a network and waits until all of them accepted their adjacent peers.
+     *
+     * @param mode     Broadcast mode of every peer.
+     * @param numPeers Number of peers.
+     * @return Returns the started peers.
+     */
+    private static Peer[] startNetwork(Peer.BroadcastMode mode, int numPeers) throws Exception {
+        PeerData[] peerData = new PeerData[numPeers];
+        for (int i = 0; i < numPeers; i++) {
+            List<String> adjPeers = new ArrayList<>();
+            for (int offset : new int[]{1, 2, numPeers - 1, numPeers - 2}) {
+                int j = (i + offset) % numPeers;
+                String adjPeer = Transport.peerId(address(mode, numPeers, j), BASE_PORT + j);
+                if (j != i && !adjPeers.contains(adjPeer)) adjPeers.add(adjPeer);
+            }
+            peerData[i] = new PeerData(adjPeers, BASE_PORT + i);
+            peerData[i].host = address(mode, numPeers, i);
+            peerData[i].broadcastMode = mode;
+            peerData[i].logLevel = Log.Level.OFF;
+            peerData[i].printText = false;
+        }
+
+        Peer[] peers = new Peer[numPeers];
+        CyclicBarrier serversStarted = new CyclicBarrier(numPeers);
+        ExecutorService starter = Executors.newFixedThreadPool(numPeers);
+        Future<?>[] started = new Future<?>[numPeers];
+        for (int i = 0; i < numPeers; i++) {
+            peers[i] = new Peer();
+            Peer peer = peers[i];
+            PeerData data = peerData[i];
+            started[i] = starter.submit(() -> peer.startPeer(data, () -> {
+                try {
+                    serversStarted.await();
+                    Thread.sleep(CONNECT_DELAY_MS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        for (Future<?> future : started) future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        starter.shutdown();
+        return peers;
+    }
+
+    private static String address(Peer.BroadcastMode mode, int numPeers, int index) {
+        return "127." + mode.ordinal() + "." + numPeers + "." + (index + 1);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class NetworkSimulator {
+    private static final int PORT = 7000;
+    private static final long READY_TIMEOUT_MS = 5 * 60 * 1000;
+    private static final long OPERATION_TIMEOUT_SECONDS = 60;
+    private static final long SETTLE_CHECK_MS = 100;
+    private static final int SETTLE_CHECKS = 5;
+    private static final String TOPIC = "bench";
+
+    /**
+     * Shapes of the simulated network.
+     */
+    enum Topology {
+        /* Every peer is linked to the degree/2 peers after it on a ring. */
+        RING,
+        /* A random spanning tree, plus random links until the average degree is reached. */
+        RANDOM,
+        /* Barabasi-Albert: every new peer links to degree/2 existing ones, picked in proportion to their degree. */
+        SCALE_FREE
+    }
+
+    /**
+     * Runs thousands of peers in this process, connected through a MemoryTransport, and measures broadcasts across
+     * them: messages per broadcast, completion time and heap per peer. Every setting is a key=value argument:
+     * topology (ring, random or scale_free), peers, degree, latency and jitter (ms), loss (probability), broadcasts,
+     * mode (flood or tree), deadline (ms, 0 for none), subscribers (of a topic published on as often as
+     * there are broadcasts, 0 for none) and seed. The same seed builds the same network and draws the same link
+     * delays, thread scheduling still varies between runs.
+     */
+    public static void main(String args[]) throws Exception {
+        Map<String, String> settings = new HashMap<>();
+        for (String arg : args) settings.put(arg.split("=")[0], arg.split("=")[1]);
+        Topology topology = Topology.valueOf(settings.getOrDefault("topology", "random").toUpperCase());
+        int numPeers = Integer.parseInt(settings.getOrDefault("peers", "1000"));
+        int degree = Integer.parseInt(settings.getOrDefault("degree", "4"));
+        long latency = Long.parseLong(settings.getOrDefault("latency", "5"));
+        long jitter = Long.parseLong(settings.getOrDefault("jitter", "2"));
+        double loss = Double.parseDouble(settings.getOrDefault("loss", "0"));
+        int broadcasts = Integer.parseInt(settings.getOrDefault("broadcasts", "20"));
+        Peer.BroadcastMode mode = Peer.BroadcastMode.valueOf(settings.getOrDefault("mode", "flood").toUpperCase());
+        long seed = Long.parseLong(settings.getOrDefault("seed", "1"));
+        long deadline = Long.parseLong(settings.getOrDefault("deadline", String.valueOf(PeerData.DEFAULT_TRAVERSAL_DEADLINE_MS)));
+        int subscribers = Integer.parseInt(settings.getOrDefault("subscribers", "0"));
+        Random random = new Random(seed);
+
+        List<Set<Integer>> links = build(topology, numPeers, degree, random);
+        int numLinks = links.stream().mapToInt(Set::size).sum() / 2;
+        System.out.printf("%s network of %d peers, %d links, %d ms latency, %d ms jitter, %.3f loss, %s broadcasts%n", topology, numPeers, numLinks, latency, jitter, loss, mode);
+
+        MemoryTransport network = new MemoryTransport(latency, jitter, loss, seed);
+        long heapBefore = usedHeap();
+        long startedAt = System.nanoTime();
+        Peer[] peers = new Peer[numPeers];
+        for (int i = 0; i < numPeers; i++) {
+            List<String> adjPeers = new ArrayList<>();
+            for (int j : links.get(i)) adjPeers.add(id(j));
+            PeerData peerData = new PeerData(adjPeers, PORT);
+            peerData.host = "node" + i;
+            peerData.transport = network.endpoint();
+            peerData.broadcastMode = mode;
+            peerData.traversalDeadline = deadline;
+            peerData.logLevel = Log.Level.OFF;
+            peerData.printText = false;
+            peerData.bootstrapTimeout = 0;
+            peerData.heartbeatMillis = 1000;
+            peerData.maxHandlers = 4 * Runtime.getRuntime().availableProcessors();
+            peers[i] = new Peer();
+            peers[i].startPeer(peerData, () -> {
+            });
+        }
+        long readyBy = System.currentTimeMillis() + READY_TIMEOUT_MS;
+        for (Peer peer : peers) {
+            if (!peer.awaitReady(readyBy - System.currentTimeMillis())) throw new IllegalStateException(peer.localId + " did not connect in time.");
+        }
+        long readyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        /* Every new link floods a topology delta through the whole network, broadcasts are measured once that is over. */
+        awaitSettled(network, numPeers);
+        long settledMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        long heapPerPeer = (usedHeap() - heapBefore) / numPeers;
+
+        long[] messages = new long[broadcasts];
+        long[] frames = new long[broadcasts];
+        long[] completion = new long[broadcasts];
+        int partial = 0;
+        for (int b = 0; b < broadcasts; b++) {
+            Peer origin = peers[random.nextInt(numPeers)];
+            long messagesBefore = traversalMessages(peers);
+            long framesBefore = network.framesDelivered();
+            long sentAt = System.nanoTime();
+            TraversalState state = origin.sendToAllPeers(new SerializableText("Broadcast " + b, origin.localId)).get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            completion[b] = System.nanoTime() - sentAt;
+            messages[b] = traversalMessages(peers) - messagesBefore;
+            frames[b] = network.framesDelivered() - framesBefore;
+            if (state.partial) partial++;
+        }
+        PollingMessage poll = peers[0].startPollingMessage().get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        long[] publishMessages = new long[broadcasts];
+        LongAdder deliveries = new LongAdder();
+        if (subscribers > 0) {
+            for (int i = 0; i < subscribers; i++) peers[random.nextInt(numPeers)].subscribe(TOPIC, data -> deliveries.increment());
+            awaitSettled(network, numPeers);
+            for (int b = 0; b < broadcasts; b++) {
+                long forwardedBefore = sum(peers, "topic.forwarded");
+                peers[random.nextInt(numPeers)].publish(TOPIC, new SerializableText("Publish " + b, TOPIC));
+                awaitSettled(network, numPeers);
+                publishMessages[b] = sum(peers, "topic.forwarded") - forwardedBefore;
+            }
+        }
+
+        Arrays.sort(completion);
+        System.out.printf("connected after %d ms, settled after %d ms, %d KB heap per peer, %d threads%n", readyMillis, settledMillis, heapPerPeer / 1024, Thread.activeCount());
+        System.out.printf("messages per broadcast: %.1f (%.2f per link), frames on the wire: %.1f (heartbeats and credits included)%n", mean(messages), mean(messages) / numLinks, mean(frames));
+        System.out.printf("completion: p50 %.1f ms, p90 %.1f ms, max %.1f ms, %d of %d partial%n", completion[broadcasts / 2] / 1e6, completion[broadcasts * 9 / 10] / 1e6, completion[broadcasts - 1] / 1e6, partial, broadcasts);
+        System.out.printf("poll counted %d of %d peers, %d retransmissions%n", ((PollAggregate.Count) poll.aggregates.get(0)).count, numPeers, network.retransmissions());
+        if (subscribers > 0) {
+            int subscribed = (int) Arrays.stream(peers).filter(peer -> peer.subscribedTopics().contains(TOPIC)).count();
+            System.out.printf("publish to %d subscribers: %.1f messages per publish, %d of %d deliveries%n", subscribed, mean(publishMessages), deliveries.sum(), (long) subscribed * broadcasts);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Waits until only heartbeats and credits are in flight, so that floods of topology or subscription deltas and
+     * publishes are over.
+     */
+    private static void awaitSettled(MemoryTransport network, int numPeers) throws InterruptedException {
+        for (int quiet = 0; quiet < SETTLE_CHECKS; ) {
+            Thread.sleep(SETTLE_CHECK_MS);
+            quiet = network.framesInFlight() <= numPeers ? quiet + 1 : 0;
+        }
+    }
+
+    /**
+     * Builds an undirected topology.
+     *
+     * @return Returns the neighbours of every peer.
+     */
+    private static List<Set<Integer>> build(Topology topology, int numPeers, int degree, Random random) {
+        List<Set<Integer>> links = new ArrayList<>();
+        for (int i = 0; i < numPeers; i++) links.add(new LinkedHashSet<>());
+        int half = Math.max(1, degree / 2);
+        if (topology == Topology.RING) {
+            for (int i = 0; i < numPeers; i++) {
+                for (int step = 1; step <= half; step++) link(links, i, (i + step) % numPeers);
+            }
+        } else if (topology == Topology.RANDOM) {
+            for (int i = 1; i < numPeers; i++) link(links, i, random.nextInt(i));
+            long target = (long) numPeers * degree / 2;
+            for (long added = numPeers - 1; added < target; ) {
+                if (link(links, random.nextInt(numPeers), random.nextInt(numPeers))) added++;
+            }
+        } else {
+            /* Every link adds both ends once, so a uniform pick from this list is a pick in proportion to degree. */
+            List<Integer> ends = new ArrayList<>();
+            for (int i = 0; i <= half && i < numPeers; i++) {
+                for (int j = 0; j < i; j++) {
+                    link(links, i, j);
+                    ends.add(i);
+                    ends.add(j);
+                }
+            }
+            for (int i = half + 1; i < numPeers; i++) {
+                for (int added = 0; added < half; ) {
+                    int j = ends.get(random.nextInt(ends.size()));
+                    if (!link(links, i, j)) continue;
+                    ends.add(i);
+                    ends.add(j);
+                    added++;
+                }
+            }
+        }
+        return links;
+    }
+
+    private static boolean link(List<Set<Integer>> links, int a, int b) {
+        if (a == b || links.get(a).contains(b)) return false;
+        links.get(a).add(b);
+        links.get(b).add(a);
+        return true;
+    }
+
+    private static String id(int index) {
+        return Transport.peerId("node" + index, PORT);
+    }
+
+    private static long traversalMessages(Peer[] peers) {
+        return sum(peers, "traversal.floodMessages") + sum(peers, "traversal.treeMessages");
+    }
+
+    private static long sum(Peer[] peers, String counter) {
+        long sum = 0;
+        for (Peer peer : peers) sum += peer.counter(counter);
+        return sum;
+    }
+
+    private static double mean(long[] values) {
+        return Arrays.stream(values).average().orElse(0);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
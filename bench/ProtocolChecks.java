@@ -0,0 +1,160 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class ProtocolChecks {
+    private static final int PORT = 7000;
+    private static final long READY_TIMEOUT_MS = 60 * 1000;
+    private static final long OPERATION_TIMEOUT_SECONDS = 60;
+    private static final long SETTLE_CHECK_MS = 100;
+    private static final int SETTLE_CHECKS = 5;
+    private static int failures = 0;
+
+    /**
+     * Checks properties of the protocol that are easy to break and hard to notice, and exits with status 1 if any of
+     * them does not hold:
+     * broadcasts and polls reach every peer of networks much deeper than a few hops, with the default deadline, and
+     * malformed lengths and counts are rejected by the decoder with an IOException.
+     */
+    public static void main(String args[]) throws Exception {
+        malformedFrames();
+        deepTraversals();
+        System.out.println(failures == 0 ? "All checks passed." : failures + " checks failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Frames whose lengths or counts are negative as ints, or past Integer.MAX_VALUE as varints. The decoder must
+     * reject them as malformed instead of failing with a runtime exception, which would take down the stream reader.
+     */
+    private static void malformedFrames() {
+        WireBuffer topology = new WireBuffer(16);
+        topology.writeByte(WireCodec.TAG_TOPOLOGY);
+        topology.writeVarInt(0);
+        topology.writeVarLong(0xFFFFFFFFL);
+        checkRejected("topology of 0xFFFFFFFF records", topology);
+
+        WireBuffer heartbeat = new WireBuffer(16);
+        heartbeat.writeByte(WireCodec.TAG_HEARTBEAT);
+        heartbeat.writeVarInt(-1);
+        checkRejected("string of length -1", heartbeat);
+
+        WireBuffer fileChunk = new WireBuffer(16);
+        fileChunk.writeByte(WireCodec.TAG_FILE_CHUNK);
+        fileChunk.writeVarInt(0);
+        fileChunk.writeVarLong(0);
+        fileChunk.writeVarLong(0);
+        fileChunk.writeInt(0);
+        fileChunk.writeVarInt(-1);
+        checkRejected("file chunk of length -1", fileChunk);
+    }
+
+    private static void checkRejected(String name, WireBuffer frame) {
+        String outcome;
+        try {
+            new BinaryCodec().decode(new WireBuffer(frame.array(), 0, frame.length()));
+            outcome = "decoded";
+        } catch (IOException e) {
+            outcome = null;
+        } catch (Exception e) {
+            outcome = e.toString();
+        }
+        check(outcome == null, name + ": rejected with an IOException" + (outcome == null ? "" : " (" + outcome + ")"));
+    }
+
+    /**
+     * A line of 40 peers and rings of 60 and 200, flooding and along spanning trees. Every hop has less time than its
+     * parent, which must not run a deep traversal out of time long before the deadline.
+     */
+    private static void deepTraversals() throws Exception {
+        MemoryTransport network = new MemoryTransport(2, 1, 0, 1);
+        Peer[] line = startNetwork(network, "line", line(40, false), Peer.BroadcastMode.FLOOD);
+        Peer[] ring = startNetwork(network, "ring", line(60, true), Peer.BroadcastMode.FLOOD);
+        Peer[] treeRing = startNetwork(network, "tree", line(200, true), Peer.BroadcastMode.TREE);
+        awaitSettled(network, line.length + ring.length + treeRing.length);
+        checkReachesAll("line of 40 peers, flood", line);
+        checkReachesAll("ring of 60 peers, flood", ring);
+        /* The first broadcast floods and learns the tree, the second one follows it. */
+        checkReachesAll("ring of 200 peers, learning the tree", treeRing);
+        checkReachesAll("ring of 200 peers, along the tree", treeRing);
+    }
+
+    /**
+     * Broadcasts from the first peer of a network, then polls it, and checks that both reached every peer.
+     */
+    private static void checkReachesAll(String name, Peer[] peers) throws Exception {
+        TraversalState broadcast = peers[0].sendToAllPeers(new SerializableText("Check", peers[0].localId)).get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        check(!broadcast.partial, name + ": broadcast completes before its deadline");
+        PollingMessage poll = peers[0].startPollingMessage().get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long counted = ((PollAggregate.Count) poll.aggregates.get(0)).count;
+        check(counted == peers.length, name + ": poll counts " + counted + " of " + peers.length + " peers");
+    }
+
+    /**
+     * Starts one peer per entry of links, with the default deadline, and waits until every one is connected.
+     *
+     * @return Returns the peers.
+     */
+    private static Peer[] startNetwork(MemoryTransport network, String name, List<Set<Integer>> links, Peer.BroadcastMode mode) {
+        Peer[] peers = new Peer[links.size()];
+        for (int i = 0; i < peers.length; i++) {
+            List<String> adjPeers = new ArrayList<>();
+            for (int j : links.get(i)) adjPeers.add(Transport.peerId(name + j, PORT));
+            PeerData peerData = new PeerData(adjPeers, PORT);
+            peerData.host = name + i;
+            peerData.transport = network.endpoint();
+            peerData.broadcastMode = mode;
+            peerData.logLevel = Log.Level.OFF;
+            peerData.printText = false;
+            peerData.bootstrapTimeout = 0;
+            peerData.heartbeatMillis = 1000;
+            peers[i] = new Peer();
+            peers[i].startPeer(peerData, () -> {
+            });
+        }
+        long readyBy = System.currentTimeMillis() + READY_TIMEOUT_MS;
+        for (Peer peer : peers) {
+            if (!peer.awaitReady(readyBy - System.currentTimeMillis())) throw new IllegalStateException(peer.localId + " did not connect in time.");
+        }
+        return peers;
+    }
+
+    /**
+     * @param numPeers Number of peers.
+     * @param closed   Whether the last peer is linked to the first one.
+     * @return Returns the neighbours of every peer of a line, or of a ring if closed.
+     */
+    private static List<Set<Integer>> line(int numPeers, boolean closed) {
+        List<Set<Integer>> links = new ArrayList<>();
+        for (int i = 0; i < numPeers; i++) links.add(new LinkedHashSet<>());
+        for (int i = 0; i + 1 < numPeers; i++) {
+            links.get(i).add(i + 1);
+            links.get(i + 1).add(i);
+        }
+        if (closed) {
+            links.get(0).add(numPeers - 1);
+            links.get(numPeers - 1).add(0);
+        }
+        return links;
+    }
+
+    private static void awaitSettled(MemoryTransport network, int numPeers) throws InterruptedException {
+        for (int quiet = 0; quiet < SETTLE_CHECKS; ) {
+            Thread.sleep(SETTLE_CHECK_MS);
+            quiet = network.framesInFlight() <= numPeers ? quiet + 1 : 0;
+        }
+    }
+
+    private static void check(boolean passed, String description) {
+        System.out.println((passed ? "ok      " : "FAILED  ") + description);
+        if (!passed) failures++;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+class AntiEntropy {
+    static final long DEFAULT_INTERVAL_MS = 30 * 1000;
+    static final long DEFAULT_WINDOW_MS = 10 * 60 * 1000;
+    /* Children of every node of a digest. */
+    static final int FANOUT = 16;
+    /* Levels below the root, the last one holds the buckets. */
+    static final int DEPTH = 2;
+    static final int BUCKETS = 256;
+    /* Broadcasts younger than this may still be in flight, so they are left out of the window. */
+    private static final long SETTLE_MS = 5 * 1000;
+    private static final int MAX_REPAIR_IDS = 1024;
+    private static final int MAX_REPAIR_BYTES = 1024 * 1024;
+
+    private final RpcEndpoint rpc;
+    private final BroadcastLog history;
+    private final Consumer<BroadcastLog.Entry> deliver;
+    private final long window;
+    private final long callTimeout;
+    private final Metrics.Counter rounds;
+    private final Metrics.Counter hashesExchanged;
+    private final Metrics.Counter repaired;
+
+    /**
+     * Repairs broadcasts lost on a failed link by comparing the broadcast logs of adjacent peers. Every peer sums up
+     * the broadcasts it logged during a recent window in a Merkle tree of fixed shape: the ids are hashed into 256
+     * buckets, a bucket holds the xor of the hashes of its ids, and every node above holds the xor of its 16 children.
+     * A peer asks a neighbour for the nodes of its tree level by level and descends only into the nodes that differ,
+     * then asks for the ids in the differing buckets and pulls the broadcasts it is missing. Two peers in sync exchange
+     * 16 hashes per round, and the traffic of a repair grows with the number of differing buckets, not with the
+     * number of broadcasts logged. Windows are taken from the times the peers logged their broadcasts, so a repaired
+     * broadcast, logged later than on the neighbour, makes the two differ briefly at the edges of the window; those
+     * rounds find nothing to pull.
+     *
+     * @param _rpc         Endpoint the repair calls are registered on.
+     * @param _history     Log of the delivered broadcasts.
+     * @param _deliver     Delivers a repaired broadcast, after it was logged.
+     * @param _window      Length of the window compared.
+     * @param _callTimeout Time after which a repair call fails.
+     * @param metrics      Registry of the peer.
+     */
+    AntiEntropy(RpcEndpoint _rpc, BroadcastLog _history, Consumer<BroadcastLog.Entry> _deliver, long _window, long _callTimeout, Metrics metrics) {
+        rpc = _rpc;
+        history = _history;
+        deliver = _deliver;
+        window = _window;
+        callTimeout = _callTimeout;
+        rounds = metrics.counter("antiEntropy.rounds");
+        hashesExchanged = metrics.counter("antiEntropy.hashesExchanged");
+        repaired = metrics.counter("antiEntropy.repaired");
+        rpc.register("repairDigest", DigestRequest.class, request -> digest(request).nodes(request.level, request.nodes));
+        rpc.register("repairIds", DigestRequest.class, this::idsInBuckets);
+        rpc.register("repairFetch", BroadcastId[].class, this::fetch);
+    }
+
+    /**
+     * Compares the recent broadcasts of this peer with the ones of a neighbour and pulls the missing ones.
+     *
+     * @param peer Id of an adjacent peer.
+     * @return Returns a future of the number of broadcasts repaired.
+     */
+    CompletableFuture<Integer> repair(String peer) {
+        rounds.increment();
+        long until = System.currentTimeMillis() - SETTLE_MS;
+        long since = until - window;
+        Digest local = new Digest(history.ids(since, until));
+        return descend(peer, local, since, until, 1, allNodes(1)).thenCompose(buckets -> {
+            if (buckets.length == 0) return CompletableFuture.completedFuture(0);
+            return rpc.call(peer, "repairIds", new DigestRequest(since, until, DEPTH, buckets), BroadcastId[].class, callTimeout).thenCompose(ids -> pullMissing(peer, ids));
+        });
+    }
+
+    /**
+     * Asks a neighbour for nodes of its digest and descends into the ones that differ from the local digest.
+     *
+     * @return Returns a future of the buckets that differ.
+     */
+    private CompletableFuture<int[]> descend(String peer, Digest local, long since, long until, int level, int[] nodes) {
+        DigestRequest request = new DigestRequest(since, until, level, nodes);
+        return rpc.call(peer, "repairDigest", request, long[].class, callTimeout).thenCompose(remote -> {
+            hashesExchanged.add(remote.length);
+            long[] own = local.nodes(level, nodes);
+            ArrayList<Integer> differing = new ArrayList<>();
+            for (int i = 0; i < nodes.length && i < remote.length; i++) {
+                if (own[i] != remote[i]) differing.add(nodes[i]);
+            }
+            if (level == DEPTH || differing.isEmpty()) {
+                return CompletableFuture.completedFuture(differing.stream().mapToInt(Integer::intValue).toArray());
+            }
+            int[] children = new int[differing.size() * FANOUT];
+            for (int i = 0; i < children.length; i++) children[i] = differing.get(i / FANOUT) * FANOUT + i % FANOUT;
+            return descend(peer, local, since, until, level + 1, children);
+        });
+    }
+
+    /**
+     * Pulls the broadcasts of a neighbour that are not in the local log, and delivers them.
+     *
+     * @param peer      Id of the neighbour.
+     * @param remoteIds Ids of the broadcasts of the neighbour in the buckets that differ.
+     * @return Returns a future of the number of broadcasts repaired.
+     */
+    private CompletableFuture<Integer> pullMissing(String peer, BroadcastId[] remoteIds) {
+        hashesExchanged.add(remoteIds.length * 2);
+        ArrayList<BroadcastId> missing = new ArrayList<>();
+        for (BroadcastId id : remoteIds) {
+            if (missing.size() < MAX_REPAIR_IDS && !history.contains(id)) missing.add(id);
+        }
+        if (missing.isEmpty()) return CompletableFuture.completedFuture(0);
+        return rpc.call(peer, "repairFetch", missing.toArray(new BroadcastId[0]), HistoryRange.class, callTimeout).thenCompose(range -> {
+            int count = 0;
+            try {
+                for (BroadcastLog.Entry entry : BroadcastLog.parse(0, range.records)) {
+                    if (history.append(entry.id, entry.payload) < 0) continue;
+                    deliver.accept(entry);
+                    count++;
+                }
+            } catch (IOException e) {
+                CompletableFuture<Integer> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            repaired.add(count);
+            return CompletableFuture.completedFuture(count);
+        });
+    }
+
+    private Digest digest(DigestRequest request) {
+        return new Digest(history.ids(request.sinceMillis, request.untilMillis));
+    }
+
+    /**
+     * @return Returns the ids of the broadcasts in some buckets of the window of a request. (The repairIds call)
+     */
+    private BroadcastId[] idsInBuckets(DigestRequest request) {
+        boolean[] wanted = new boolean[BUCKETS];
+        for (int bucket : request.nodes) {
+            if (bucket >= 0 && bucket < BUCKETS) wanted[bucket] = true;
+        }
+        ArrayList<BroadcastId> ids = new ArrayList<>();
+        for (BroadcastId id : history.ids(request.sinceMillis, request.untilMillis)) {
+            if (wanted[Digest.bucket(id)]) ids.add(id);
+        }
+        return ids.toArray(new BroadcastId[0]);
+    }
+
+    /**
+     * @return Returns the records of the requested broadcasts this peer has. (The repairFetch call)
+     */
+    private HistoryRange fetch(BroadcastId[] ids) {
+        ByteBuffer records = history.records(Arrays.asList(ids), MAX_REPAIR_BYTES);
+        return new HistoryRange(0, 0, history.endOffset(), records);
+    }
+
+    private static int[] allNodes(int level) {
+        int[] nodes = new int[Digest.width(level)];
+        for (int i = 0; i < nodes.length; i++) nodes[i] = i;
+        return nodes;
+    }
+
+    /**
+     * Merkle tree of a set of broadcast ids. Only the buckets are stored, a node is the xor of the buckets below it.
+     */
+    static class Digest {
+        private final long[] buckets = new long[BUCKETS];
+
+        Digest(List<BroadcastId> ids) {
+            for (BroadcastId id : ids) buckets[bucket(id)] ^= hash(id);
+        }
+
+        static int bucket(BroadcastId id) {
+            return (int) (hash(id) >>> 56);
+        }
+
+        private static long hash(BroadcastId id) {
+            return BroadcastId.mix(id.origin ^ BroadcastId.mix(id.sequence));
+        }
+
+        /**
+         * @return Returns the number of nodes on a level.
+         */
+        static int width(int level) {
+            int width = 1;
+            for (int i = 0; i < level; i++) width *= FANOUT;
+            return width;
+        }
+
+        /**
+         * @param level Level of the nodes. (0 is the root)
+         * @param nodes Indices of the nodes on their level. Indices out of range hash to 0.
+         * @return Returns the hashes of the nodes.
+         */
+        long[] nodes(int level, int[] nodes) {
+            int span = BUCKETS / width(Math.min(Math.max(level, 0), DEPTH));
+            long[] hashes = new long[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                int first = nodes[i] * span;
+                for (int j = first; j >= 0 && j < first + span && j < BUCKETS; j++) hashes[i] ^= buckets[j];
+            }
+            return hashes;
+        }
+    }
+}
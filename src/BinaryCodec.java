@@ -0,0 +1,508 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+class BinaryCodec implements WireCodec {
+    private static final int MAX_INTERNED = 4096;
+
+    private final Map<String, Integer> encodeTable = new HashMap<>();
+    private final ArrayList<String> encodeOrder = new ArrayList<>();
+    private final ArrayList<String> decodeTable = new ArrayList<>();
+    private final TraversalFilter traversalFilter;
+    private ArrayList<String> deferredLiterals = null;
+
+    /**
+     * Decides, from the header of a traversal frame alone, whether the body of the frame can be skipped.
+     */
+    interface TraversalFilter {
+        /**
+         * @param id   Id of the broadcast.
+         * @param type Type of the traversal message.
+         * @return Returns whether the body (the data) is not needed.
+         */
+        boolean skipBody(BroadcastId id, String type);
+    }
+
+    /**
+     * Hand written format for TraversalObj, SerializableText, PollingMessage, RoutedMessage, the RPC messages, file
+     * chunks, topology deltas, history ranges, topic messages, subscription deltas and the control messages.
+     * (Heartbeat, Credit and Hello) Any other object falls back to java serialization. Peer ids and message types are
+     * interned per stream: the first occurrence is sent as a string and every later one as a varint index, so one
+     * instance must only ever encode (or decode) a single ordered stream. Control messages are not interned.
+     */
+    BinaryCodec() {
+        this(null);
+    }
+
+    /**
+     * Binary codec that lets a filter drop the body of traversal frames before it is decoded.
+     *
+     * @param _traversalFilter Filter consulted for every traversal frame, or null.
+     */
+    BinaryCodec(TraversalFilter _traversalFilter) {
+        traversalFilter = _traversalFilter;
+    }
+
+    @Override
+    public void encode(Object o, WireBuffer out) throws IOException {
+        int internedBefore = encodeOrder.size();
+        try {
+            encodeValue(o, out);
+        } catch (IOException e) {
+            /* The frame is never sent, so forget the strings the decoder will never see. */
+            while (encodeOrder.size() > internedBefore) {
+                encodeTable.remove(encodeOrder.remove(encodeOrder.size() - 1));
+            }
+            throw e;
+        }
+    }
+
+    private void encodeValue(Object o, WireBuffer out) throws IOException {
+        if (o == null) {
+            out.writeByte(TAG_NULL);
+        } else if (o instanceof TraversalObj) {
+            out.writeByte(TAG_TRAVERSAL);
+            encodeTraversal((TraversalObj) o, out);
+        } else if (o instanceof SerializableText) {
+            out.writeByte(TAG_TEXT);
+            encodeText((SerializableText) o, out);
+        } else if (o instanceof PollingMessage) {
+            out.writeByte(TAG_POLLING);
+            encodePolling((PollingMessage) o, out);
+        } else if (o instanceof RoutedMessage) {
+            out.writeByte(TAG_ROUTED);
+            encodeRouted((RoutedMessage) o, out);
+        } else if (o instanceof RpcRequest) {
+            out.writeByte(TAG_RPC_REQUEST);
+            encodeRpcRequest((RpcRequest) o, out);
+        } else if (o instanceof RpcResponse) {
+            out.writeByte(TAG_RPC_RESPONSE);
+            encodeRpcResponse((RpcResponse) o, out);
+        } else if (o instanceof Heartbeat) {
+            /* Control frames leave the intern tables alone, so the writer may send them ahead of queued frames. */
+            out.writeByte(TAG_HEARTBEAT);
+            out.writeString(((Heartbeat) o).source);
+        } else if (o instanceof FileChunk) {
+            out.writeByte(TAG_FILE_CHUNK);
+            encodeFileChunk((FileChunk) o, out);
+        } else if (o instanceof Credit) {
+            out.writeByte(TAG_CREDIT);
+            out.writeString(((Credit) o).source);
+            out.writeVarInt(((Credit) o).epoch);
+            out.writeVarInt(((Credit) o).frames);
+        } else if (o instanceof Hello) {
+            out.writeByte(TAG_HELLO);
+            out.writeString(((Hello) o).source);
+            out.writeVarInt(((Hello) o).capabilities);
+            out.writeVarInt(((Hello) o).epoch);
+        } else if (o instanceof TopologyDelta) {
+            out.writeByte(TAG_TOPOLOGY);
+            encodeTopology((TopologyDelta) o, out);
+        } else if (o instanceof HistoryRange) {
+            out.writeByte(TAG_HISTORY_RANGE);
+            encodeHistoryRange((HistoryRange) o, out);
+        } else if (o instanceof TopicMessage) {
+            out.writeByte(TAG_TOPIC);
+            encodeTopic((TopicMessage) o, out);
+        } else if (o instanceof SubscriptionDelta) {
+            out.writeByte(TAG_SUBSCRIPTIONS);
+            encodeSubscriptions((SubscriptionDelta) o, out);
+        } else {
+            out.writeByte(TAG_JAVA);
+            JavaSerializationCodec.writeSerialized(o, out);
+        }
+    }
+
+    @Override
+    public Object decode(WireBuffer in) throws IOException, ClassNotFoundException {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_JAVA:
+                return JavaSerializationCodec.readSerialized(in);
+            case TAG_TEXT:
+                return decodeText(in);
+            case TAG_TRAVERSAL:
+                return decodeTraversal(in);
+            case TAG_POLLING:
+                return decodePolling(in);
+            case TAG_ROUTED:
+                return decodeRouted(in);
+            case TAG_RPC_REQUEST:
+                return decodeRpcRequest(in);
+            case TAG_RPC_RESPONSE:
+                return decodeRpcResponse(in);
+            case TAG_HEARTBEAT:
+                return new Heartbeat(in.readString());
+            case TAG_FILE_CHUNK:
+                return decodeFileChunk(in);
+            case TAG_CREDIT:
+                return new Credit(in.readString(), in.readVarInt(), in.readVarInt());
+            case TAG_HELLO:
+                return new Hello(in.readString(), in.readVarInt(), in.readVarInt());
+            case TAG_TOPOLOGY:
+                return decodeTopology(in);
+            case TAG_HISTORY_RANGE:
+                return decodeHistoryRange(in);
+            case TAG_TOPIC:
+                return decodeTopic(in);
+            case TAG_SUBSCRIPTIONS:
+                return decodeSubscriptions(in);
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+    /**
+     * A traversal is written as a fixed header (id, type, callback subject, source, deadline and partial flag), the strings its body adds to
+     * the intern tables, and the length-prefixed body. (Visited set and data) Since the body itself only references interned strings, a
+     * receiver can skip the body of a duplicate without losing track of the stream.
+     */
+    private void encodeTraversal(TraversalObj o, WireBuffer out) throws IOException {
+        writeBroadcastId(o.id, out);
+        writeInterned(o.type, out);
+        writeInterned(o.callbackSubject, out);
+        writeInterned(o.globalSource, out);
+        out.writeVarInt(o.budgetMillis);
+        out.writeByte(o.partial ? 1 : 0);
+        WireBuffer body = new WireBuffer(128);
+        ArrayList<String> outerLiterals = deferredLiterals;
+        ArrayList<String> bodyLiterals = new ArrayList<>();
+        deferredLiterals = bodyLiterals;
+        try {
+            long[] visitedWords = o.visited.words();
+            body.writeVarInt(visitedWords.length);
+            if (visitedWords.length > 0) body.writeLong(o.visited.fingerprint());
+            for (long word : visitedWords) {
+                body.writeLong(word);
+            }
+            encodeValue(o.data, body);
+        } finally {
+            deferredLiterals = outerLiterals;
+        }
+        out.writeVarInt(bodyLiterals.size());
+        for (String literal : bodyLiterals) {
+            out.writeString(literal);
+        }
+        out.writeVarInt(body.length());
+        out.writeBytes(body.array(), 0, body.length());
+    }
+
+    private TraversalObj decodeTraversal(WireBuffer in) throws IOException, ClassNotFoundException {
+        TraversalObj o = new TraversalObj();
+        o.id = readBroadcastId(in);
+        o.type = readInterned(in);
+        o.callbackSubject = readInterned(in);
+        o.globalSource = readInterned(in);
+        o.budgetMillis = in.readVarInt();
+        o.partial = in.readByte() == 1;
+        int numLiterals = in.readVarInt();
+        if (numLiterals < 0 || numLiterals > in.remaining()) throw new IOException("Invalid number of literals " + numLiterals);
+        for (int i = 0; i < numLiterals; i++) {
+            decodeTable.add(in.readString());
+        }
+        int bodyLength = in.readVarInt();
+        if (traversalFilter != null && o.id != null && traversalFilter.skipBody(o.id, o.type)) {
+            in.advance(bodyLength);
+            o.bodySkipped = true;
+            return o;
+        }
+        int visitedLength = in.readVarInt();
+        if (visitedLength < 0 || visitedLength > in.remaining() / 8) throw new IOException("Invalid visited set length " + visitedLength);
+        if (visitedLength > 0) {
+            long fingerprint = in.readLong();
+            long[] visitedWords = new long[visitedLength];
+            for (int i = 0; i < visitedLength; i++) {
+                visitedWords[i] = in.readLong();
+            }
+            o.visited = new VisitedSet(fingerprint, visitedWords);
+        }
+        o.data = decode(in);
+        return o;
+    }
+
+    private void writeBroadcastId(BroadcastId id, WireBuffer out) {
+        if (id == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        out.writeLong(id.origin);
+        out.writeLong(id.sequence);
+    }
+
+    private BroadcastId readBroadcastId(WireBuffer in) throws IOException {
+        if (in.readByte() == 0) return null;
+        return new BroadcastId(in.readLong(), in.readLong());
+    }
+
+    private void encodeText(SerializableText o, WireBuffer out) {
+        writeInterned(o.source, out);
+        writeTime(o.timeStamp, out);
+        writeNullableString(o.text, out);
+    }
+
+    private SerializableText decodeText(WireBuffer in) throws IOException {
+        String source = readInterned(in);
+        LocalTime timeStamp = readTime(in);
+        SerializableText o = new SerializableText(readNullableString(in), source);
+        o.timeStamp = timeStamp;
+        return o;
+    }
+
+    private void encodePolling(PollingMessage o, WireBuffer out) {
+        synchronized (o) {
+            out.writeVarInt(o.aggregates.size());
+            o.aggregates.forEach(aggregate -> aggregate.write(out));
+        }
+    }
+
+    private PollingMessage decodePolling(WireBuffer in) throws IOException {
+        PollingMessage o = new PollingMessage();
+        int size = in.readVarInt();
+        if (size < 0 || size > in.remaining()) throw new IOException("Invalid number of poll aggregates " + size);
+        for (int i = 0; i < size; i++) {
+            o.aggregates.add(PollAggregate.read(in));
+        }
+        return o;
+    }
+
+    private void encodeRouted(RoutedMessage o, WireBuffer out) throws IOException {
+        writeInterned(o.source, out);
+        writeInterned(o.destination, out);
+        out.writeVarInt(o.ttl);
+        encodeValue(o.payload, out);
+    }
+
+    private RoutedMessage decodeRouted(WireBuffer in) throws IOException, ClassNotFoundException {
+        String source = readInterned(in);
+        String destination = readInterned(in);
+        int ttl = in.readVarInt();
+        return new RoutedMessage(source, destination, ttl, decode(in));
+    }
+
+    private void encodeTopology(TopologyDelta o, WireBuffer out) {
+        writeInterned(o.sender, out);
+        out.writeVarInt(o.records.size());
+        for (TopologyDelta.NodeRecord record : o.records) {
+            writeInterned(record.node, out);
+            out.writeVarLong(record.sequence);
+            out.writeVarInt(record.neighbours.size());
+            record.neighbours.forEach(neighbour -> writeInterned(neighbour, out));
+        }
+    }
+
+    private TopologyDelta decodeTopology(WireBuffer in) throws IOException {
+        String sender = readInterned(in);
+        int size = in.readVarInt();
+        if (size < 0 || size > in.remaining()) throw new IOException("Invalid number of topology records " + size);
+        ArrayList<TopologyDelta.NodeRecord> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String node = readInterned(in);
+            long sequence = in.readVarLong();
+            int numNeighbours = in.readVarInt();
+            if (numNeighbours < 0 || numNeighbours > in.remaining()) throw new IOException("Invalid number of neighbours " + numNeighbours);
+            ArrayList<String> neighbours = new ArrayList<>(numNeighbours);
+            for (int j = 0; j < numNeighbours; j++) {
+                neighbours.add(readInterned(in));
+            }
+            records.add(new TopologyDelta.NodeRecord(node, sequence, neighbours));
+        }
+        return new TopologyDelta(sender, records);
+    }
+
+    private void encodeTopic(TopicMessage o, WireBuffer out) throws IOException {
+        writeBroadcastId(o.id, out);
+        writeInterned(o.topic, out);
+        writeInterned(o.origin, out);
+        writeInterned(o.sender, out);
+        out.writeVarInt(o.destinations.size());
+        o.destinations.forEach(destination -> writeInterned(destination, out));
+        encodeValue(o.data, out);
+    }
+
+    private TopicMessage decodeTopic(WireBuffer in) throws IOException, ClassNotFoundException {
+        BroadcastId id = readBroadcastId(in);
+        String topic = readInterned(in);
+        String origin = readInterned(in);
+        String sender = readInterned(in);
+        int numDestinations = in.readVarInt();
+        if (numDestinations < 0 || numDestinations > in.remaining()) throw new IOException("Invalid number of destinations " + numDestinations);
+        ArrayList<String> destinations = new ArrayList<>(numDestinations);
+        for (int i = 0; i < numDestinations; i++) {
+            destinations.add(readInterned(in));
+        }
+        return new TopicMessage(id, topic, origin, sender, destinations, decode(in));
+    }
+
+    private void encodeSubscriptions(SubscriptionDelta o, WireBuffer out) {
+        writeInterned(o.sender, out);
+        out.writeVarInt(o.records.size());
+        for (SubscriptionDelta.Record record : o.records) {
+            writeInterned(record.node, out);
+            out.writeVarLong(record.sequence);
+            out.writeVarInt(record.topics.size());
+            record.topics.forEach(topic -> writeInterned(topic, out));
+        }
+    }
+
+    private SubscriptionDelta decodeSubscriptions(WireBuffer in) throws IOException {
+        String sender = readInterned(in);
+        int size = in.readVarInt();
+        if (size < 0 || size > in.remaining()) throw new IOException("Invalid number of subscription records " + size);
+        ArrayList<SubscriptionDelta.Record> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String node = readInterned(in);
+            long sequence = in.readVarLong();
+            int numTopics = in.readVarInt();
+            if (numTopics < 0 || numTopics > in.remaining()) throw new IOException("Invalid number of topics " + numTopics);
+            ArrayList<String> topics = new ArrayList<>(numTopics);
+            for (int j = 0; j < numTopics; j++) {
+                topics.add(readInterned(in));
+            }
+            records.add(new SubscriptionDelta.Record(node, sequence, topics));
+        }
+        return new SubscriptionDelta(sender, records);
+    }
+
+    private void encodeFileChunk(FileChunk o, WireBuffer out) {
+        writeInterned(o.name, out);
+        out.writeVarLong(o.offset);
+        out.writeVarLong(o.available);
+        out.writeInt(o.crc);
+        out.writeVarInt(o.data.remaining());
+        out.writeBytes(o.data);
+    }
+
+    private FileChunk decodeFileChunk(WireBuffer in) throws IOException {
+        String name = readInterned(in);
+        long offset = in.readVarLong();
+        long available = in.readVarLong();
+        int crc = in.readInt();
+        /* Copied, the frame may live in a buffer the inbound engine reuses. */
+        return new FileChunk(name, offset, available, crc, ByteBuffer.wrap(in.readBytes(in.readVarInt())));
+    }
+
+    private void encodeHistoryRange(HistoryRange o, WireBuffer out) {
+        out.writeVarLong(o.firstOffset);
+        out.writeVarLong(o.nextOffset);
+        out.writeVarLong(o.endOffset);
+        out.writeVarInt(o.records.remaining());
+        out.writeBytes(o.records);
+    }
+
+    private HistoryRange decodeHistoryRange(WireBuffer in) throws IOException {
+        long firstOffset = in.readVarLong();
+        long nextOffset = in.readVarLong();
+        long endOffset = in.readVarLong();
+        /* Copied, the frame may live in a buffer the inbound engine reuses. */
+        return new HistoryRange(firstOffset, nextOffset, endOffset, ByteBuffer.wrap(in.readBytes(in.readVarInt())));
+    }
+
+    private void encodeRpcRequest(RpcRequest o, WireBuffer out) throws IOException {
+        out.writeVarLong(o.id);
+        writeInterned(o.source, out);
+        writeInterned(o.method, out);
+        encodeValue(o.argument, out);
+    }
+
+    private RpcRequest decodeRpcRequest(WireBuffer in) throws IOException, ClassNotFoundException {
+        long id = in.readVarLong();
+        String source = readInterned(in);
+        String method = readInterned(in);
+        return new RpcRequest(id, source, method, decode(in));
+    }
+
+    private void encodeRpcResponse(RpcResponse o, WireBuffer out) throws IOException {
+        out.writeVarLong(o.id);
+        writeNullableString(o.error, out);
+        encodeValue(o.result, out);
+    }
+
+    private RpcResponse decodeRpcResponse(WireBuffer in) throws IOException, ClassNotFoundException {
+        long id = in.readVarLong();
+        String error = readNullableString(in);
+        return new RpcResponse(id, decode(in), error);
+    }
+
+    /**
+     * Writes a time as nano of day plus one, so that zero can stand for null.
+     */
+    private void writeTime(LocalTime time, WireBuffer out) {
+        out.writeVarLong(time == null ? 0 : time.toNanoOfDay() + 1);
+    }
+
+    private LocalTime readTime(WireBuffer in) throws IOException {
+        long value = in.readVarLong();
+        return value == 0 ? null : LocalTime.ofNanoOfDay(value - 1);
+    }
+
+    private void writeNullableString(String value, WireBuffer out) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        out.writeString(value);
+    }
+
+    private String readNullableString(WireBuffer in) throws IOException {
+        return in.readByte() == 0 ? null : in.readString();
+    }
+
+    /**
+     * Writes an interned string: 0 for null, index + 3 for a string seen before on this stream, or 1 (added to the
+     * tables) or 2 (table full, not added) followed by the string itself. Both ends add new strings to their tables in
+     * the same order. Inside a traversal body new strings are written as references and sent ahead of the body.
+     *
+     * @param value String to write.
+     * @param out   Buffer to write to.
+     */
+    private void writeInterned(String value, WireBuffer out) {
+        if (value == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        Integer index = encodeTable.get(value);
+        if (index != null) {
+            out.writeVarInt(index + 3);
+            return;
+        }
+        if (encodeOrder.size() >= MAX_INTERNED) {
+            out.writeVarInt(2);
+            out.writeString(value);
+            return;
+        }
+        encodeTable.put(value, encodeOrder.size());
+        encodeOrder.add(value);
+        if (deferredLiterals != null) {
+            deferredLiterals.add(value);
+            out.writeVarInt(encodeOrder.size() + 2);
+            return;
+        }
+        out.writeVarInt(1);
+        out.writeString(value);
+    }
+
+    private String readInterned(WireBuffer in) throws IOException {
+        int index = in.readVarInt();
+        if (index == 0) return null;
+        if (index == 1) {
+            String value = in.readString();
+            decodeTable.add(value);
+            return value;
+        }
+        if (index == 2) return in.readString();
+        if (index - 3 >= decodeTable.size()) throw new IOException("Unknown interned string " + (index - 3));
+        return decodeTable.get(index - 3);
+    }
+}
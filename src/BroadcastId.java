@@ -0,0 +1,86 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class BroadcastId implements Serializable {
+    private static final long serialVersionUID = 6127016622393818049L;
+
+    final long origin;
+    final long sequence;
+
+    /**
+     * 128-bit id of a broadcast. The high half is a hash of the id of the peer that started the broadcast and the low
+     * half is a sequence number of that peer, so two peers can never produce the same id.
+     *
+     * @param _origin   Hash of the origin peer.
+     * @param _sequence Sequence number on the origin peer.
+     */
+    BroadcastId(long _origin, long _sequence) {
+        origin = _origin;
+        sequence = _sequence;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a peer id, finished with a murmur3 mix so all bits are well distributed.
+     *
+     * @param peerId Id of the peer.
+     * @return Returns the hash.
+     */
+    static long hashPeer(String peerId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : peerId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BroadcastId)) return false;
+        BroadcastId other = (BroadcastId) o;
+        return origin == other.origin && sequence == other.sequence;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) mix(origin ^ sequence * 0x9E3779B97F4A7C15L);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", origin, sequence);
+    }
+
+    /**
+     * Produces the ids of the broadcasts started by one peer. The sequence starts at the current time in
+     * microseconds, so a restarted peer does not reuse the ids of its previous run.
+     */
+    static class Generator {
+        private final long origin;
+        private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+        Generator(String peerId) {
+            origin = hashPeer(peerId);
+        }
+
+        BroadcastId next() {
+            return new BroadcastId(origin, sequence.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+class BroadcastLog {
+    static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    static final long DEFAULT_RETENTION_BYTES = 256L * 1024 * 1024;
+    static final long DEFAULT_RETENTION_MS = 24L * 60 * 60 * 1000;
+    /* Length, CRC32, broadcast origin and sequence number, append time. */
+    static final int RECORD_HEADER = 4 + 4 + 8 + 8 + 8;
+    private static final String SUFFIX = ".log";
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final Map<BroadcastId, Long> offsetsById = new HashMap<>();
+    private final WireBuffer scratch = new WireBuffer(1024);
+    private final CRC32 crc = new CRC32();
+    private final Metrics.Counter appended;
+    private final Metrics.Counter deletedSegments;
+
+    /**
+     * Durable, append-only log of the broadcasts this peer delivered. The log is split into segments of a fixed size,
+     * each a memory-mapped file named after the offset of its first record, so appending is a copy into memory and
+     * reading a range is a slice of a mapped segment. Every record holds the id of the broadcast, the time it was
+     * appended and its payload, and is checked with a CRC32 when the log is opened again: a record torn by a crash
+     * ends the log. Records are indexed by offset (their number in the log), by broadcast id and by time. Whole
+     * segments are deleted once the log is larger than its size limit, or once their newest record is older than the
+     * time limit.
+     *
+     * @param _directory       Directory of the segments. (One per peer)
+     * @param _segmentBytes    Size of a segment.
+     * @param _retentionBytes  Size the segments of the log may take up, the segment being written included.
+     * @param _retentionMillis Age after which a segment is deleted.
+     * @param metrics          Registry of the peer.
+     * @throws IOException If the directory cannot be created or a segment cannot be mapped.
+     */
+    BroadcastLog(File _directory, int _segmentBytes, long _retentionBytes, long _retentionMillis, Metrics metrics) throws IOException {
+        directory = _directory;
+        segmentBytes = _segmentBytes;
+        retentionBytes = _retentionBytes;
+        retentionMillis = _retentionMillis;
+        appended = metrics.counter("history.appended");
+        deletedSegments = metrics.counter("history.deletedSegments");
+        metrics.gauge("history.entries", this::size);
+        metrics.gauge("history.segments", this::segmentCount);
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create " + directory);
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                long baseOffset = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+                segments.add(recover(new Segment(file, baseOffset, (int) Math.max(file.length(), segmentBytes))));
+            }
+        }
+        if (segments.isEmpty()) segments.add(new Segment(segmentFile(0), 0, segmentBytes));
+    }
+
+    /**
+     * A single record of the log.
+     */
+    static class Entry {
+        final long offset;
+        final BroadcastId id;
+        final long time;
+        final Object payload;
+
+        Entry(long _offset, BroadcastId _id, long _time, Object _payload) {
+            offset = _offset;
+            id = _id;
+            time = _time;
+            payload = _payload;
+        }
+    }
+
+    /**
+     * Appends a delivered broadcast, unless the log already holds it.
+     *
+     * @param id      Id of the broadcast.
+     * @param payload Payload of the broadcast.
+     * @return Returns the offset of the new record, or -1 if the broadcast was already in the log.
+     * @throws IOException If the payload cannot be encoded or does not fit into a segment.
+     */
+    synchronized long append(BroadcastId id, Object payload) throws IOException {
+        if (offsetsById.containsKey(id)) return -1;
+        scratch.clear();
+        /* A codec of its own per record, so every record can be decoded without the ones before it. */
+        new BinaryCodec().encode(payload, scratch);
+        int recordLength = RECORD_HEADER + scratch.length();
+        /* Room for the record and for the zero length that marks the end of the log. */
+        if (recordLength + 4 > segmentBytes) throw new IOException("Broadcast " + id + " does not fit into a segment.");
+        Segment segment = active();
+        if (segment.size + recordLength + 4 > segment.capacity) {
+            segment.buffer.force();
+            segment = new Segment(segmentFile(endOffset()), endOffset(), segmentBytes);
+            segments.add(segment);
+            enforceRetention(System.currentTimeMillis());
+        }
+        /* Times never go backwards, so the time index stays sorted even if the clock does. */
+        long time = Math.max(System.currentTimeMillis(), lastTime());
+        ByteBuffer buffer = segment.buffer;
+        int position = segment.size;
+        buffer.putLong(position + 8, id.origin);
+        buffer.putLong(position + 16, id.sequence);
+        buffer.putLong(position + 24, time);
+        ByteBuffer payloadRegion = buffer.duplicate();
+        payloadRegion.position(position + RECORD_HEADER);
+        payloadRegion.put(scratch.array(), 0, scratch.length());
+        buffer.putInt(position + recordLength, 0);
+        buffer.putInt(position + 4, checksum(buffer, position, recordLength));
+        /* The length goes last: a record is only part of the log once it is complete. */
+        buffer.putInt(position, recordLength);
+        long offset = segment.add(position, recordLength, time);
+        offsetsById.put(id, offset);
+        appended.increment();
+        return offset;
+    }
+
+    synchronized boolean contains(BroadcastId id) {
+        return offsetsById.containsKey(id);
+    }
+
+    /**
+     * @return Returns the offset of the oldest record still in the log.
+     */
+    synchronized long startOffset() {
+        return segments.get(0).baseOffset;
+    }
+
+    /**
+     * @return Returns the offset the next record will get.
+     */
+    synchronized long endOffset() {
+        Segment segment = active();
+        return segment.baseOffset + segment.count;
+    }
+
+    synchronized long size() {
+        return endOffset() - startOffset();
+    }
+
+    private synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return Returns the time of the newest record, or 0 if the log is empty.
+     */
+    synchronized long lastTime() {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).count > 0) return segments.get(i).lastTime();
+        }
+        return 0;
+    }
+
+    /**
+     * @param id Id of a broadcast.
+     * @return Returns the offset of the broadcast, or -1 if it is not in the log.
+     */
+    synchronized long offsetOf(BroadcastId id) {
+        Long offset = offsetsById.get(id);
+        return offset == null ? -1 : offset;
+    }
+
+    /**
+     * Finds the first record appended at or after a time. (Binary search of the time index)
+     *
+     * @param timeMillis Time in milliseconds since the epoch.
+     * @return Returns the offset of the record, or the end offset if every record is older.
+     */
+    synchronized long offsetAt(long timeMillis) {
+        for (Segment segment : segments) {
+            if (segment.count == 0 || segment.lastTime() < timeMillis) continue;
+            int low = 0;
+            int high = segment.count - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (segment.times[middle] < timeMillis) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return segment.baseOffset + low;
+        }
+        return endOffset();
+    }
+
+    /**
+     * Returns consecutive records as they are stored, a slice of a single mapped segment, so a range is served with
+     * sequential reads and without decoding it. A range starting before the oldest record starts at the oldest one.
+     *
+     * @param fromOffset Offset of the first record.
+     * @param maxBytes   Size of the range. (At least one record is returned, however large)
+     * @return Returns the range, positioned on its first record, or null if there is no record at or after the offset.
+     */
+    synchronized Range readRange(long fromOffset, int maxBytes) {
+        fromOffset = Math.max(fromOffset, startOffset());
+        Segment segment = segmentOf(fromOffset);
+        if (segment == null) return null;
+        int first = (int) (fromOffset - segment.baseOffset);
+        int last = first + 1;
+        int start = segment.positions[first];
+        while (last < segment.count && segment.endOf(last) - start <= maxBytes) last++;
+        ByteBuffer records = segment.buffer.duplicate();
+        records.limit(segment.endOf(last - 1)).position(start);
+        return new Range(fromOffset, last - first, records.slice().asReadOnlyBuffer());
+    }
+
+    /**
+     * Lists the broadcasts appended during a time window. Only the headers of the records are read.
+     *
+     * @param fromMillis Start of the window.
+     * @param toMillis   End of the window. (Exclusive)
+     * @return Returns the ids of the broadcasts, oldest first.
+     */
+    synchronized List<BroadcastId> ids(long fromMillis, long toMillis) {
+        ArrayList<BroadcastId> ids = new ArrayList<>();
+        long end = offsetAt(toMillis);
+        for (long offset = offsetAt(fromMillis); offset < end; offset++) {
+            Segment segment = segmentOf(offset);
+            int position = segment.positions[(int) (offset - segment.baseOffset)];
+            ids.add(new BroadcastId(segment.buffer.getLong(position + 8), segment.buffer.getLong(position + 16)));
+        }
+        return ids;
+    }
+
+    /**
+     * Copies the records of some broadcasts, in the order of the log, into a single buffer that parse decodes. Unlike
+     * the ones of readRange, the offsets parse gives these records are their positions in the buffer.
+     *
+     * @param ids      Ids of the broadcasts. Those that are not in the log are left out.
+     * @param maxBytes Size of the buffer. (At least one record is copied, however large)
+     * @return Returns the records.
+     */
+    synchronized ByteBuffer records(Collection<BroadcastId> ids, int maxBytes) {
+        long[] offsets = ids.stream().map(offsetsById::get).filter(Objects::nonNull).mapToLong(Long::longValue).sorted().toArray();
+        int count = 0;
+        int size = 0;
+        for (; count < offsets.length; count++) {
+            Segment segment = segmentOf(offsets[count]);
+            int index = (int) (offsets[count] - segment.baseOffset);
+            int length = segment.endOf(index) - segment.positions[index];
+            if (count > 0 && size + length > maxBytes) break;
+            size += length;
+        }
+        ByteBuffer records = ByteBuffer.allocate(size);
+        for (int i = 0; i < count; i++) {
+            Segment segment = segmentOf(offsets[i]);
+            int index = (int) (offsets[i] - segment.baseOffset);
+            ByteBuffer record = segment.buffer.duplicate();
+            record.limit(segment.endOf(index)).position(segment.positions[index]);
+            records.put(record);
+        }
+        records.flip();
+        return records;
+    }
+
+    /**
+     * Reads records in order.
+     *
+     * @param fromOffset Offset of the first record.
+     * @param maxEntries Maximum number of records.
+     * @return Returns the records, oldest first.
+     * @throws IOException If a record cannot be decoded.
+     */
+    List<Entry> read(long fromOffset, int maxEntries) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        while (entries.size() < maxEntries) {
+            Range range = readRange(fromOffset, segmentBytes);
+            if (range == null) break;
+            for (Entry entry : parse(range.firstOffset, range.records)) {
+                if (entries.size() == maxEntries) break;
+                entries.add(entry);
+            }
+            fromOffset = entries.isEmpty() ? range.firstOffset : entries.get(entries.size() - 1).offset + 1;
+            if (fromOffset >= endOffset()) break;
+        }
+        return entries;
+    }
+
+    /**
+     * Hands every record from an offset on to a consumer, in order, one segment at a time.
+     *
+     * @param fromOffset Offset of the first record.
+     * @param consumer   Consumer of the records.
+     * @return Returns the offset after the last record replayed.
+     * @throws IOException If a record cannot be decoded.
+     */
+    long replay(long fromOffset, Consumer<Entry> consumer) throws IOException {
+        Range range;
+        while ((range = readRange(fromOffset, segmentBytes)) != null) {
+            List<Entry> entries = parse(range.firstOffset, range.records);
+            entries.forEach(consumer);
+            fromOffset = range.firstOffset + entries.size();
+        }
+        return fromOffset;
+    }
+
+    /**
+     * Decodes a range of records, as returned by readRange and sent to other peers.
+     *
+     * @param firstOffset Offset of the first record of the range.
+     * @param records     Records of the range. (The position of the buffer is not changed)
+     * @return Returns the records.
+     * @throws IOException If a record is damaged or cannot be decoded.
+     */
+    static List<Entry> parse(long firstOffset, ByteBuffer records) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        ByteBuffer in = records.duplicate();
+        CRC32 crc = new CRC32();
+        while (in.remaining() >= RECORD_HEADER) {
+            int position = in.position();
+            int length = in.getInt(position);
+            if (length < RECORD_HEADER || length > in.remaining()) throw new IOException("Damaged history record at " + (firstOffset + entries.size()));
+            crc.reset();
+            ByteBuffer checked = in.duplicate();
+            checked.limit(position + length).position(position + 8);
+            crc.update(checked);
+            if ((int) crc.getValue() != in.getInt(position + 4)) throw new IOException("Checksum mismatch of history record " + (firstOffset + entries.size()));
+            BroadcastId id = new BroadcastId(in.getLong(position + 8), in.getLong(position + 16));
+            long time = in.getLong(position + 24);
+            byte[] payload = new byte[length - RECORD_HEADER];
+            in.position(position + RECORD_HEADER);
+            in.get(payload);
+            try {
+                entries.add(new Entry(firstOffset + entries.size(), id, time, new BinaryCodec().decode(new WireBuffer(payload, 0, payload.length))));
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown payload in history record " + (firstOffset + entries.size()), e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Deletes the oldest segments while the log is too large or they are too old. The segment being written is kept.
+     *
+     * @param now Current time in milliseconds.
+     */
+    synchronized void enforceRetention(long now) {
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            long totalBytes = 0;
+            for (Segment segment : segments) totalBytes += segment.capacity;
+            boolean tooLarge = totalBytes > retentionBytes;
+            boolean tooOld = oldest.count == 0 || oldest.lastTime() < now - retentionMillis;
+            if (!tooLarge && !tooOld) return;
+            segments.remove(0);
+            for (int i = 0; i < oldest.count; i++) {
+                ByteBuffer buffer = oldest.buffer;
+                int position = oldest.positions[i];
+                offsetsById.remove(new BroadcastId(buffer.getLong(position + 8), buffer.getLong(position + 16)));
+            }
+            oldest.close();
+            /* A range that was read before stays readable, the mapping outlives the file. */
+            if (!oldest.file.delete()) Log.warn("Could not delete history segment {}.", oldest.file);
+            deletedSegments.increment();
+        }
+    }
+
+    /**
+     * Writes the mapped segment that is being appended to out to its file.
+     */
+    synchronized void flush() {
+        active().buffer.force();
+    }
+
+    synchronized void close() {
+        flush();
+        segments.forEach(Segment::close);
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Segment segmentOf(long offset) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (offset >= segment.baseOffset) return offset < segment.baseOffset + segment.count ? segment : null;
+        }
+        return null;
+    }
+
+    private File segmentFile(long baseOffset) {
+        return new File(directory, String.format("%020d%s", baseOffset, SUFFIX));
+    }
+
+    /**
+     * Rebuilds the index of a segment found on disk. Stops at the end marker, or at the first damaged record.
+     */
+    private Segment recover(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + RECORD_HEADER <= segment.capacity) {
+            int length = buffer.getInt(position);
+            if (length < RECORD_HEADER || position + length + 4 > segment.capacity) break;
+            if (checksum(buffer, position, length) != buffer.getInt(position + 4)) {
+                Log.warn("History segment {} is damaged at {}, dropping the rest of it.", segment.file, position);
+                break;
+            }
+            long offset = segment.add(position, length, buffer.getLong(position + 24));
+            offsetsById.put(new BroadcastId(buffer.getLong(position + 8), buffer.getLong(position + 16)), offset);
+            position += length;
+        }
+        /* Whatever follows was never completely written. */
+        if (position + 4 <= segment.capacity) buffer.putInt(position, 0);
+        return segment;
+    }
+
+    /**
+     * @return Returns the CRC32 of a record, from its broadcast id to its end.
+     */
+    private int checksum(ByteBuffer buffer, int position, int length) {
+        ByteBuffer checked = buffer.duplicate();
+        checked.limit(position + length).position(position + 8);
+        crc.reset();
+        crc.update(checked);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Consecutive records of the log, as stored.
+     */
+    static class Range {
+        final long firstOffset;
+        final int count;
+        final ByteBuffer records;
+
+        Range(long _firstOffset, int _count, ByteBuffer _records) {
+            firstOffset = _firstOffset;
+            count = _count;
+            records = _records;
+        }
+    }
+
+    /**
+     * One mapped file of the log, and the index of its records.
+     */
+    private static class Segment {
+        private final File file;
+        private final long baseOffset;
+        private final int capacity;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        /* Position and time of every record, in order. */
+        private int[] positions = new int[64];
+        private long[] times = new long[64];
+        private int count = 0;
+        /* Position after the last record. */
+        private int size = 0;
+
+        Segment(File _file, long _baseOffset, int _capacity) throws IOException {
+            file = _file;
+            baseOffset = _baseOffset;
+            capacity = _capacity;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        /**
+         * @return Returns the offset of the record.
+         */
+        long add(int position, int length, long time) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                times = Arrays.copyOf(times, count * 2);
+            }
+            positions[count] = position;
+            times[count] = time;
+            size = position + length;
+            return baseOffset + count++;
+        }
+
+        long lastTime() {
+            return count == 0 ? 0 : times[count - 1];
+        }
+
+        /**
+         * @return Returns the position after a record.
+         */
+        int endOf(int index) {
+            return index + 1 < count ? positions[index + 1] : size;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.error("Error while closing history segment {}.", file, e);
+            }
+        }
+    }
+}
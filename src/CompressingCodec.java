@@ -0,0 +1,126 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+class CompressingCodec implements WireCodec {
+    static final int DEFAULT_THRESHOLD = 512;
+    /* Capability bit announced in the Hello of a peer that accepts deflated frames. */
+    static final int CAPABILITY_DEFLATE = 1;
+
+    private final WireCodec inner;
+    private final int threshold;
+    private final WireBuffer scratch = new WireBuffer(4096);
+    private byte[] inflated = new byte[4096];
+    private Deflater deflater = null;
+    private Inflater inflater = null;
+    private volatile boolean enabled = false;
+    private final Metrics.Counter bytesBefore;
+    private final Metrics.Counter bytesAfter;
+    private final Metrics.Counter incompressible;
+    private final Metrics.Histogram deflateTime;
+    private final Metrics.Histogram inflateTime;
+
+    /**
+     * The ways a peer may compress the frames it sends.
+     */
+    enum Mode {
+        /* Frames are never compressed, and the peer does not ask its neighbours to compress. */
+        NONE,
+        /* Frames above the threshold are deflated, if the receiving peer announced that it accepts them. */
+        DEFLATE
+    }
+
+    /**
+     * Compression stage around another codec. Encoded payloads of at least the threshold are deflated as a whole,
+     * while compression is enabled for the stream, and sent under their own tag; every other payload passes through
+     * unchanged. Decoding inflates tagged payloads whatever the setting, so a receiver only has to announce that it
+     * accepts them. The deflater, the inflater and both scratch buffers belong to the stream and are reused for every
+     * frame, so like the inner codec one instance must only ever encode (or decode) a single ordered stream.
+     *
+     * @param _inner     Codec of the payload.
+     * @param _threshold Minimum payload size in bytes worth compressing.
+     * @param metrics    Registry of the peer, receives the compression ratio and time.
+     */
+    CompressingCodec(WireCodec _inner, int _threshold, Metrics metrics) {
+        inner = _inner;
+        threshold = _threshold;
+        bytesBefore = metrics.counter("compression.bytesBefore");
+        bytesAfter = metrics.counter("compression.bytesAfter");
+        incompressible = metrics.counter("compression.incompressible");
+        deflateTime = metrics.histogram("compression.deflateTime");
+        inflateTime = metrics.histogram("compression.inflateTime");
+        metrics.gauge("compression.ratio", () -> bytesBefore.get() == 0 ? 1 : (double) bytesAfter.get() / bytesBefore.get());
+    }
+
+    /**
+     * @param _enabled Whether payloads above the threshold are compressed from now on.
+     */
+    void setEnabled(boolean _enabled) {
+        enabled = _enabled;
+    }
+
+    @Override
+    public void encode(Object o, WireBuffer out) throws IOException {
+        if (!enabled) {
+            inner.encode(o, out);
+            return;
+        }
+        scratch.clear();
+        inner.encode(o, scratch);
+        if (scratch.length() < threshold) {
+            out.writeBytes(scratch.array(), 0, scratch.length());
+            return;
+        }
+        long startedAt = System.nanoTime();
+        if (deflater == null) deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.reset();
+        deflater.setInput(scratch.array(), 0, scratch.length());
+        deflater.finish();
+        int start = out.length();
+        out.writeByte(TAG_DEFLATED);
+        out.writeVarInt(scratch.length());
+        out.writeDeflated(deflater);
+        deflateTime.recordSince(startedAt);
+        bytesBefore.add(scratch.length());
+        if (out.length() - start >= scratch.length()) {
+            /* Did not pay off, sent as it is. */
+            incompressible.increment();
+            out.truncate(start);
+            out.writeBytes(scratch.array(), 0, scratch.length());
+        }
+        bytesAfter.add(out.length() - start);
+    }
+
+    @Override
+    public Object decode(WireBuffer in) throws IOException, ClassNotFoundException {
+        if (in.remaining() == 0 || in.array()[in.position()] != TAG_DEFLATED) return inner.decode(in);
+        long startedAt = System.nanoTime();
+        in.advance(1);
+        int length = in.readVarInt();
+        Frames.checkLength(length);
+        if (inflated.length < length) inflated = new byte[Math.max(length, inflated.length * 2)];
+        if (inflater == null) inflater = new Inflater();
+        inflater.reset();
+        inflater.setInput(in.array(), in.position(), in.remaining());
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(inflated, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += n;
+            }
+            if (read != length || !inflater.finished()) throw new IOException("Deflated payload does not match its length " + length);
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed deflated payload", e);
+        }
+        in.advance(in.remaining());
+        inflateTime.recordSince(startedAt);
+        return Frames.decode(inflated, 0, length, inner);
+    }
+}
@@ -4,71 +4,471 @@
  */
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 class Connection {
-    private Socket socket;
-    String ip = null;
-    private int port = -1;
-    private ObjectOutputStream outStream;
+    static final int DEFAULT_SEND_QUEUE = 1024;
+    static final int DEFAULT_CREDIT_WINDOW = 256;
+    private static final int MAX_BATCH_FRAMES = 64;
+    /* Longest a send waits for room in the send queue before it fails with a QueueFullException. */
+    static final long MAX_SEND_WAIT_MS = 5 * 1000;
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 10 * 1000;
+    private static final Log.Limiter CONNECT_FAILURES = new Log.Limiter();
+    private static final Log.Limiter LOST_CONNECTIONS = new Log.Limiter();
+
+    private final Transport transport;
+    private Transport.Link link;
+    /* Id of the peer on the other end. (node:port) */
+    String peerId = null;
+    private String localId = null;
+    /* Introduces this peer, first frame of every stream. (With the epoch of the stream) */
+    private final Hello hello;
+    /* Counts the streams of this connection, so credits returned for a stream that was replaced can be told apart. */
+    private int epoch = 0;
+    private final WireCodec.Type codecType;
+    private CompressingCodec codec;
+    private final int compressionThreshold;
+    /* Set once the peer on the other end announced that it accepts deflated frames. Survives reconnects. */
+    private boolean compress = false;
+    private final BlockingQueue<PendingFrame> outboundQueue;
+    /* Sends that found the outbound queue full, oldest first. Encoded only once they move to the queue. */
+    private final ArrayDeque<WaitingSend> waitingSends = new ArrayDeque<>();
+    private final int maxWaitingSends;
+    /* Heartbeats and credits, written ahead of the outbound queue and never held back by flow control. */
+    private final ArrayDeque<WireBuffer> controlQueue = new ArrayDeque<>();
+    /* Guards the codec, the link, the queues, the credits, the epoch and the writer flag. */
+    private final Object encodeLock = new Object();
+    private final int creditWindow;
+    private volatile int credits;
+    /* Set while a writer task is queued or running. There is never more than one. */
+    private boolean writing = false;
+    private boolean stalled = false;
+    private long backoff = INITIAL_BACKOFF_MS;
+    private volatile boolean closed = false;
+    /* Set while a stream is connected. */
+    private volatile boolean open = false;
+    private final CompletableFuture<Void> firstConnected = new CompletableFuture<>();
+    private final Consumer<Connection> stateChanged;
+    private final Metrics metrics;
+    private Metrics.Counter bytesOut;
+    private Metrics.Counter messagesOut;
+    private Metrics.Counter creditStalls;
+    private Metrics.Counter reconnects;
+    private final PhiAccrualDetector detector;
+    /* Set while the failure detector suspects the peer. Suspected peers are left out of traversals. */
+    volatile boolean suspected = false;
 
     /**
-     * Connects client socket with server socket.
+     * Connects this peer with an adjacent one, over any transport. No thread is tied to a connection: frames are
+     * written by a task that only runs while there is something to write, and failed dials are retried from the
+     * scheduler, so a process can hold thousands of connections.
+     *
+     * @param peerData      Metadata of the peer. (Codec, send queue, inbound window, heartbeat interval and
+     *                      compression threshold)
+     * @param _transport    Transport the stream is opened through.
+     * @param _hello        Introduces this peer to the other one, sent first on every stream with the epoch of the
+     *                      stream in place of its own.
+     * @param _metrics      Registry of the peer, receives the outbound traffic of this connection.
+     * @param _stateChanged Told every time the stream of this connection was opened or lost.
      */
-    Connection() {
+    Connection(PeerData peerData, Transport _transport, Hello _hello, Metrics _metrics, Consumer<Connection> _stateChanged) {
+        transport = _transport;
+        hello = _hello;
+        codecType = peerData.codec;
+        creditWindow = peerData.inboundWindow;
+        credits = creditWindow;
+        compressionThreshold = peerData.compressionThreshold;
+        stateChanged = _stateChanged;
+        outboundQueue = new ArrayBlockingQueue<>(peerData.sendQueue);
+        maxWaitingSends = peerData.sendQueue;
+        metrics = _metrics;
+        codec = newCodec();
+        detector = new PhiAccrualDetector(peerData.heartbeatMillis);
     }
 
     /**
-     * Connects client socket to a serverSocket on another peer.
+     * Starts connecting to another peer and returns right away. The peer is dialed until it answers, with jittered
+     * exponential backoff, and dialed again whenever the stream fails.
      *
-     * @param _ip   Ip address of desired peer.
-     * @param _port Port number of desired peer.
+     * @param _peerId  Id of the desired peer.
+     * @param _localId Id of this peer.
+     * @return Returns a future that completes once the first connection was established.
+     */
+    CompletableFuture<Void> establishConnection(String _peerId, String _localId) {
+        peerId = _peerId;
+        localId = _localId;
+        bytesOut = metrics.counter("connection." + _peerId + ".bytesOut");
+        messagesOut = metrics.counter("connection." + _peerId + ".messagesOut");
+        creditStalls = metrics.counter("connection." + _peerId + ".creditStalls");
+        reconnects = metrics.counter("connection." + _peerId + ".reconnects");
+        metrics.gauge("connection." + _peerId + ".credits", () -> credits);
+        metrics.gauge("connection." + _peerId + ".sendQueue", this::queuedFrames);
+        metrics.gauge("connection." + _peerId + ".phi", () -> Math.min(phi(System.currentTimeMillis()), 1000));
+        Peer.Shared.threadManager.execute(this::dial);
+        return firstConnected;
+    }
+
+    /**
+     * Dials the peer once. If it does not answer, the next attempt is scheduled after a delay that doubles up to a
+     * maximum and is picked at random between half of it and all of it, so peers that start together do not retry in
+     * lockstep.
      */
-    void establishConnection(String _ip, int _port) {
-        ip = _ip;
-        port = _port;
+    private void dial() {
+        if (!Peer.Shared.running || closed) return;
         try {
-            socket = new Socket(_ip, _port);
-            outStream = new ObjectOutputStream(socket.getOutputStream());
-            System.out.println("Connection Established with " + ip + ":" + port);
+            WireBuffer helloFrame;
+            synchronized (encodeLock) {
+                helloFrame = Frames.encode(new Hello(hello.source, hello.capabilities, epoch), codec);
+            }
+            Transport.Link newLink = transport.connect(peerId, localId);
+            synchronized (encodeLock) {
+                if (closed) {
+                    newLink.close();
+                    return;
+                }
+                link = newLink;
+                open = true;
+                /* The other end learns who is on this stream from its first frame. */
+                controlQueue.add(helloFrame);
+                startWriter();
+            }
+            backoff = INITIAL_BACKOFF_MS;
+            Log.info("Connection established with {}", peerId);
+            if (firstConnected.isDone()) reconnects.increment();
+            firstConnected.complete(null);
+            stateChanged.accept(this);
         } catch (IOException e) {
-            System.out.println("Error while trying to establish a connection with " + ip + ":" + port);
-            e.printStackTrace();
+            long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            CONNECT_FAILURES.warn("Could not connect to {} ({}), retrying in {} ms.", peerId, e.getMessage(), delay);
+            backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+            Peer.Shared.scheduler.schedule(() -> Peer.Shared.threadManager.execute(this::dial), delay, TimeUnit.MILLISECONDS);
         }
     }
 
     /**
-     * Disconnects socket.
+     * Closes the current stream after it failed. Frames that are still queued were encoded for the lost stream (the
+     * binary codec interns strings per stream), so they fail, and the next stream starts with a fresh codec.
+     *
+     * @return Returns whether the stream was open.
+     */
+    private boolean closeLink() {
+        boolean wasOpen;
+        Transport.Link lostLink;
+        synchronized (encodeLock) {
+            wasOpen = open;
+            open = false;
+            lostLink = link;
+            link = null;
+            codec = newCodec();
+            /* The other end counts the frames of every stream from scratch. */
+            credits = creditWindow;
+            epoch++;
+            controlQueue.clear();
+            failQueuedFrames();
+        }
+        if (lostLink != null) lostLink.close();
+        return wasOpen;
+    }
+
+    /**
+     * @return Returns a codec for a new stream, compressing if the peer accepts it. Must hold the encode lock.
+     */
+    private CompressingCodec newCodec() {
+        CompressingCodec newCodec = new CompressingCodec(codecType.create(), compressionThreshold, metrics);
+        newCodec.setEnabled(compress);
+        return newCodec;
+    }
+
+    /**
+     * Turns compression of large frames on or off, after the peer on the other end announced whether it accepts it.
+     * Frames that are already queued were encoded as they are, the receiver decodes both.
+     *
+     * @param enabled Whether to compress from the next frame on.
+     */
+    void setCompression(boolean enabled) {
+        synchronized (encodeLock) {
+            compress = enabled;
+            codec.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * @return Returns whether a stream to the peer is connected.
+     */
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes the stream for good. Frames that were not written yet fail.
      */
     void disconnect() {
-        if (socket.isConnected()) {
-            try {
-                outStream.close();
-                socket.close();
-                ip = null;
-                port = -1;
-            } catch (IOException e) {
-                System.out.println("Error while disconnecting socket.");
-                e.printStackTrace();
+        closed = true;
+        closeLink();
+    }
+
+    /**
+     * Queues an object to be sent via this connection and returns right away. Safe to call from any thread: frames are
+     * encoded in the order they are queued, and a single writer sends them. While the send queue is full (the peer on
+     * the other end is behind, or out of credits for this one) sends wait for room, in order, so a slow peer slows its
+     * senders down instead of failing their sends. At most sendQueue sends wait, for up to MAX_SEND_WAIT_MS.
+     *
+     * @param o Object to be sent.
+     * @return Returns a future that completes once the frame was written to the stream. It fails with a
+     * QueueFullException if the send could not wait for room, and with any other IOException if the connection is not
+     * open or was lost.
+     */
+    CompletableFuture<Void> sendObject(Object o) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        synchronized (encodeLock) {
+            if (closed || !open) {
+                written.completeExceptionally(new IOException("Connection with " + peerId + " is not open."));
+                return written;
             }
-        } else {
-            System.out.println("Socket is connected, therefore could not disconnect.");
+            /* Checked before encoding, a frame that was encoded but never sent would leave the codec out of sync. */
+            if (!waitingSends.isEmpty() || outboundQueue.remainingCapacity() == 0) {
+                long now = System.currentTimeMillis();
+                expireWaitingSends(now);
+                if (waitingSends.size() >= maxWaitingSends) {
+                    written.completeExceptionally(new QueueFullException("Send queue of " + peerId + " is full."));
+                } else {
+                    waitingSends.add(new WaitingSend(o, written, now));
+                    admitWaitingSends();
+                }
+                return written;
+            }
+            enqueue(o, written);
         }
+        return written;
     }
 
     /**
-     * Sends an object via this socket.
+     * Encodes an object into the outbound queue, which must have room for it. Must hold the encode lock.
      *
-     * @param o Object to be sent.
+     * @param o       Object to be sent.
+     * @param written Completed once the frame was written to the stream.
      */
-    void sendObject(Object o) {
+    private void enqueue(Object o, CompletableFuture<Void> written) {
         try {
-            outStream.writeObject(o);
-            outStream.flush();
+            outboundQueue.add(new PendingFrame(Frames.encode(o, codec), written));
+            startWriter();
         } catch (IOException e) {
-            System.out.println("Error while sending object data.");
-            e.printStackTrace();
+            Log.error("Error while encoding object data.", e);
+            written.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Moves waiting sends to the outbound queue, as far as it has room. Must hold the encode lock.
+     */
+    private void admitWaitingSends() {
+        while (!waitingSends.isEmpty() && outboundQueue.remainingCapacity() > 0) {
+            WaitingSend waiting = waitingSends.poll();
+            enqueue(waiting.o, waiting.written);
+        }
+    }
+
+    /**
+     * Fails the sends that waited for room longer than MAX_SEND_WAIT_MS. Called periodically, so sends do not wait
+     * forever on a peer that stopped returning credits.
+     *
+     * @param nowMillis Current time.
+     */
+    void expireWaitingSends(long nowMillis) {
+        synchronized (encodeLock) {
+            WaitingSend oldest;
+            while ((oldest = waitingSends.peek()) != null && nowMillis - oldest.since > MAX_SEND_WAIT_MS) {
+                waitingSends.poll();
+                oldest.written.completeExceptionally(new QueueFullException("Send queue of " + peerId + " stayed full."));
+            }
+        }
+    }
+
+    /**
+     * Queues a control message (Heartbeat or Credit) ahead of every other frame. Control frames are not subject to
+     * flow control, so they still get through while the peer on the other end is behind.
+     *
+     * @param o Control message to be sent.
+     * @return Returns whether the message was queued. (False while the connection is not open)
+     */
+    boolean sendControl(Object o) {
+        synchronized (encodeLock) {
+            if (closed || !open) return false;
+            try {
+                controlQueue.add(Frames.encode(o, codec));
+                startWriter();
+                return true;
+            } catch (IOException e) {
+                Log.error("Error while encoding control data.", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Lets the writer send more frames, after the peer on the other end handled some. Credits for an earlier stream
+     * are ignored: this one started with a full window, and they would let the writer exceed it.
+     *
+     * @param streamEpoch Epoch of the stream the frames were sent on.
+     * @param frames      Number of frames the peer handled.
+     */
+    void creditGranted(int streamEpoch, int frames) {
+        if (creditWindow == 0) return;
+        synchronized (encodeLock) {
+            if (streamEpoch != epoch) return;
+            credits += frames;
+            startWriter();
+        }
+    }
+
+    /**
+     * @return Returns whether the writer has a frame it may write right away. Must hold the encode lock.
+     */
+    private boolean hasWritableFrames() {
+        return !controlQueue.isEmpty() || (!outboundQueue.isEmpty() && (creditWindow == 0 || credits > 0));
+    }
+
+    /**
+     * Records a heartbeat (or any other sign of life) of the peer on the other end.
+     */
+    void heartbeatReceived() {
+        detector.heartbeat(System.currentTimeMillis());
+    }
+
+    /**
+     * @param nowMillis Current time.
+     * @return Returns the suspicion level of the peer on the other end. (See PhiAccrualDetector)
+     */
+    double phi(long nowMillis) {
+        return detector.phi(nowMillis);
+    }
+
+    /**
+     * @return Returns the number of frames waiting to be written.
+     */
+    int queuedFrames() {
+        return outboundQueue.size();
+    }
+
+    /**
+     * Starts a writer task, unless one is already queued or running or there is nothing it could write. Must hold the
+     * encode lock.
+     */
+    private void startWriter() {
+        if (writing || !open || !hasWritableFrames()) return;
+        writing = true;
+        Peer.Shared.threadManager.execute(this::writeFrames);
+    }
+
+    /**
+     * Writes queued frames until there are none left that may be written, then ends. Every frame that is queued when
+     * the writer looks goes out before a single flush, so under load many frames share one system call. Control frames
+     * go first; other frames only as far as the credits of the peer on the other end allow, so a peer that falls behind
+     * slows this one down instead of queueing without bounds. A failed stream is closed and dialed again.
+     */
+    private void writeFrames() {
+        ArrayList<PendingFrame> batch = new ArrayList<>(MAX_BATCH_FRAMES);
+        ArrayList<WireBuffer> frames = new ArrayList<>(MAX_BATCH_FRAMES);
+        while (true) {
+            Transport.Link current;
+            synchronized (encodeLock) {
+                frames.addAll(controlQueue);
+                controlQueue.clear();
+                outboundQueue.drainTo(batch, creditWindow == 0 ? MAX_BATCH_FRAMES : Math.min(MAX_BATCH_FRAMES, credits));
+                if (creditWindow > 0) credits -= batch.size();
+                admitWaitingSends();
+                boolean nowStalled = batch.isEmpty() && !outboundQueue.isEmpty();
+                if (nowStalled && !stalled) creditStalls.increment();
+                stalled = nowStalled;
+                if ((frames.isEmpty() && batch.isEmpty()) || link == null) {
+                    writing = false;
+                    return;
+                }
+                current = link;
+            }
+            try {
+                batch.forEach(pending -> frames.add(pending.frame));
+                long written = 0;
+                for (WireBuffer frame : frames) {
+                    current.write(frame);
+                    written += frame.length();
+                }
+                current.flush();
+                bytesOut.add(written);
+                messagesOut.add(frames.size());
+                batch.forEach(frame -> frame.written.complete(null));
+            } catch (IOException e) {
+                if (!closed) LOST_CONNECTIONS.warn("Lost connection with {} ({}).", peerId, e.getMessage());
+                batch.forEach(frame -> frame.written.completeExceptionally(e));
+                /* Still marked as writing, so no other writer starts on the lost stream before it is closed. */
+                boolean wasOpen = closeLink();
+                synchronized (encodeLock) {
+                    writing = false;
+                }
+                if (!wasOpen) return;
+                stateChanged.accept(this);
+                Peer.Shared.threadManager.execute(this::dial);
+                return;
+            }
+            batch.clear();
+            frames.clear();
+        }
+    }
+
+    /**
+     * Fails every frame that is still queued, and every send that still waits for room. Must hold the encode lock.
+     */
+    private void failQueuedFrames() {
+        IOException closedException = new IOException("Connection with " + peerId + " was closed.");
+        PendingFrame frame;
+        while ((frame = outboundQueue.poll()) != null) {
+            frame.written.completeExceptionally(closedException);
+        }
+        WaitingSend waiting;
+        while ((waiting = waitingSends.poll()) != null) {
+            waiting.written.completeExceptionally(closedException);
+        }
+    }
+
+    /**
+     * A send that failed because the peer on the other end fell behind (or is out of credits for this one), not because
+     * the connection was lost. The connection is still open, so the send may be retried once the queue drained.
+     */
+    static class QueueFullException extends IOException {
+        private static final long serialVersionUID = 4127764893372311546L;
+
+        QueueFullException(String message) {
+            super(message);
+        }
+    }
+
+    private static class WaitingSend {
+        private final Object o;
+        private final CompletableFuture<Void> written;
+        private final long since;
+
+        WaitingSend(Object _o, CompletableFuture<Void> _written, long _since) {
+            o = _o;
+            written = _written;
+            since = _since;
+        }
+    }
+
+    private static class PendingFrame {
+        private final WireBuffer frame;
+        private final CompletableFuture<Void> written;
+
+        PendingFrame(WireBuffer _frame, CompletableFuture<Void> _written) {
+            frame = _frame;
+            written = _written;
         }
     }
 }
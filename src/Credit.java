@@ -0,0 +1,29 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class Credit implements Serializable {
+    private static final long serialVersionUID = -3315160858713473296L;
+
+    String source;
+    int epoch;
+    int frames;
+
+    /**
+     * Flow control message. Tells an adjacent peer that this one handled some of the frames it sent, so it may send
+     * that many more.
+     *
+     * @param _source Id of the peer that handled the frames.
+     * @param _epoch  Epoch of the stream the frames arrived on. (See Hello) Credits for an older stream are ignored, the
+     *                sender started its new stream with a full window.
+     * @param _frames Number of frames handled since the last credit.
+     */
+    Credit(String _source, int _epoch, int _frames) {
+        source = _source;
+        epoch = _epoch;
+        frames = _frames;
+    }
+}
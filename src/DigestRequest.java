@@ -0,0 +1,31 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class DigestRequest implements Serializable {
+    private static final long serialVersionUID = -6650372541095014785L;
+
+    long sinceMillis;
+    long untilMillis;
+    int level;
+    int[] nodes;
+
+    /**
+     * Argument of the repairDigest and repairIds calls: nodes of the digest of the broadcasts a peer logged during a
+     * time window.
+     *
+     * @param _sinceMillis Start of the window.
+     * @param _untilMillis End of the window. (Exclusive)
+     * @param _level       Level of the nodes in the digest. (0 is the root)
+     * @param _nodes       Indices of the nodes on their level.
+     */
+    DigestRequest(long _sinceMillis, long _untilMillis, int _level, int[] _nodes) {
+        sinceMillis = _sinceMillis;
+        untilMillis = _untilMillis;
+        level = _level;
+        nodes = _nodes;
+    }
+}
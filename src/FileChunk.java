@@ -0,0 +1,80 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+class FileChunk implements Serializable {
+    private static final long serialVersionUID = 3034611735669474218L;
+
+    String name;
+    long offset;
+    /* Number of bytes from the start of the file the serving peer has. */
+    long available;
+    int crc;
+    /* A region of the mapped file on the serving peer, a copy of the received bytes on the other. */
+    transient ByteBuffer data;
+
+    /**
+     * Result of the fileChunk call: a range of a file and its CRC32. Empty if the serving peer does not have the range
+     * yet. The serving peer encodes the data from the mapped region into the frame without reading it into a buffer
+     * first; the receiving one decodes it into a buffer of its own, the frame may be reused.
+     *
+     * @param _name      Name of the file.
+     * @param _offset    Offset of the first byte.
+     * @param _available Number of bytes from the start of the file the serving peer has.
+     * @param _data      The bytes of the range, or an empty buffer.
+     */
+    FileChunk(String _name, long _offset, long _available, ByteBuffer _data) {
+        this(_name, _offset, _available, checksum(_data), _data);
+    }
+
+    /**
+     * A chunk as it was received.
+     */
+    FileChunk(String _name, long _offset, long _available, int _crc, ByteBuffer _data) {
+        name = _name;
+        offset = _offset;
+        available = _available;
+        crc = _crc;
+        data = _data;
+    }
+
+    /**
+     * @param data Bytes to check. (The position of the buffer is not changed)
+     * @return Returns the CRC32 of the remaining bytes.
+     */
+    static int checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return Returns whether the data matches the checksum it was sent with.
+     */
+    boolean isIntact() {
+        return checksum(data) == crc;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        data = ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class FileChunkRequest implements Serializable {
+    private static final long serialVersionUID = -1749368204511876312L;
+
+    String name;
+    long offset;
+    int length;
+
+    /**
+     * Argument of the fileChunk call.
+     *
+     * @param _name   Name of the file.
+     * @param _offset Offset of the first byte.
+     * @param _length Number of bytes.
+     */
+    FileChunkRequest(String _name, long _offset, int _length) {
+        name = _name;
+        offset = _offset;
+        length = _length;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class FileOffer implements Serializable {
+    private static final long serialVersionUID = 5120927493019536618L;
+
+    String origin;
+    String name;
+    long size;
+    int chunkSize;
+    /* SHA-256 of the whole file. */
+    byte[] digest;
+
+    /**
+     * Announces a file peers can download in chunks, from the origin or from any peer that already has part of it.
+     * Chunks are checked by their CRC32 as they arrive, the whole file by its digest before it is served as complete.
+     *
+     * @param _origin    Id of the peer that shares the file.
+     * @param _name      Name of the file. (Without directories)
+     * @param _size      Size of the file in bytes.
+     * @param _chunkSize Size of the chunks the file is requested in.
+     * @param _digest    SHA-256 of the whole file.
+     */
+    FileOffer(String _origin, String _name, long _size, int _chunkSize, byte[] _digest) {
+        origin = _origin;
+        name = _name;
+        size = _size;
+        chunkSize = _chunkSize;
+        digest = _digest;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + size + " bytes from " + origin + ")";
+    }
+}
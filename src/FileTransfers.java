@@ -0,0 +1,411 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+class FileTransfers {
+    static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    static final String DEFAULT_DIRECTORY = "files";
+    /* Time a peer that was offered a file may take to download it before the offer call fails. */
+    static final long OFFER_TIMEOUT_MS = 60 * 60 * 1000;
+    private static final int WINDOW = 8;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 50;
+    private static final int DIGEST_BUFFER = 64 * 1024;
+
+    private final String localPeer;
+    private final RpcEndpoint rpc;
+    private final File directory;
+    private final int chunkSize;
+    private final long callTimeout;
+    private final ConcurrentHashMap<String, SharedFile> files = new ConcurrentHashMap<>();
+    private final Metrics.Counter bytesServed;
+    private final Metrics.Counter bytesReceived;
+    private final Metrics.Counter crcErrors;
+    private final Metrics.Counter chunkRetries;
+    private volatile double lastThroughput = 0;
+
+    /**
+     * Moves files between peers in fixed size chunks, without ever holding a whole file in memory. Receivers pull
+     * chunks with the fileChunk call, a window of them at a time, and write every chunk at its offset; servers map the
+     * requested range of the file and the codec copies it straight into the frame. Every chunk carries a CRC32 and is
+     * requested again if it does not match, and the complete file is checked against the SHA-256 of the offer before
+     * it is served as complete. Downloads go to a .part file, so a download that was interrupted resumes where it
+     * stopped, and a peer serves the part of a file it already has while it is still downloading the rest. (Except for
+     * the part an earlier run left, which is only checked with the whole file)
+     *
+     * @param _localPeer   Id of this peer.
+     * @param _rpc         Endpoint the fileChunk and fileOffer calls are registered on.
+     * @param _directory   Directory downloaded files are written to.
+     * @param _chunkSize   Size of the chunks files shared by this peer are requested in.
+     * @param _callTimeout Time after which a chunk request is retried.
+     * @param metrics      Registry of the peer.
+     */
+    FileTransfers(String _localPeer, RpcEndpoint _rpc, File _directory, int _chunkSize, long _callTimeout, Metrics metrics) {
+        localPeer = _localPeer;
+        rpc = _rpc;
+        directory = _directory;
+        chunkSize = _chunkSize;
+        callTimeout = _callTimeout;
+        bytesServed = metrics.counter("file.bytesServed");
+        bytesReceived = metrics.counter("file.bytesReceived");
+        crcErrors = metrics.counter("file.crcErrors");
+        chunkRetries = metrics.counter("file.chunkRetries");
+        metrics.gauge("file.lastThroughputMBps", () -> lastThroughput);
+        rpc.register("fileChunk", FileChunkRequest.class, this::readChunk);
+        rpc.register("fileOffer", FileOffer.class, offer -> download(offer, offer.origin));
+    }
+
+    /**
+     * Makes a local file available to other peers.
+     *
+     * @param file File to share.
+     * @return Returns the offer other peers download the file with.
+     * @throws IOException If the file cannot be read.
+     */
+    FileOffer share(File file) throws IOException {
+        if (!file.isFile()) throw new IOException(file + " is not a file.");
+        SharedFile shared = new SharedFile(file.length(), FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        byte[] digest;
+        try {
+            digest = digest(shared.channel, shared.size);
+        } catch (IOException e) {
+            shared.close();
+            throw e;
+        }
+        shared.available = shared.size;
+        SharedFile previous = files.put(file.getName(), shared);
+        if (previous != null) previous.close();
+        return new FileOffer(localPeer, file.getName(), shared.size, chunkSize, digest);
+    }
+
+    /**
+     * Downloads an offered file, unless this peer already has it: a file of the same name that does not match the
+     * digest of the offer is downloaded again.
+     *
+     * @param offer  Offer of the file.
+     * @param source Peer to download from. Falls back to the origin of the file if it fails.
+     * @return Returns a future that completes with a summary (size, time and throughput) once the file is complete.
+     */
+    CompletableFuture<String> download(FileOffer offer, String source) {
+        String name = new File(offer.name).getName();
+        SharedFile existing = files.get(name);
+        if (existing != null) {
+            return existing.complete.thenApply(file -> name + " was already present.");
+        }
+        File target = new File(directory, name);
+        SharedFile shared;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create " + directory);
+            if (target.isFile() && target.length() == offer.size && hasDigest(target, offer.digest)) {
+                shared = new SharedFile(offer.size, FileChannel.open(target.toPath(), StandardOpenOption.READ));
+                shared.available = offer.size;
+                shared.complete.complete(target);
+            } else {
+                if (target.exists()) Log.warn("{} does not match the offered file, downloading it again.", target);
+                File part = new File(directory, name + ".part");
+                shared = new SharedFile(offer.size, FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        } catch (IOException e) {
+            Log.error("Could not store {}.", name, e);
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        existing = files.putIfAbsent(name, shared);
+        if (existing != null) {
+            shared.close();
+            return existing.complete.thenApply(file -> name + " was already present.");
+        }
+        if (shared.complete.isDone()) return CompletableFuture.completedFuture(name + " was already present.");
+        return new Download(offer, name, shared, source, target, true).start();
+    }
+
+    /**
+     * @param file     File to check.
+     * @param expected Expected SHA-256 of the file.
+     * @return Returns whether the file has the expected digest. (False if it cannot be read)
+     */
+    private static boolean hasDigest(File file, byte[] expected) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return MessageDigest.isEqual(digest(channel, file.length()), expected);
+        } catch (IOException e) {
+            Log.warn("Could not read {} ({}).", file, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param channel Channel of the file.
+     * @param size    Number of bytes from the start of the file to hash.
+     * @return Returns the SHA-256 of the bytes.
+     * @throws IOException If the file cannot be read or is shorter than size.
+     */
+    private static byte[] digest(FileChannel channel, long size) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(DIGEST_BUFFER);
+        long position = 0;
+        while (position < size) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("File ended after " + position + " of " + size + " bytes.");
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Handler of the fileChunk call.
+     *
+     * @param request Requested range.
+     * @return Returns the range as a region of the mapped file, or an empty chunk if this peer does not have it yet.
+     */
+    private FileChunk readChunk(FileChunkRequest request) {
+        SharedFile shared = files.get(request.name);
+        if (shared == null) throw new IllegalArgumentException("Unknown file " + request.name);
+        long available = shared.available;
+        if (request.offset + request.length > available) {
+            return new FileChunk(request.name, request.offset, available, ByteBuffer.allocate(0));
+        }
+        /* A region stays valid once mapped, the lock only keeps the channel from being swapped while it is mapped. */
+        shared.channelLock.readLock().lock();
+        try {
+            ByteBuffer region = shared.channel.map(FileChannel.MapMode.READ_ONLY, request.offset, request.length);
+            bytesServed.add(request.length);
+            return new FileChunk(request.name, request.offset, available, region);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + request.name + ": " + e.getMessage(), e);
+        } finally {
+            shared.channelLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes every shared file.
+     */
+    void close() {
+        files.values().forEach(SharedFile::close);
+    }
+
+    /**
+     * A file this peer serves, complete or still being downloaded.
+     */
+    private static class SharedFile {
+        /* Held to map the channel, and exclusively to replace or close it. */
+        private final ReentrantReadWriteLock channelLock = new ReentrantReadWriteLock();
+        private volatile FileChannel channel;
+        private final long size;
+        /* Every byte below this offset is present. */
+        private volatile long available = 0;
+        private final CompletableFuture<File> complete = new CompletableFuture<>();
+
+        SharedFile(long _size, FileChannel _channel) {
+            size = _size;
+            channel = _channel;
+        }
+
+        void close() {
+            channelLock.writeLock().lock();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.error("Error while closing a shared file.", e);
+            } finally {
+                channelLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Pulls the chunks of one file, at most WINDOW of them at once.
+     */
+    private class Download {
+        private final FileOffer offer;
+        private final String name;
+        private final SharedFile shared;
+        private final File target;
+        private final int numChunks;
+        private final BitSet received = new BitSet();
+        private final CompletableFuture<String> done = new CompletableFuture<>();
+        private final long startedAt = System.nanoTime();
+        private final long resumedAt;
+        private String source;
+        private int nextChunk;
+        private int contiguousChunks;
+        private boolean finished = false;
+
+        /**
+         * @param _offer  Offer of the file.
+         * @param _name   Name of the file.
+         * @param _shared File the chunks are written to, the .part file.
+         * @param _source Peer to download from.
+         * @param _target File the complete file is moved to.
+         * @param resume  Whether to keep the chunks an earlier run left in the .part file, rather than download them
+         *                again.
+         */
+        Download(FileOffer _offer, String _name, SharedFile _shared, String _source, File _target, boolean resume) {
+            offer = _offer;
+            name = _name;
+            shared = _shared;
+            source = _source;
+            target = _target;
+            numChunks = (int) ((offer.size + offer.chunkSize - 1) / offer.chunkSize);
+            long partLength = 0;
+            try {
+                if (resume) partLength = shared.channel.size();
+            } catch (IOException e) {
+                Log.warn("Could not read the size of {}.part, downloading it from the start.", name);
+            }
+            /* At most WINDOW chunks are written out of order, everything before them is complete. */
+            contiguousChunks = (int) Math.max(0, Math.min(numChunks, partLength / offer.chunkSize - WINDOW));
+            nextChunk = contiguousChunks;
+            received.set(0, contiguousChunks);
+            resumedAt = Math.min(offer.size, (long) contiguousChunks * offer.chunkSize);
+            /* Chunks an earlier run left are only checked with the whole file, none are served before. */
+            shared.available = 0;
+        }
+
+        CompletableFuture<String> start() {
+            if (resumedAt > 0) Log.info("Resuming {} at {} bytes.", name, resumedAt);
+            /* A failed download keeps its .part file, the next offer of the file resumes it. */
+            done.whenComplete((summary, e) -> {
+                if (e == null) return;
+                files.remove(name, shared);
+                shared.close();
+            });
+            requestMore();
+            return done;
+        }
+
+        private void requestMore() {
+            while (true) {
+                int chunk;
+                synchronized (this) {
+                    if (contiguousChunks == numChunks) break;
+                    if (nextChunk == numChunks || nextChunk - contiguousChunks >= WINDOW) return;
+                    chunk = nextChunk++;
+                }
+                request(chunk, 0);
+            }
+            finish();
+        }
+
+        private void request(int chunk, int attempt) {
+            long offset = (long) chunk * offer.chunkSize;
+            int length = (int) Math.min(offer.chunkSize, offer.size - offset);
+            String from = source;
+            rpc.call(from, "fileChunk", new FileChunkRequest(name, offset, length), FileChunk.class, callTimeout).whenComplete((result, e) -> {
+                if (e != null) {
+                    retry(chunk, attempt, from, e.getMessage());
+                } else if (result.data.remaining() != length) {
+                    /* The source is still downloading this part of the file itself. */
+                    Peer.Shared.scheduler.schedule(() -> request(chunk, attempt), RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+                } else if (!result.isIntact()) {
+                    crcErrors.increment();
+                    retry(chunk, attempt, from, "checksum mismatch");
+                } else {
+                    write(chunk, offset, result.data);
+                }
+            });
+        }
+
+        private void retry(int chunk, int attempt, String from, String reason) {
+            chunkRetries.increment();
+            if (attempt + 1 < MAX_ATTEMPTS) {
+                Peer.Shared.scheduler.schedule(() -> request(chunk, attempt + 1), RETRY_DELAY_MS << attempt, TimeUnit.MILLISECONDS);
+            } else if (!from.equals(offer.origin)) {
+                Log.warn("Downloading {} from {} failed ({}), falling back to the origin.", name, from, reason);
+                source = offer.origin;
+                request(chunk, 0);
+            } else {
+                done.completeExceptionally(new IOException("Could not download chunk " + chunk + " of " + name + ": " + reason));
+            }
+        }
+
+        private void write(int chunk, long offset, ByteBuffer data) {
+            try {
+                int length = data.remaining();
+                while (data.hasRemaining()) {
+                    shared.channel.write(data, offset + length - data.remaining());
+                }
+                bytesReceived.add(length);
+            } catch (IOException e) {
+                Log.error("Could not write {}.", name, e);
+                done.completeExceptionally(e);
+                return;
+            }
+            synchronized (this) {
+                received.set(chunk);
+                while (contiguousChunks < numChunks && received.get(contiguousChunks)) contiguousChunks++;
+                if (resumedAt == 0) shared.available = Math.min(offer.size, (long) contiguousChunks * offer.chunkSize);
+            }
+            requestMore();
+        }
+
+        /**
+         * Checks the complete file against the digest of the offer and moves it into place. Runs once, on the thread
+         * that wrote the last missing chunk. A file that does not match, because chunks an earlier run left or the
+         * source were bad, is downloaded again from the start, from the origin.
+         */
+        private void finish() {
+            synchronized (this) {
+                if (finished || done.isDone()) return;
+                finished = true;
+            }
+            File part = new File(directory, name + ".part");
+            try {
+                shared.channel.force(false);
+                if (!MessageDigest.isEqual(digest(shared.channel, offer.size), offer.digest)) {
+                    if (resumedAt == 0 && source.equals(offer.origin)) throw new IOException(name + " does not match the digest of the offer.");
+                    Log.warn("{} does not match the digest of the offer, downloading it again from {}.", name, offer.origin);
+                    new Download(offer, name, shared, offer.origin, target, false).start().whenComplete((summary, e) -> {
+                        if (e == null) done.complete(summary);
+                        else done.completeExceptionally(e);
+                    });
+                    return;
+                }
+                shared.channelLock.writeLock().lock();
+                try {
+                    shared.channel.close();
+                    Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    shared.channel = FileChannel.open(target.toPath(), StandardOpenOption.READ);
+                } finally {
+                    shared.channelLock.writeLock().unlock();
+                }
+            } catch (IOException e) {
+                Log.error("Could not complete {}.", name, e);
+                done.completeExceptionally(e);
+                return;
+            }
+            shared.available = offer.size;
+            long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+            lastThroughput = (offer.size - resumedAt) / (1024.0 * 1024.0) / (millis / 1000.0);
+            String summary = String.format("Received %s (%d bytes) from %s in %d ms (%.1f MB/s)", name, offer.size, source, millis, lastThroughput);
+            Log.info(summary);
+            shared.complete.complete(target);
+            done.complete(summary);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+class Frames {
+    static final int HEADER_LENGTH = 4;
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Helper class for the length-prefixed frames sent between peers. Every frame is a 4 byte big-endian payload
+     * length followed by the payload itself, so both the blocking and the selector based listeners can split the
+     * stream without understanding the payload. The payload is produced by a WireCodec.
+     */
+    private Frames() {
+    }
+
+    /**
+     * Encodes an object into a complete frame (header and payload).
+     *
+     * @param o     Object to be encoded.
+     * @param codec Codec of the stream the frame is written to.
+     * @return Returns a buffer holding the frame.
+     * @throws IOException If the object could not be encoded.
+     */
+    static WireBuffer encode(Object o, WireCodec codec) throws IOException {
+        WireBuffer frame = new WireBuffer(256);
+        frame.skip(HEADER_LENGTH);
+        codec.encode(o, frame);
+        frame.putIntAt(0, frame.length() - HEADER_LENGTH);
+        return frame;
+    }
+
+    /**
+     * Decodes the payload of a frame.
+     *
+     * @param payload Byte array holding the payload.
+     * @param offset  Index of the first payload byte.
+     * @param length  Number of payload bytes.
+     * @param codec   Codec of the stream the frame was read from.
+     * @return Returns the decoded object.
+     * @throws IOException            If the payload is malformed.
+     * @throws ClassNotFoundException If the payload references an unknown class.
+     */
+    static Object decode(byte[] payload, int offset, int length, WireCodec codec) throws IOException, ClassNotFoundException {
+        WireBuffer in = new WireBuffer(payload, offset, length);
+        Object o = codec.decode(in);
+        if (in.remaining() != 0) throw new IOException(in.remaining() + " trailing bytes in frame");
+        return o;
+    }
+
+    /**
+     * Reads the next frame payload from a blocking stream.
+     *
+     * @param inStream Stream to read from.
+     * @return Returns the payload bytes.
+     * @throws IOException If the stream ended or the frame is malformed.
+     */
+    static byte[] readPayload(DataInputStream inStream) throws IOException {
+        int length = inStream.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        inStream.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Validates a frame length read from the wire.
+     *
+     * @param length Payload length.
+     * @throws IOException If the length is outside of the allowed range.
+     */
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class Heartbeat implements Serializable {
+    private static final long serialVersionUID = 2620487723357745261L;
+
+    String source;
+
+    /**
+     * Sent to every adjacent peer at a fixed rate, so their failure detectors can tell a silent link from a dead one.
+     *
+     * @param _source Id of the sending peer.
+     */
+    Heartbeat(String _source) {
+        source = _source;
+    }
+}
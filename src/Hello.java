@@ -0,0 +1,29 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class Hello implements Serializable {
+    private static final long serialVersionUID = 5306472398740126351L;
+
+    String source;
+    int capabilities;
+    int epoch;
+
+    /**
+     * First message on every connection. Announces the optional wire features the sending peer wants its neighbours to
+     * use when they send to it, so both ends agree on them without any configuration having to match.
+     *
+     * @param _source       Id of the sending peer.
+     * @param _capabilities Bit set of the accepted features. (See CompressingCodec.CAPABILITY_DEFLATE)
+     * @param _epoch        Number of the stream among the streams of the same connection, echoed by every credit
+     *                      returned for its frames.
+     */
+    Hello(String _source, int _capabilities, int _epoch) {
+        source = _source;
+        capabilities = _capabilities;
+        epoch = _epoch;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+class HistoryRange implements Serializable {
+    private static final long serialVersionUID = -2893306453917207561L;
+
+    long firstOffset;
+    /* Offset after the last record of the range. */
+    long nextOffset;
+    /* Offset the next broadcast will get in the log of the serving peer. */
+    long endOffset;
+    /* Records as stored, a slice of the mapped segment on the serving peer, a region of the received frame on the other. */
+    transient ByteBuffer records;
+
+    /**
+     * Result of the historyRange call: consecutive records of the broadcast log of the serving peer, decoded with
+     * BroadcastLog.parse. Empty once the caller has caught up. Also the result of the repairFetch call, whose records
+     * are not consecutive and whose offsets are 0. The binary codec copies the records straight from the mapped
+     * segment into the frame.
+     *
+     * @param _firstOffset Offset of the first record.
+     * @param _nextOffset  Offset after the last record.
+     * @param _endOffset   End of the log of the serving peer.
+     * @param _records     The records, or an empty buffer.
+     */
+    HistoryRange(long _firstOffset, long _nextOffset, long _endOffset, ByteBuffer _records) {
+        firstOffset = _firstOffset;
+        nextOffset = _nextOffset;
+        endOffset = _endOffset;
+        records = _records;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] bytes = new byte[records.remaining()];
+        records.duplicate().get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        records = ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class HistoryRangeRequest implements Serializable {
+    private static final long serialVersionUID = 4410532187302264019L;
+
+    /* Time of the oldest broadcast wanted, or -1 to start at fromOffset. */
+    long sinceMillis;
+    long fromOffset;
+    int maxBytes;
+
+    /**
+     * Argument of the historyRange call.
+     *
+     * @param _sinceMillis Time of the oldest broadcast wanted, or -1 to start at fromOffset.
+     * @param _fromOffset  Offset of the first record, in the log of the serving peer.
+     * @param _maxBytes    Size of the range.
+     */
+    HistoryRangeRequest(long _sinceMillis, long _fromOffset, int _maxBytes) {
+        sinceMillis = _sinceMillis;
+        fromOffset = _fromOffset;
+        maxBytes = _maxBytes;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.*;
+
+class JavaSerializationCodec implements WireCodec {
+
+    /**
+     * Codec that sends every object through java serialization. Also used by the binary codec for arbitrary payloads.
+     */
+    JavaSerializationCodec() {
+    }
+
+    @Override
+    public void encode(Object o, WireBuffer out) throws IOException {
+        if (o == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+        out.writeByte(TAG_JAVA);
+        writeSerialized(o, out);
+    }
+
+    @Override
+    public Object decode(WireBuffer in) throws IOException, ClassNotFoundException {
+        int tag = in.readByte();
+        if (tag == TAG_NULL) return null;
+        if (tag != TAG_JAVA) throw new IOException("Unknown tag " + tag + " for java serialization codec");
+        return readSerialized(in);
+    }
+
+    /**
+     * Writes a length-prefixed java serialized object.
+     *
+     * @param o   Object to be serialized.
+     * @param out Buffer to write to.
+     * @throws IOException If the object is not serializable.
+     */
+    static void writeSerialized(Object o, WireBuffer out) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream objStream = new ObjectOutputStream(byteStream)) {
+            objStream.writeObject(o);
+        }
+        out.writeVarInt(byteStream.size());
+        out.writeBytes(byteStream.toByteArray(), 0, byteStream.size());
+    }
+
+    /**
+     * Reads a length-prefixed java serialized object.
+     *
+     * @param in Buffer to read from.
+     * @return Returns the deserialized object.
+     * @throws IOException            If the bytes are malformed.
+     * @throws ClassNotFoundException If the object references an unknown class.
+     */
+    static Object readSerialized(WireBuffer in) throws IOException, ClassNotFoundException {
+        int length = in.readVarInt();
+        if (length < 0 || length > in.remaining()) throw new EOFException("Truncated frame");
+        try (ObjectInputStream objStream = new ObjectInputStream(new ByteArrayInputStream(in.array(), in.position(), length))) {
+            Object o = objStream.readObject();
+            in.advance(length);
+            return o;
+        }
+    }
+}
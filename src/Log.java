@@ -0,0 +1,311 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log shared by every peer of the process. A caller only fills a slot of a preallocated ring buffer, a
+ * single daemon thread formats the records and writes them to System.out in batches, so no peer thread ever waits for
+ * the stdout lock. Messages are templates with {} placeholders that the writer thread fills in: a record below the
+ * current level costs one volatile read, one above it allocates nothing but its boxed arguments. When the buffer is
+ * full, records are dropped and counted instead of blocking the caller.
+ */
+final class Log {
+    /* Slots of the ring buffer. (A power of two) */
+    static final int CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    /* Formatted output collected before it is written in one go. */
+    private static final int BATCH_CHARS = 16 * 1024;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    /**
+     * Severity of a record. Records below the current level are discarded by the caller.
+     */
+    enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static volatile Level level = Level.INFO;
+    private static final Slot[] ring = new Slot[CAPACITY];
+    /* Next sequence number a caller claims. */
+    private static final AtomicLong claimed = new AtomicLong();
+    /* Next sequence number the writer reads. Every slot before it may be reused. */
+    private static volatile long consumed = 0;
+    /* Every record before this sequence number was written out. */
+    private static volatile long written = 0;
+    private static final LongAdder dropped = new LongAdder();
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) ring[i] = new Slot();
+        Thread writer = new Thread(Log::drain, "peer-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    static void setLevel(Level _level) {
+        level = _level;
+    }
+
+    static Level level() {
+        return level;
+    }
+
+    /**
+     * @param recordLevel Level of a record.
+     * @return Returns whether records of this level are written. Guards arguments that are expensive to compute.
+     */
+    static boolean enabled(Level recordLevel) {
+        return recordLevel.compareTo(level) >= 0 && recordLevel != Level.OFF;
+    }
+
+    /**
+     * @return Returns the number of records dropped because the writer could not keep up.
+     */
+    static long dropped() {
+        return dropped.sum();
+    }
+
+    static void debug(String template) {
+        log(Level.DEBUG, template, null, null, null, null, 0);
+    }
+
+    static void debug(String template, Object a) {
+        log(Level.DEBUG, template, a, null, null, null, 0);
+    }
+
+    static void debug(String template, Object a, Object b) {
+        log(Level.DEBUG, template, a, b, null, null, 0);
+    }
+
+    static void info(String template) {
+        log(Level.INFO, template, null, null, null, null, 0);
+    }
+
+    static void info(String template, Object a) {
+        log(Level.INFO, template, a, null, null, null, 0);
+    }
+
+    static void info(String template, Object a, Object b) {
+        log(Level.INFO, template, a, b, null, null, 0);
+    }
+
+    static void info(String template, Object a, Object b, Object c) {
+        log(Level.INFO, template, a, b, c, null, 0);
+    }
+
+    static void warn(String template) {
+        log(Level.WARN, template, null, null, null, null, 0);
+    }
+
+    static void warn(String template, Object a) {
+        log(Level.WARN, template, a, null, null, null, 0);
+    }
+
+    static void warn(String template, Object a, Object b) {
+        log(Level.WARN, template, a, b, null, null, 0);
+    }
+
+    static void warn(String template, Object a, Object b, Object c) {
+        log(Level.WARN, template, a, b, c, null, 0);
+    }
+
+    /**
+     * @param template Message.
+     * @param error    Cause, written with its stack trace.
+     */
+    static void error(String template, Throwable error) {
+        log(Level.ERROR, template, null, null, null, error, 0);
+    }
+
+    static void error(String template, Object a, Throwable error) {
+        log(Level.ERROR, template, a, null, null, error, 0);
+    }
+
+    /**
+     * Waits until every record logged so far was written, so the last records are not lost when the process exits.
+     *
+     * @param timeoutMillis Maximum time to wait.
+     */
+    static void flush(long timeoutMillis) {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (written < target && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Claims a slot and publishes a record in it. Never blocks: a full buffer drops the record.
+     */
+    private static void log(Level recordLevel, String template, Object a, Object b, Object c, Throwable error, long suppressed) {
+        if (!enabled(recordLevel)) return;
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Slot slot = ring[(int) sequence & (CAPACITY - 1)];
+        slot.level = recordLevel;
+        slot.time = System.currentTimeMillis();
+        slot.template = template;
+        slot.a = a;
+        slot.b = b;
+        slot.c = c;
+        slot.error = error;
+        slot.suppressed = suppressed;
+        slot.published = sequence;
+    }
+
+    /**
+     * Formats and writes records for as long as the process runs. Runs on the writer thread.
+     */
+    private static void drain() {
+        StringBuilder out = new StringBuilder(BATCH_CHARS);
+        long next = 0;
+        long reportedDrops = 0;
+        while (true) {
+            Slot slot = ring[(int) next & (CAPACITY - 1)];
+            if (slot.published != next) {
+                long drops = dropped.sum();
+                if (drops > reportedDrops) {
+                    out.append(TIME_FORMAT.format(Instant.now())).append(" WARN  ").append(drops - reportedDrops).append(" log records were dropped, the log could not keep up.\n");
+                    reportedDrops = drops;
+                }
+                write(out, null, next);
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            format(slot, out);
+            Throwable error = slot.error;
+            slot.template = null;
+            slot.a = null;
+            slot.b = null;
+            slot.c = null;
+            slot.error = null;
+            consumed = ++next;
+            if (error != null || out.length() >= BATCH_CHARS) write(out, error, next);
+        }
+    }
+
+    /**
+     * Writes the collected output, followed by the stack trace of an error.
+     *
+     * @param out   Formatted records.
+     * @param error Error of the last record, or null.
+     * @param upTo  Sequence number after the last record in the output.
+     */
+    private static void write(StringBuilder out, Throwable error, long upTo) {
+        if (out.length() > 0 || error != null) {
+            PrintStream stream = System.out;
+            stream.print(out);
+            if (error != null) error.printStackTrace(stream);
+            stream.flush();
+            out.setLength(0);
+        }
+        written = upTo;
+    }
+
+    private static void format(Slot slot, StringBuilder out) {
+        out.append(TIME_FORMAT.format(Instant.ofEpochMilli(slot.time))).append(' ').append(slot.level);
+        for (int i = slot.level.name().length(); i < 6; i++) out.append(' ');
+        String template = slot.template;
+        int argument = 0;
+        int start = 0;
+        for (int at = template.indexOf("{}"); at >= 0 && argument < 3; at = template.indexOf("{}", start)) {
+            out.append(template, start, at).append(argument == 0 ? slot.a : argument == 1 ? slot.b : slot.c);
+            argument++;
+            start = at + 2;
+        }
+        out.append(template, start, template.length());
+        if (slot.suppressed > 0) out.append(" (").append(slot.suppressed).append(" similar records suppressed)");
+        out.append('\n');
+    }
+
+    /**
+     * Lets a message through at most once per interval, and counts the ones it held back. Meant for errors that repeat
+     * once something broke, such as every stream of a dead peer failing: one limiter per call site, shared by every
+     * peer of the process.
+     */
+    static final class Limiter {
+        static final long DEFAULT_INTERVAL_MS = 1000;
+
+        private final long intervalNanos;
+        /* Earliest time of the next record, or 0 before the first one. */
+        private final AtomicLong nextAt = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+
+        Limiter() {
+            this(DEFAULT_INTERVAL_MS);
+        }
+
+        /**
+         * @param intervalMillis Minimum time between two records.
+         */
+        Limiter(long intervalMillis) {
+            intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        }
+
+        void warn(String template, Object a) {
+            warn(template, a, null, null);
+        }
+
+        void warn(String template, Object a, Object b) {
+            warn(template, a, b, null);
+        }
+
+        void warn(String template, Object a, Object b, Object c) {
+            if (!enabled(Level.WARN)) return;
+            long held = permit();
+            if (held >= 0) log(Level.WARN, template, a, b, c, null, held);
+        }
+
+        void error(String template, Object a, Throwable error) {
+            if (!enabled(Level.ERROR)) return;
+            long held = permit();
+            if (held >= 0) log(Level.ERROR, template, a, null, null, error, held);
+        }
+
+        /**
+         * @return Returns the number of records suppressed since the last one, or -1 if this one is suppressed too.
+         */
+        private long permit() {
+            long now = System.nanoTime();
+            long next = nextAt.get();
+            if ((next != 0 && now - next < 0) || !nextAt.compareAndSet(next, now + intervalNanos)) {
+                suppressed.incrementAndGet();
+                return -1;
+            }
+            return suppressed.getAndSet(0);
+        }
+    }
+
+    /**
+     * One record. Filled by a caller, then published by writing its sequence number, which the writer waits for.
+     */
+    private static final class Slot {
+        private volatile long published = -1;
+        private Level level;
+        private long time;
+        private String template;
+        private Object a;
+        private Object b;
+        private Object c;
+        private Throwable error;
+        private long suppressed;
+    }
+}
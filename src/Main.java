@@ -4,10 +4,9 @@
  */
 
 import java.io.File;
-import java.time.Clock;
-import java.time.LocalTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
@@ -28,16 +27,75 @@ public class Main {
                 Main.scanner.close();
                 break;
             } else if (command.startsWith("/sendto;")) {
-                Peer.Shared.threadManager.submit(() -> peer.sendObject(new SerializableText(finalCommand.split(";")[2], peer.Ipv4Local), finalCommand.split(";")[1]));
+                Peer.Shared.threadManager.submit(() -> peer.sendObject(new SerializableText(finalCommand.split(";")[2], peer.localId), finalCommand.split(";")[1]));
             } else if (command.startsWith("/sendtoall;")) {
-                Peer.Shared.threadManager.submit(() -> peer.sendToAllPeers(new SerializableText(finalCommand.split(";")[1], peer.Ipv4Local), LocalTime.now(Clock.systemUTC())));
+                Peer.Shared.threadManager.submit(() -> peer.sendToAllPeers(new SerializableText(finalCommand.split(";")[1], peer.localId)));
             } else if (command.startsWith("/sendtoadj;")) {
-                Peer.Shared.threadManager.submit(() -> peer.sendToAdjPeers(new SerializableText(finalCommand.split(";")[1], peer.Ipv4Local)));
+                Peer.Shared.threadManager.submit(() -> peer.sendToAdjPeers(new SerializableText(finalCommand.split(";")[1], peer.localId)));
             } else if (command.startsWith("/startpolling")) {
-                Map<String, Boolean> pollResults = new HashMap<>(peer.startPollingMessage());
-                System.out.println("FINAL POLL RESULTS");
-                pollResults.forEach((key,value) -> System.out.println(key + " : " + value));
-                System.out.println("__________________");
+                peer.startPollingMessage().thenAccept(pollResult -> {
+                    System.out.println("FINAL POLL RESULTS");
+                    System.out.println(pollResult);
+                    System.out.println("__________________");
+                });
+            } else if (command.startsWith("/seencache")) {
+                System.out.println(peer.seenCacheStats());
+            } else if (command.startsWith("/stats")) {
+                System.out.print(peer.stats());
+            } else if (command.equals("/peers")) {
+                List<String> activePeers = peer.activePeers();
+                System.out.println(activePeers.size() + " active peers: " + String.join(", ", activePeers));
+            } else if (command.startsWith("/path;")) {
+                List<String> path = peer.shortestPath(finalCommand.split(";")[1]);
+                System.out.println(path == null ? "No known path to " + finalCommand.split(";")[1] + "." : String.join(" -> ", path));
+            } else if (command.startsWith("/rpc;")) {
+                String[] parts = finalCommand.split(";");
+                peer.call(parts[1], parts[2], parts.length > 3 ? parts[3] : null).whenComplete((result, e) -> {
+                    if (e != null) {
+                        System.out.println(parts[2] + " on " + parts[1] + " failed: " + e.getMessage());
+                    } else {
+                        System.out.println(parts[2] + " on " + parts[1] + ":");
+                        System.out.println(result);
+                    }
+                });
+            } else if (command.startsWith("/sendfile;")) {
+                String[] parts = finalCommand.split(";");
+                peer.sendFile(new File(parts[2]), parts[1]).whenComplete((summary, e) -> {
+                    System.out.println(e != null ? "Sending " + parts[2] + " to " + parts[1] + " failed: " + e.getMessage() : summary);
+                });
+            } else if (command.startsWith("/distribute;")) {
+                peer.distributeFile(new File(finalCommand.split(";")[1])).whenComplete((state, e) -> {
+                    if (e != null) System.out.println("Distributing " + finalCommand.split(";")[1] + " failed: " + e.getMessage());
+                });
+            } else if (command.startsWith("/loglevel;")) {
+                Log.setLevel(Log.Level.valueOf(finalCommand.split(";")[1].trim().toUpperCase()));
+                System.out.println("Log level set to " + Log.level() + ".");
+            } else if (command.startsWith("/replay;")) {
+                long since = System.currentTimeMillis() - Long.parseLong(finalCommand.split(";")[1].trim()) * 60 * 1000;
+                try {
+                    long replayed = peer.replayHistory(since, entry -> System.out.println(new Date(entry.time) + " " + entry.payload));
+                    System.out.println(replayed < 0 ? "This peer keeps no broadcast log." : replayed + " broadcasts replayed.");
+                } catch (IOException e) {
+                    System.out.println("Replaying the broadcast log failed: " + e.getMessage());
+                }
+            } else if (command.startsWith("/subscribe;")) {
+                String topic = finalCommand.split(";")[1];
+                peer.subscribe(topic, data -> {
+                    SerializableText text = (SerializableText) data;
+                    System.out.println("[" + topic + "] " + text.text + " (" + text.timeStamp + ")(" + text.source + ")");
+                });
+            } else if (command.startsWith("/unsubscribe;")) {
+                peer.unsubscribe(finalCommand.split(";")[1]);
+            } else if (command.startsWith("/publish;")) {
+                String[] parts = finalCommand.split(";");
+                int sent = peer.publish(parts[1], new SerializableText(parts[2], peer.localId));
+                System.out.println("Published on " + parts[1] + " to " + sent + " adjacent peers.");
+            } else if (command.equals("/topics")) {
+                System.out.println("Subscribed to: " + String.join(", ", peer.subscribedTopics()));
+                peer.topicInterest().forEach((link, topics) -> System.out.println(link + " leads to subscribers of " + String.join(", ", topics)));
+            } else if (command.equals("/randompeer")) {
+                String randomPeer = peer.randomPeer();
+                System.out.println(randomPeer == null ? "No other peer is known." : randomPeer);
             } else if (command.startsWith("/")) {
                 System.out.println("'" + command + "' is not recognized as a valid command.");
             }
@@ -49,12 +107,10 @@ public class Main {
         Main.scanner = new Scanner(System.in);
 
         Peer peer = new Peer();
-        peer.startPeer(new File("peer-config.config"));
+        peer.startPeer(new File(args.length > 0 ? args[0] : "peer-config.config"));
 
         o.handleCommandInput(peer);
 
         /* TODO Add polling system : DONE WITH CODE : STILL HAVE TO DEBUG */
-        /* TODO Get list of active peers. */
-        /* TODO Pick random peer in the network. */
     }
 }
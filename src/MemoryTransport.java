@@ -0,0 +1,252 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+class MemoryTransport {
+    /* Lower bound of the retransmission timeout, as in TCP. */
+    private static final long MIN_RETRANSMIT_MS = 200;
+    private static final Log.Limiter CLOSED_STREAMS = new Log.Limiter();
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double lossRate;
+    private final long seed;
+    private final ConcurrentHashMap<String, Endpoint> listeners = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService network = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "memory-network");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder framesDelivered = new LongAdder();
+    private final LongAdder bytesDelivered = new LongAdder();
+    private final LongAdder retransmissions = new LongAdder();
+    private final LongAdder framesInFlight = new LongAdder();
+
+    /**
+     * Network of peers running in this process. Frames are handed over without copying and decoded by a single network
+     * thread, after the latency of their link. Links behave like TCP streams: a lost frame is not dropped but sent
+     * again after a retransmission timeout, and every frame behind it on the same link waits for it. Delays and
+     * losses are drawn from a random generator per link, seeded from the network seed and the ids of both ends, so the
+     * same network always delays the same frames.
+     *
+     * @param _latencyMillis One-way latency of every link.
+     * @param _jitterMillis  Maximum random delay added to every frame.
+     * @param _lossRate      Probability that a frame is lost and retransmitted.
+     * @param _seed          Seed of the delays and losses.
+     */
+    MemoryTransport(long _latencyMillis, long _jitterMillis, double _lossRate, long _seed) {
+        latencyMillis = _latencyMillis;
+        jitterMillis = _jitterMillis;
+        lossRate = _lossRate;
+        seed = _seed;
+    }
+
+    /**
+     * @return Returns the transport of a new peer of this network.
+     */
+    Transport endpoint() {
+        return new Endpoint();
+    }
+
+    long framesDelivered() {
+        return framesDelivered.sum();
+    }
+
+    long bytesDelivered() {
+        return bytesDelivered.sum();
+    }
+
+    long retransmissions() {
+        return retransmissions.sum();
+    }
+
+    /**
+     * @return Returns the number of frames written and not delivered yet. (A backlog while the peers converge)
+     */
+    long framesInFlight() {
+        return framesInFlight.sum();
+    }
+
+    /**
+     * The transport of one peer. Listening registers the peer under its id, closing it drops every stream to it, as
+     * if the peer crashed.
+     */
+    private class Endpoint implements Transport {
+        private String id = null;
+        private Supplier<WireCodec> decoders;
+        private Supplier<FrameHandler> frameHandlers;
+        private final Set<MemoryLink> inbound = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public Link connect(String peerId, String localId) throws IOException {
+            Endpoint target = listeners.get(peerId);
+            if (target == null) throw new ConnectException("Connection refused");
+            MemoryLink link = new MemoryLink(target, localId + ">" + peerId);
+            target.inbound.add(link);
+            return link;
+        }
+
+        @Override
+        public void listen(String _localId, Supplier<WireCodec> _decoders, Supplier<FrameHandler> _frameHandlers) throws IOException {
+            decoders = _decoders;
+            frameHandlers = _frameHandlers;
+            if (listeners.putIfAbsent(_localId, this) != null) throw new IOException(_localId + " is already in use.");
+            id = _localId;
+        }
+
+        @Override
+        public void close() {
+            if (id != null) listeners.remove(id, this);
+            inbound.forEach(link -> network.execute(link::reset));
+        }
+    }
+
+    /**
+     * One direction of a stream between two peers.
+     */
+    private class MemoryLink implements Transport.Link {
+        private final Endpoint target;
+        private final WireCodec decoder;
+        private final Transport.FrameHandler frameHandler;
+        private final Random random;
+        /* Frames that were written and not delivered yet, in order. A null frame ends the stream. */
+        private final ArrayDeque<InFlight> inFlight = new ArrayDeque<>();
+        private long lastDeliveryAt = 0;
+        private boolean scheduled = false;
+        private volatile boolean closed = false;
+        private boolean ended = false;
+
+        MemoryLink(Endpoint _target, String name) {
+            target = _target;
+            decoder = target.decoders.get();
+            frameHandler = target.frameHandlers.get();
+            random = new Random(seed * 31 + name.hashCode());
+        }
+
+        @Override
+        public synchronized void write(WireBuffer frame) throws IOException {
+            if (closed) throw new IOException("Connection reset");
+            long delay = latencyMillis + (jitterMillis > 0 ? (long) (random.nextDouble() * (jitterMillis + 1)) : 0);
+            if (lossRate > 0 && random.nextDouble() < lossRate) {
+                retransmissions.increment();
+                delay += Math.max(MIN_RETRANSMIT_MS, 2 * latencyMillis);
+            }
+            enqueue(frame, delay);
+            framesInFlight.increment();
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (closed) throw new IOException("Connection reset");
+            schedule();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            enqueue(null, 0);
+            schedule();
+        }
+
+        /**
+         * Appends a frame. A frame is never delivered before the frames written ahead of it. Must hold the link lock.
+         */
+        private void enqueue(WireBuffer frame, long delayMillis) {
+            lastDeliveryAt = Math.max(lastDeliveryAt, System.currentTimeMillis() + delayMillis);
+            inFlight.add(new InFlight(frame, lastDeliveryAt));
+        }
+
+        /**
+         * Schedules the delivery of the next frame, unless it already is. Must hold the link lock.
+         */
+        private void schedule() {
+            if (scheduled || inFlight.isEmpty()) return;
+            scheduled = true;
+            network.schedule(this::deliver, Math.max(0, inFlight.peek().deliverAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Decodes and hands over every frame that is due. Runs on the network thread.
+         */
+        private void deliver() {
+            while (true) {
+                InFlight next;
+                synchronized (this) {
+                    scheduled = false;
+                    next = inFlight.peek();
+                    if (next == null || ended) return;
+                    if (next.deliverAt > System.currentTimeMillis()) {
+                        schedule();
+                        return;
+                    }
+                    inFlight.poll();
+                }
+                if (next.frame == null) {
+                    end();
+                    return;
+                }
+                framesInFlight.decrement();
+                framesDelivered.increment();
+                bytesDelivered.add(next.frame.length());
+                try {
+                    Object o = Frames.decode(next.frame.array(), Frames.HEADER_LENGTH, next.frame.length() - Frames.HEADER_LENGTH, decoder);
+                    frameHandler.frameReceived(o, next.frame.length());
+                } catch (IOException | ClassNotFoundException e) {
+                    CLOSED_STREAMS.warn("Closing a stream to {}: {}", target.id, e.getMessage());
+                    reset();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Drops the stream right away, frames in flight included. Runs on the network thread.
+         */
+        private void reset() {
+            synchronized (this) {
+                closed = true;
+                inFlight.forEach(dropped -> {
+                    if (dropped.frame != null) framesInFlight.decrement();
+                });
+                inFlight.clear();
+            }
+            end();
+        }
+
+        /**
+         * Tells the receiving peer that the stream ended. Runs on the network thread.
+         */
+        private void end() {
+            synchronized (this) {
+                if (ended) return;
+                ended = true;
+            }
+            target.inbound.remove(this);
+            frameHandler.streamClosed();
+        }
+    }
+
+    private static class InFlight {
+        private final WireBuffer frame;
+        private final long deliverAt;
+
+        InFlight(WireBuffer _frame, long _deliverAt) {
+            frame = _frame;
+            deliverAt = _deliverAt;
+        }
+    }
+}
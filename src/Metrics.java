@@ -0,0 +1,185 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+class Metrics {
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> dumpTask = null;
+
+    /**
+     * Registry of the counters, gauges and latency histograms of a peer. Lookups by name are only meant for setup:
+     * hot paths keep a reference to their counter or histogram, which are striped (LongAdder) and never lock.
+     */
+    Metrics() {
+    }
+
+    /**
+     * @param name Name of the counter.
+     * @return Returns the counter with this name, creating it if needed.
+     */
+    Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * @param name Name of the histogram.
+     * @return Returns the histogram with this name, creating it if needed.
+     */
+    Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Registers a value that is read whenever a snapshot is taken. Replaces any gauge with the same name.
+     *
+     * @param name  Name of the gauge.
+     * @param value Supplier of the current value.
+     */
+    void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * @return Returns every metric as one line per metric, sorted by name.
+     */
+    String snapshot() {
+        Map<String, String> lines = new ConcurrentSkipListMap<>();
+        counters.forEach((name, counter) -> lines.put(name, "counter   " + name + " " + counter.get()));
+        gauges.forEach((name, gauge) -> lines.put(name, "gauge     " + name + " " + format(gauge.getAsDouble())));
+        histograms.forEach((name, histogram) -> lines.put(name, "histogram " + name + " " + histogram));
+        StringBuilder snapshot = new StringBuilder();
+        lines.values().forEach(line -> snapshot.append(line).append(System.lineSeparator()));
+        return snapshot.toString();
+    }
+
+    /**
+     * Appends a timestamped snapshot to a file at a fixed rate, until close() is called.
+     *
+     * @param file         Path of the file.
+     * @param periodMillis Time between two snapshots.
+     */
+    synchronized void startDump(String file, long periodMillis) {
+        if (dumpTask != null) dumpTask.cancel(false);
+        dumpTask = Peer.Shared.scheduler.scheduleAtFixedRate(() -> {
+            try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+                out.println("# " + Instant.now());
+                out.print(snapshot());
+            } catch (IOException e) {
+                Log.error("Error while writing metrics to {}.", file, e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic dump.
+     */
+    synchronized void close() {
+        if (dumpTask != null) dumpTask.cancel(false);
+        dumpTask = null;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    /**
+     * Monotonic counter.
+     */
+    static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long amount) {
+            value.add(amount);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Latency histogram with fixed power-of-two buckets in microseconds: bucket i counts values below 2^i us. Recording
+     * is a couple of striped additions, and percentiles are reported as the upper bound of their bucket, so they are
+     * accurate to a factor of two.
+     */
+    static class Histogram {
+        private static final int NUM_BUCKETS = 40;
+
+        private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumMicros = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < NUM_BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        /**
+         * @param nanos Duration to record, in nanoseconds.
+         */
+        void recordNanos(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets[Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+            count.increment();
+            sumMicros.add(micros);
+        }
+
+        /**
+         * @param startNanos Value of System.nanoTime() at the start of the measured interval.
+         */
+        void recordSince(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        /**
+         * @param quantile Quantile between 0 and 1.
+         * @return Returns the upper bound, in microseconds, of the bucket holding the quantile. (0 if empty)
+         */
+        long percentileMicros(double quantile) {
+            long[] counts = new long[NUM_BUCKETS];
+            long total = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return 1L << i;
+            }
+            return 1L << (NUM_BUCKETS - 1);
+        }
+
+        @Override
+        public String toString() {
+            long n = count();
+            return String.format(Locale.ROOT, "count=%d mean=%.1fus p50<%dus p90<%dus p99<%dus", n, n == 0 ? 0.0 : (double) sumMicros.sum() / n,
+                    percentileMicros(0.5), percentileMicros(0.9), percentileMicros(0.99));
+        }
+    }
+}
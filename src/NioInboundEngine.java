@@ -0,0 +1,263 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+class NioInboundEngine {
+    private static final int SELECT_TIMEOUT_MS = 250;
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final Log.Limiter CLOSED_STREAMS = new Log.Limiter();
+    private static final Log.Limiter UNREADABLE_FRAMES = new Log.Limiter();
+    private static final Log.Limiter FAILED_STREAMS = new Log.Limiter();
+
+    private final Supplier<WireCodec> decoderFactory;
+    private final Supplier<Transport.FrameHandler> frameHandlers;
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Selector based replacement for the thread-per-socket listeners of the TcpTransport. A handful of event loops
+     * accept, read and frame the bytes of every adjacent peer, and hand every decoded object to the frame handler of its
+     * channel.
+     *
+     * @param _numEventLoops  Number of selector threads. (The first one also accepts new clients)
+     * @param _decoderFactory Creates the decoder of every accepted channel.
+     * @param _frameHandlers  Creates the handler of decoded frames of every accepted channel.
+     */
+    NioInboundEngine(int _numEventLoops, Supplier<WireCodec> _decoderFactory, Supplier<Transport.FrameHandler> _frameHandlers) {
+        decoderFactory = _decoderFactory;
+        frameHandlers = _frameHandlers;
+        eventLoops = new EventLoop[Math.max(1, _numEventLoops)];
+    }
+
+    /**
+     * Binds the server channel and starts all event loops.
+     *
+     * @param host Address to bind to, or null for every local address.
+     * @param port The port number at which the server initializes.
+     * @throws IOException If the server channel or a selector could not be opened.
+     */
+    void start(String host, int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+        serverChannel.configureBlocking(false);
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+        }
+        serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : eventLoops) {
+            Peer.Shared.threadManager.submit(loop::run);
+        }
+    }
+
+    /**
+     * Closes the server channel, every client channel and every selector.
+     */
+    void close() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            Log.error("Error while closing server channel.", e);
+        }
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) loop.close();
+        }
+    }
+
+    /**
+     * Formats the IP address of a channel.
+     *
+     * @param channel SocketChannel Object
+     * @return Returns formatted IP address.
+     */
+    private String formatIP(SocketChannel channel) {
+        return channel.socket().getInetAddress().toString().replace("/", "");
+    }
+
+    /**
+     * Accepts every pending client. The frame handler of the channel decides whether it is kept, once the peer on the
+     * other end introduced itself.
+     */
+    private void acceptClients() {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                Log.info("Accepted client {}:{}", formatIP(channel), channel.socket().getPort());
+                eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)].addChannel(channel);
+            }
+        } catch (IOException e) {
+            Log.error("Error occurred while trying to accept client connection.", e);
+        }
+    }
+
+    /**
+     * Single selector thread. Channels accepted by any loop are handed over through a queue so that registration
+     * always happens on the thread that owns the selector.
+     */
+    private class EventLoop {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+        EventLoop(Selector _selector) {
+            selector = _selector;
+        }
+
+        void addChannel(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void run() {
+            while (Peer.Shared.running && selector.isOpen()) {
+                try {
+                    selector.select(SELECT_TIMEOUT_MS);
+                    registerPendingChannels();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            acceptClients();
+                        } else if (key.isReadable()) {
+                            readChannel(key);
+                        }
+                    }
+                } catch (ClosedSelectorException e) {
+                    break;
+                } catch (IOException e) {
+                    Log.error("Error occurred in inbound event loop.", e);
+                }
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, new ChannelState(formatIP(channel) + ":" + channel.socket().getPort()));
+                } catch (ClosedChannelException e) {
+                    Log.warn("Client channel closed before it could be registered.");
+                }
+            }
+        }
+
+        /**
+         * Reads everything available on a channel and dispatches every complete frame.
+         *
+         * @param key Selection key of the readable channel.
+         */
+        private void readChannel(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            ChannelState state = (ChannelState) key.attachment();
+            try {
+                int read;
+                while ((read = channel.read(state.buffer)) > 0) {
+                    state.dispatchFrames();
+                }
+                if (read < 0) {
+                    CLOSED_STREAMS.warn("Connection closed by {}.", state.remote);
+                    closeChannel(key);
+                }
+            } catch (IOException e) {
+                CLOSED_STREAMS.warn("Closing the stream from {}: {}", state.remote, e.getMessage());
+                closeChannel(key);
+            } catch (RuntimeException e) {
+                /* A bug in the decoder or a handler must only cost this stream, not every channel of the loop. */
+                FAILED_STREAMS.error("Closing the stream from {} after an unexpected error.", state.remote, e);
+                closeChannel(key);
+            }
+        }
+
+        private void closeChannel(SelectionKey key) {
+            key.cancel();
+            ChannelState state = (ChannelState) key.attachment();
+            try {
+                state.frameHandler.streamClosed();
+            } catch (RuntimeException e) {
+                FAILED_STREAMS.error("Error while closing the stream from {}.", state.remote, e);
+            }
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                Log.error("Error while closing a socket.", e);
+            }
+        }
+
+        void close() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+                Log.warn("Error while closing a selector.");
+            }
+        }
+    }
+
+    /**
+     * Read buffer and decoder of a single client channel.
+     */
+    private class ChannelState {
+        private final String remote;
+        private final WireCodec codec = decoderFactory.get();
+        private final Transport.FrameHandler frameHandler = frameHandlers.get();
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        ChannelState(String _remote) {
+            remote = _remote;
+        }
+
+        /**
+         * Decodes every complete frame in the buffer and leaves the buffer ready for the next read.
+         *
+         * @throws IOException If a frame is malformed, or the frame handler rejected the stream.
+         */
+        void dispatchFrames() throws IOException {
+            buffer.flip();
+            while (buffer.remaining() >= Frames.HEADER_LENGTH) {
+                int length = buffer.getInt(buffer.position());
+                Frames.checkLength(length);
+                if (buffer.remaining() < Frames.HEADER_LENGTH + length) {
+                    ensureCapacity(Frames.HEADER_LENGTH + length);
+                    break;
+                }
+                int offset = buffer.arrayOffset() + buffer.position() + Frames.HEADER_LENGTH;
+                try {
+                    Object o = Frames.decode(buffer.array(), offset, length, codec);
+                    frameHandler.frameReceived(o, Frames.HEADER_LENGTH + length);
+                } catch (ClassNotFoundException e) {
+                    UNREADABLE_FRAMES.error("Received data from {} that does not contain a recognizable object.", remote, e);
+                }
+                buffer.position(buffer.position() + Frames.HEADER_LENGTH + length);
+            }
+            buffer.compact();
+        }
+
+        /**
+         * Grows the buffer when a single frame does not fit into it. Must be called while the buffer is flipped.
+         *
+         * @param frameLength Length of the pending frame including its header.
+         */
+        private void ensureCapacity(int frameLength) {
+            if (frameLength <= buffer.capacity()) return;
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(frameLength, buffer.capacity() * 2));
+            larger.put(buffer);
+            larger.flip();
+            buffer = larger;
+        }
+    }
+}
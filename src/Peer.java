@@ -6,55 +6,165 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.Socket;
-import java.time.Clock;
-import java.time.LocalTime;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
-import java.util.stream.IntStream;
 
 class Peer {
-    private Server server = new Server();
-    String Ipv4Local = null;
-    private Map<String, Connection> connections = new HashMap<>();
+    /* Delay before queued topology records are passed on, so changes close together share one delta. */
+    private static final long TOPOLOGY_BATCH_MS = 50;
+    /* Time given to the log to write its last records before the process exits. */
+    private static final long EXIT_FLUSH_MS = 1000;
+    /* Size of a range of the broadcast log fetched from a neighbour at once. */
+    private static final int CATCH_UP_BYTES = 256 * 1024;
+    /* How far before the newest logged broadcast catching up starts, for clocks that are off and broadcasts still in flight. */
+    private static final long CATCH_UP_MARGIN_MS = 60 * 1000;
+    private static final long CATCH_UP_RETRY_MS = 1000;
+    private static final long RETENTION_CHECK_MS = 60 * 1000;
+    /* Time by which the deadline of a traversal shrinks per hop, for the answer of a child to travel back. */
+    private static final int HOP_MARGIN_MS = 100;
+    /* Delay before a message of a traversal that found a full send queue is queued again. */
+    private static final long SEND_RETRY_MS = 100;
+    /* Publishes remembered to drop the destinations of copies that arrive through a second path. */
+    private static final int RECENT_PUBLISHES = 65536;
+    private static final Log.Limiter DROPPED_MESSAGES = new Log.Limiter();
+    private static final Log.Limiter REPAIR_FAILURES = new Log.Limiter();
+
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter forwardsReceived = metrics.counter("traversal.forwardsReceived");
+    private final Metrics.Counter duplicateForwards = metrics.counter("traversal.duplicates");
+    private final Metrics.Counter broadcastMessages = metrics.counter("broadcast.messagesSent");
+    private final Metrics.Histogram broadcastLatency = metrics.histogram("broadcast.latency");
+    private final Metrics.Histogram pollRoundTrip = metrics.histogram("poll.roundTrip");
+    private final Metrics.Histogram fanOut = metrics.histogram("traversal.fanOut");
+    private final Metrics.Histogram fanIn = metrics.histogram("traversal.fanIn");
+    private final Metrics.Counter floodMessages = metrics.counter("traversal.floodMessages");
+    private final Metrics.Counter treeMessages = metrics.counter("traversal.treeMessages");
+    private final Metrics.Counter routedForwarded = metrics.counter("routing.forwarded");
+    private final Metrics.Counter routedDelivered = metrics.counter("routing.delivered");
+    private final Metrics.Counter routedDropped = metrics.counter("routing.dropped");
+    private final Metrics.Counter suspicions = metrics.counter("failureDetector.suspicions");
+    private final Metrics.Counter recoveries = metrics.counter("failureDetector.recoveries");
+    private final Metrics.Counter partialTraversals = metrics.counter("traversal.partial");
+    private final Metrics.Counter traversalSendRetries = metrics.counter("traversal.sendRetries");
+    private final Metrics.Counter historyServed = metrics.counter("history.bytesServed");
+    private final Metrics.Counter historyCaughtUp = metrics.counter("history.caughtUp");
+    private final Metrics.Counter topicPublished = metrics.counter("topic.published");
+    private final Metrics.Counter topicForwarded = metrics.counter("topic.forwarded");
+    private final Metrics.Counter topicDelivered = metrics.counter("topic.delivered");
+    private final Metrics.Counter topicDuplicates = metrics.counter("topic.duplicates");
+    private final Metrics.Counter topicLostToSender = metrics.counter("topic.lostToSender");
+    private Server server = new Server(this::isDuplicateForward, metrics, this::peerSuspected, this::returnCredit);
+    String localId = null;
+    private Map<String, Connection> connections = new ConcurrentHashMap<>();
+    /* Completes once every adjacent peer was reached at least once. */
+    private CompletableFuture<Void> allDialed = CompletableFuture.completedFuture(null);
+    private PeerGraphData topology = null;
+    private Subscriptions subscriptions = null;
+    /* Listener of every topic this peer subscribed to. */
+    private final Map<String, Consumer<Object>> topicListeners = new ConcurrentHashMap<>();
+    /* Destinations of every recent publish this peer already delivered or passed on. */
+    private final Map<BroadcastId, Set<String>> recentPublishes = new LinkedHashMap<BroadcastId, Set<String>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BroadcastId, Set<String>> eldest) {
+            return size() > RECENT_PUBLISHES;
+        }
+    };
+    /* Topology records waiting to be passed on, the newest one of every peer. */
+    private final Map<String, TopologyDelta.NodeRecord> topologyOutbox = new HashMap<>();
+    /* Adjacent peer each queued topology record came from, which is not sent it back. (Absent for local records) */
+    private final Map<String, String> topologyOutboxSenders = new HashMap<>();
+    private RpcEndpoint rpc = null;
+    private FileTransfers fileTransfers = null;
+    /* Log of the delivered broadcasts, or null if it is disabled. */
+    private BroadcastLog history = null;
+    private AntiEntropy antiEntropy = null;
+    /* Set once this peer started catching up on the broadcasts it missed. */
+    private final AtomicBoolean catchUpStarted = new AtomicBoolean();
+    private long rpcTimeout = RpcEndpoint.DEFAULT_TIMEOUT_MS;
+    private double phiThreshold = PeerData.DEFAULT_PHI_THRESHOLD;
+    private CompressingCodec.Mode compression = CompressingCodec.Mode.NONE;
+    private long traversalDeadline = PeerData.DEFAULT_TRAVERSAL_DEADLINE_MS;
+    private long traversalTtl = TraversalStore.DEFAULT_ACTIVE_TTL_MS;
+    private boolean printText = true;
+    private final SeenCache seenCache = new SeenCache(SeenCache.DEFAULT_CAPACITY);
+    private BroadcastId.Generator broadcastIds = null;
+    private final SpanningTrees spanningTrees = new SpanningTrees();
+    private BroadcastMode broadcastMode = BroadcastMode.FLOOD;
+    private TraversalStore traversals = new TraversalStore(TraversalStore.DEFAULT_ACTIVE_TTL_MS, TraversalStore.DEFAULT_FINISHED_TTL_MS, TraversalStore.DEFAULT_MAX_TRAVERSALS);
 
     /**
      * Stores data that's shared between all threads and instances of the Peer class.
      */
     static class Shared {
-        static AtomicReference<Map<String, ArrayList<Integer>>> callBackCounter = new AtomicReference<>(new HashMap<>());
-        static AtomicReference<Map<String, Map<String, Boolean>>> pollingResults = new AtomicReference<>(new HashMap<>());
-        static AtomicReference<Map<String, LinkedList<Object>>> listCallbacks = new AtomicReference<>(new HashMap<>());
-        static volatile Map<String, Integer> numTraversalMessage = new HashMap<>(new HashMap<>());
-        static ExecutorService threadManager = Executors.newCachedThreadPool();
+        static ExecutorService threadManager = PeerExecutors.create(PeerExecutors.Mode.CACHED);
+        /* Mode of the thread manager, chosen by the first peer started in the JVM. */
+        private static PeerExecutors.Mode executorMode = null;
+        static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "peer-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
         static volatile boolean running;
+
+        /**
+         * Selects the kind of threads of the thread manager. Only the first peer started in the JVM chooses, since
+         * every peer and connection submits to the same thread manager; later peers must not shut it down under them.
+         *
+         * @param mode Kind of threads the peer asks for.
+         */
+        static synchronized void useExecutor(PeerExecutors.Mode mode) {
+            if (executorMode == null) {
+                executorMode = mode;
+                if (mode != PeerExecutors.Mode.CACHED) {
+                    /* Nothing was submitted yet, the default one is only there so the field is never null. */
+                    threadManager.shutdown();
+                    threadManager = PeerExecutors.create(mode);
+                }
+            } else if (mode != executorMode) {
+                Log.warn("Executor {} ignored, the peers of this process already run on {}.", mode, executorMode);
+            }
+        }
+    }
+
+    /**
+     * The ways sendToAllPeers reaches the network.
+     */
+    enum BroadcastMode {
+        /* Every peer forwards to every neighbour not on the path so far, redundant edges answer with an invalid callback. */
+        FLOOD,
+        /* Peers forward along the spanning tree learned from earlier floods, and flood wherever it is unknown. */
+        TREE
     }
 
     /**
      * Peer class.
      */
     Peer() {
+        metrics.gauge("traversal.active", () -> traversals.size());
+        metrics.gauge("traversal.duplicateRatio", () -> forwardsReceived.get() == 0 ? 0 : (double) duplicateForwards.get() / forwardsReceived.get());
+        metrics.gauge("seenCache.falsePositiveRate", seenCache::measuredFalsePositiveRate);
+        metrics.gauge("spanningTrees.known", spanningTrees::size);
+        metrics.gauge("topology.version", () -> topology == null ? 0 : topology.version());
     }
 
     /**
-     * Finds the ip address of current device.
+     * Finds the ip address of current device. Connecting a datagram socket only picks the route, nothing is sent.
      *
-     * @return Ip address of current device.
+     * @return Ip address of current device, or the loopback address if there is no route.
      */
     private String getLocalIpv4() {
-        if (Ipv4Local != null) return Ipv4Local;
-        String output = null;
-        try {
-            Socket socket = new Socket("192.168.1.1", 80); //could also use port 433
-            output = socket.getLocalAddress().getHostAddress();
-            socket.close();
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(InetAddress.getByName("192.168.1.1"), 80);
+            if (!socket.getLocalAddress().isAnyLocalAddress()) return socket.getLocalAddress().getHostAddress();
         } catch (IOException e) {
-            System.out.println("Could not detect ip of device.");
-            e.printStackTrace();
+            Log.error("Could not detect ip of device.", e);
         }
-        return output;
+        return InetAddress.getLoopbackAddress().getHostAddress();
     }
 
     /**
@@ -64,27 +174,147 @@ class Peer {
      * @return Metadata to identify and start the Peer.
      */
     private PeerData parseConfigFile(File file) {
-        Map<String, Integer> adjPeers = new HashMap<>();
+        List<String> adjPeers = new ArrayList<>();
         int serverPort = -1;
+        Server.InboundMode inboundMode = Server.InboundMode.BLOCKING;
+        int eventLoops = 1;
+        WireCodec.Type codec = WireCodec.Type.BINARY;
+        long traversalTtl = TraversalStore.DEFAULT_ACTIVE_TTL_MS;
+        int maxTraversals = TraversalStore.DEFAULT_MAX_TRAVERSALS;
+        int sendQueue = Connection.DEFAULT_SEND_QUEUE;
+        PeerExecutors.Mode executorMode = PeerExecutors.Mode.CACHED;
+        int maxHandlers = 0;
+        String host = null;
+        String statsFile = null;
+        long statsInterval = PeerData.DEFAULT_STATS_INTERVAL_MS;
+        BroadcastMode broadcastMode = BroadcastMode.FLOOD;
+        long rpcTimeout = RpcEndpoint.DEFAULT_TIMEOUT_MS;
+        long heartbeatMillis = PeerData.DEFAULT_HEARTBEAT_MS;
+        double phiThreshold = PeerData.DEFAULT_PHI_THRESHOLD;
+        long traversalDeadline = PeerData.DEFAULT_TRAVERSAL_DEADLINE_MS;
+        long bootstrapTimeout = PeerData.DEFAULT_BOOTSTRAP_TIMEOUT_MS;
+        int inboundWindow = Connection.DEFAULT_CREDIT_WINDOW;
+        Server.ShedPolicy shedPolicy = Server.ShedPolicy.NONE;
+        String fileDirectory = FileTransfers.DEFAULT_DIRECTORY;
+        int fileChunkSize = FileTransfers.DEFAULT_CHUNK_SIZE;
+        CompressingCodec.Mode compression = CompressingCodec.Mode.NONE;
+        int compressionThreshold = CompressingCodec.DEFAULT_THRESHOLD;
+        Log.Level logLevel = Log.Level.INFO;
+        String historyDirectory = null;
+        int historySegmentBytes = BroadcastLog.DEFAULT_SEGMENT_BYTES;
+        long historyRetentionBytes = BroadcastLog.DEFAULT_RETENTION_BYTES;
+        long historyRetentionMillis = BroadcastLog.DEFAULT_RETENTION_MS;
+        long antiEntropyMillis = AntiEntropy.DEFAULT_INTERVAL_MS;
+        long antiEntropyWindow = AntiEntropy.DEFAULT_WINDOW_MS;
         try {
             Main.scanner = new Scanner(file);
             String line;
             while (Main.scanner.hasNextLine()) {
                 line = Main.scanner.nextLine();
                 if (line.startsWith("adjPeer:")) {
-                    adjPeers.put(line.split(":")[1], Integer.valueOf(line.split(":")[2]));
+                    adjPeers.add(line.substring("adjPeer:".length()).trim());
                 } else if (line.startsWith("server:")) {
                     serverPort = Integer.valueOf(line.split(":")[1]);
+                } else if (line.startsWith("inbound:")) {
+                    inboundMode = Server.InboundMode.valueOf(line.split(":")[1].trim().toUpperCase());
+                } else if (line.startsWith("eventLoops:")) {
+                    eventLoops = Integer.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("codec:")) {
+                    codec = WireCodec.Type.valueOf(line.split(":")[1].trim().toUpperCase());
+                } else if (line.startsWith("traversalTtl:")) {
+                    traversalTtl = Long.valueOf(line.split(":")[1].trim()) * 1000;
+                } else if (line.startsWith("maxTraversals:")) {
+                    maxTraversals = Integer.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("sendQueue:")) {
+                    sendQueue = Integer.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("executor:")) {
+                    executorMode = PeerExecutors.Mode.valueOf(line.split(":")[1].trim().toUpperCase());
+                } else if (line.startsWith("maxHandlers:")) {
+                    maxHandlers = Integer.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("host:")) {
+                    host = line.split(":")[1].trim();
+                } else if (line.startsWith("statsFile:")) {
+                    statsFile = line.substring("statsFile:".length()).trim();
+                } else if (line.startsWith("statsInterval:")) {
+                    statsInterval = Long.valueOf(line.split(":")[1].trim()) * 1000;
+                } else if (line.startsWith("broadcast:")) {
+                    broadcastMode = BroadcastMode.valueOf(line.split(":")[1].trim().toUpperCase());
+                } else if (line.startsWith("rpcTimeout:")) {
+                    rpcTimeout = Long.valueOf(line.split(":")[1].trim()) * 1000;
+                } else if (line.startsWith("heartbeatMillis:")) {
+                    heartbeatMillis = Long.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("phiThreshold:")) {
+                    phiThreshold = Double.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("traversalDeadline:")) {
+                    traversalDeadline = Long.valueOf(line.split(":")[1].trim()) * 1000;
+                } else if (line.startsWith("bootstrapTimeout:")) {
+                    bootstrapTimeout = Long.valueOf(line.split(":")[1].trim()) * 1000;
+                } else if (line.startsWith("inboundWindow:")) {
+                    inboundWindow = Integer.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("shed:")) {
+                    shedPolicy = Server.ShedPolicy.valueOf(line.split(":")[1].trim().toUpperCase());
+                } else if (line.startsWith("fileDir:")) {
+                    fileDirectory = line.substring("fileDir:".length()).trim();
+                } else if (line.startsWith("fileChunk:")) {
+                    fileChunkSize = Integer.valueOf(line.split(":")[1].trim()) * 1024;
+                } else if (line.startsWith("compressionThreshold:")) {
+                    compressionThreshold = Integer.valueOf(line.split(":")[1].trim());
+                } else if (line.startsWith("compression:")) {
+                    compression = CompressingCodec.Mode.valueOf(line.split(":")[1].trim().toUpperCase());
+                } else if (line.startsWith("logLevel:")) {
+                    logLevel = Log.Level.valueOf(line.split(":")[1].trim().toUpperCase());
+                } else if (line.startsWith("historyDir:")) {
+                    historyDirectory = line.substring("historyDir:".length()).trim();
+                } else if (line.startsWith("historySegment:")) {
+                    historySegmentBytes = Integer.valueOf(line.split(":")[1].trim()) * 1024 * 1024;
+                } else if (line.startsWith("historyRetentionSize:")) {
+                    historyRetentionBytes = Long.valueOf(line.split(":")[1].trim()) * 1024 * 1024;
+                } else if (line.startsWith("historyRetentionTime:")) {
+                    historyRetentionMillis = Long.valueOf(line.split(":")[1].trim()) * 60 * 60 * 1000;
+                } else if (line.startsWith("antiEntropyWindow:")) {
+                    antiEntropyWindow = Long.valueOf(line.split(":")[1].trim()) * 60 * 1000;
+                } else if (line.startsWith("antiEntropy:")) {
+                    antiEntropyMillis = Long.valueOf(line.split(":")[1].trim()) * 1000;
                 }
             }
         } catch (FileNotFoundException e) {
-            System.out.println("Could not find a valid config file.");
-            e.printStackTrace();
+            Log.error("Could not find a valid config file.", e);
         }
         Main.scanner = new Scanner(System.in);
         if (adjPeers.isEmpty() || serverPort == -1)
-            System.out.println("Error while parsing config file. (" + file.getPath() + ")");
-        return new PeerData(adjPeers, serverPort);
+            Log.warn("Error while parsing config file. ({})", file.getPath());
+        PeerData peerData = new PeerData(adjPeers, serverPort);
+        peerData.inboundMode = inboundMode;
+        peerData.eventLoops = eventLoops;
+        peerData.codec = codec;
+        peerData.traversalTtl = traversalTtl;
+        peerData.maxTraversals = maxTraversals;
+        peerData.sendQueue = sendQueue;
+        peerData.executorMode = executorMode;
+        peerData.maxHandlers = maxHandlers;
+        peerData.host = host;
+        peerData.statsFile = statsFile;
+        peerData.statsInterval = statsInterval;
+        peerData.broadcastMode = broadcastMode;
+        peerData.rpcTimeout = rpcTimeout;
+        peerData.heartbeatMillis = heartbeatMillis;
+        peerData.phiThreshold = phiThreshold;
+        peerData.traversalDeadline = traversalDeadline;
+        peerData.bootstrapTimeout = bootstrapTimeout;
+        peerData.inboundWindow = inboundWindow;
+        peerData.shedPolicy = shedPolicy;
+        peerData.fileDirectory = fileDirectory;
+        peerData.fileChunkSize = fileChunkSize;
+        peerData.compression = compression;
+        peerData.compressionThreshold = compressionThreshold;
+        peerData.logLevel = logLevel;
+        peerData.historyDirectory = historyDirectory;
+        peerData.historySegmentBytes = historySegmentBytes;
+        peerData.historyRetentionBytes = historyRetentionBytes;
+        peerData.historyRetentionMillis = historyRetentionMillis;
+        peerData.antiEntropyMillis = antiEntropyMillis;
+        peerData.antiEntropyWindow = antiEntropyWindow;
+        return peerData;
     }
 
     /**
@@ -93,33 +323,254 @@ class Peer {
      * @param configFile Peer config file.
      */
     void startPeer(File configFile) {
+        startPeer(parseConfigFile(configFile), () -> {
+        });
+    }
+
+    /**
+     * Starts the peer from parsed metadata. Every adjacent peer is dialed at once while the server accepts inbound
+     * connections, so startup takes as long as the slowest adjacent peer. Returns once every adjacent peer is
+     * connected in both directions, or after the bootstrap timeout; peers that are not reachable by then keep being
+     * dialed in the background, and lost connections are dialed again.
+     *
+     * @param peerData         Metadata to identify and start the Peer.
+     * @param beforeConnecting Runs after the server started and before connecting to the adjacent peers.
+     */
+    void startPeer(PeerData peerData, Runnable beforeConnecting) {
         Peer.Shared.running = true;
+        Log.setLevel(peerData.logLevel);
         Consumer<Object> handleSocketInput = this::handleObjData;
-        Ipv4Local = getLocalIpv4();
+        localId = Transport.peerId(peerData.host != null ? peerData.host : getLocalIpv4(), peerData.serverPort);
+        topology = new PeerGraphData(localId);
+        subscriptions = new Subscriptions(localId);
+        rpc = new RpcEndpoint(localId, this::sendObject, metrics);
+        rpcTimeout = peerData.rpcTimeout;
+        phiThreshold = peerData.phiThreshold;
+        compression = peerData.compression;
+        traversalDeadline = peerData.traversalDeadline;
+        traversalTtl = peerData.traversalTtl;
+        printText = peerData.printText;
+        registerRpcHandlers();
+        fileTransfers = new FileTransfers(localId, rpc, new File(peerData.fileDirectory), peerData.fileChunkSize, rpcTimeout, metrics);
+        if (peerData.historyDirectory != null) openHistory(peerData);
+
+        Shared.useExecutor(peerData.executorMode);
+        traversals.close();
+        traversals = new TraversalStore(peerData.traversalTtl, TraversalStore.DEFAULT_FINISHED_TTL_MS, peerData.maxTraversals);
+        broadcastMode = peerData.broadcastMode;
+        if (peerData.statsFile != null) metrics.startDump(peerData.statsFile, peerData.statsInterval);
+        Transport transport = peerData.transport != null ? peerData.transport : new TcpTransport(peerData.inboundMode, peerData.eventLoops, peerData.host);
+        server.startServer(localId, peerData.adjPeers, peerData, transport, handleSocketInput);
+
+        beforeConnecting.run();
+
+        Hello hello = new Hello(localId, compression == CompressingCodec.Mode.DEFLATE ? CompressingCodec.CAPABILITY_DEFLATE : 0, 0);
+        List<CompletableFuture<Void>> dialed = new ArrayList<>();
+        for (String adjPeer : peerData.adjPeers) {
+            Connection connection = new Connection(peerData, transport, hello, metrics, this::connectionStateChanged);
+            connections.put(adjPeer, connection);
+            dialed.add(connection.establishConnection(adjPeer, localId));
+        }
+        allDialed = CompletableFuture.allOf(dialed.toArray(new CompletableFuture<?>[0]));
+        Shared.scheduler.scheduleAtFixedRate(this::heartbeat, peerData.heartbeatMillis, peerData.heartbeatMillis, TimeUnit.MILLISECONDS);
+        awaitReady(peerData.bootstrapTimeout);
+        Log.info("|| PEER SUCCESSFULLY INITIALIZED ||");
+    }
 
-        PeerData peerData = parseConfigFile(configFile);
-        Map<String, Integer> adjPeerInfo = new HashMap<>(peerData.adjPeers);
-        LinkedList<String> adjIP = new LinkedList<>(adjPeerInfo.keySet());
-        LinkedList<Integer> adjPort = new LinkedList<>(adjPeerInfo.values());
-        Future queryThread = Shared.threadManager.submit(() -> server.startServer(adjIP, peerData.serverPort, handleSocketInput));
+    /**
+     * Waits until every adjacent peer is connected in both directions. Peers that are not by then keep being dialed
+     * and accepted in the background.
+     *
+     * @param timeoutMillis Maximum time to wait.
+     * @return Returns whether every adjacent peer is connected.
+     */
+    boolean awaitReady(long timeoutMillis) {
+        long readyBy = System.currentTimeMillis() + timeoutMillis;
+        try {
+            allDialed.get(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.warn("Not every adjacent peer is reachable yet, retrying in the background.");
+            return false;
+        } catch (InterruptedException | ExecutionException e) {
+            Log.error("Interrupted while connecting to the adjacent peers.", e);
+            return false;
+        }
+        if (!server.awaitClients(readyBy - System.currentTimeMillis())) {
+            Log.warn("Not every adjacent peer has connected yet, accepting them in the background.");
+            return false;
+        }
+        return true;
+    }
 
-        System.out.println("Press [ENTER] to start client querying. " + "(" + adjPeerInfo.size() + ")");
-        Main.scanner.nextLine();
+    /**
+     * Registers the methods other peers can call on this one.
+     */
+    private void registerRpcHandlers() {
+        rpc.register("ping", Object.class, argument -> argument);
+        rpc.register("stats", Object.class, argument -> stats());
+        rpc.register("vote", Object.class, argument -> vote());
+        rpc.register("peers", Object.class, argument -> new ArrayList<>(activePeers()));
+        rpc.register("historyRange", HistoryRangeRequest.class, this::historyRange);
+    }
 
-        IntStream.range(0, adjPeerInfo.size()).forEach(i -> {
-            connections.put(adjIP.get(i), new Connection());
-            connections.get(adjIP.get(i)).establishConnection(adjIP.get(i), adjPort.get(i));
+    /**
+     * Opens the log of delivered broadcasts, deletes its expired segments every minute and compares it with a random
+     * neighbour periodically. The peer runs without a log if it cannot be opened.
+     *
+     * @param peerData Metadata of the peer.
+     */
+    private void openHistory(PeerData peerData) {
+        try {
+            history = new BroadcastLog(new File(peerData.historyDirectory), peerData.historySegmentBytes, peerData.historyRetentionBytes, peerData.historyRetentionMillis, metrics);
+        } catch (IOException e) {
+            Log.error("Could not open the broadcast log in {}, broadcasts are not logged.", peerData.historyDirectory, e);
+            return;
+        }
+        Shared.scheduler.scheduleAtFixedRate(() -> history.enforceRetention(System.currentTimeMillis()), RETENTION_CHECK_MS, RETENTION_CHECK_MS, TimeUnit.MILLISECONDS);
+        antiEntropy = new AntiEntropy(rpc, history, this::deliverMissed, peerData.antiEntropyWindow, rpcTimeout, metrics);
+        if (peerData.antiEntropyMillis > 0) {
+            Shared.scheduler.scheduleAtFixedRate(() -> Shared.threadManager.execute(this::repairFromRandomNeighbour), peerData.antiEntropyMillis, peerData.antiEntropyMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a round of anti-entropy with a random adjacent peer that is up.
+     */
+    private void repairFromRandomNeighbour() {
+        if (!Shared.running) return;
+        List<String> candidates = new ArrayList<>();
+        connections.forEach((peer, connection) -> {
+            if (connection.isOpen() && !connection.suspected) candidates.add(peer);
         });
+        if (candidates.isEmpty()) return;
+        String peer = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+        antiEntropy.repair(peer).whenComplete((repaired, e) -> {
+            if (e != null) {
+                REPAIR_FAILURES.warn("Anti-entropy with {} failed: {}", peer, e.getMessage());
+            } else if (repaired > 0) {
+                Log.info("Repaired {} missed broadcasts from {}.", repaired, peer);
+            }
+        });
+    }
+
+    /**
+     * Delivers a broadcast that was missed and has just been logged. (Caught up on or repaired)
+     *
+     * @param entry The broadcast, as logged.
+     */
+    private void deliverMissed(BroadcastLog.Entry entry) {
+        seenCache.add(entry.id);
+        handleObjData(entry.payload);
+    }
+
+    /**
+     * Serves a range of the broadcast log to another peer. (The historyRange call)
+     *
+     * @param request Start and size of the range.
+     * @return Returns the range, empty if the peer has every broadcast up to the end of the log.
+     */
+    private HistoryRange historyRange(HistoryRangeRequest request) {
+        if (history == null) throw new IllegalStateException(localId + " keeps no broadcast log.");
+        long from = request.sinceMillis >= 0 ? history.offsetAt(request.sinceMillis) : request.fromOffset;
+        BroadcastLog.Range range = history.readRange(from, Math.min(request.maxBytes, CATCH_UP_BYTES));
+        long endOffset = history.endOffset();
+        if (range == null) return new HistoryRange(endOffset, endOffset, endOffset, ByteBuffer.allocate(0));
+        historyServed.add(range.records.remaining());
+        return new HistoryRange(range.firstOffset, range.firstOffset + range.count, endOffset, range.records);
+    }
+
+    /**
+     * Fetches the broadcasts this peer missed while it was offline from the log of a neighbour, one range after the
+     * other, and delivers the ones it has not seen yet. Starts shortly before the newest broadcast of the local log,
+     * or at the start of the log of the neighbour if the local one is empty.
+     *
+     * @param peer Id of an adjacent peer.
+     * @return Returns a future of the number of broadcasts delivered.
+     */
+    CompletableFuture<Long> catchUp(String peer) {
+        long lastTime = history.lastTime();
+        long since = lastTime == 0 ? 0 : Math.max(0, lastTime - CATCH_UP_MARGIN_MS);
+        return fetchHistory(peer, new HistoryRangeRequest(since, 0, CATCH_UP_BYTES), 0);
+    }
+
+    private CompletableFuture<Long> fetchHistory(String peer, HistoryRangeRequest request, long delivered) {
+        return rpc.call(peer, "historyRange", request, HistoryRange.class, rpcTimeout).thenCompose(range -> {
+            if (range.firstOffset == range.nextOffset) return CompletableFuture.completedFuture(delivered);
+            long count = delivered;
+            try {
+                for (BroadcastLog.Entry entry : BroadcastLog.parse(range.firstOffset, range.records)) {
+                    if (history.append(entry.id, entry.payload) < 0) continue;
+                    deliverMissed(entry);
+                    count++;
+                }
+            } catch (IOException e) {
+                CompletableFuture<Long> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            historyCaughtUp.add(count - delivered);
+            return fetchHistory(peer, new HistoryRangeRequest(-1, range.nextOffset, CATCH_UP_BYTES), count);
+        });
+    }
+
+    /**
+     * Hands the logged broadcasts since a time to a consumer, oldest first.
+     *
+     * @param sinceMillis Time of the oldest broadcast.
+     * @param consumer    Consumer of the broadcasts.
+     * @return Returns the number of broadcasts replayed, or -1 if this peer keeps no broadcast log.
+     * @throws IOException If a record of the log cannot be decoded.
+     */
+    long replayHistory(long sinceMillis, Consumer<BroadcastLog.Entry> consumer) throws IOException {
+        if (history == null) return -1;
+        long from = history.offsetAt(sinceMillis);
+        return history.replay(from, consumer) - from;
+    }
+
+    /**
+     * Calls a method on another peer. Any number of calls may be outstanding at once.
+     *
+     * @param peer     Id of the peer. (Adjacent or routed)
+     * @param method   Name of the method. (ping, stats, vote, peers)
+     * @param argument Argument of the method.
+     * @return Returns a future of the result, failing after the configured timeout.
+     */
+    CompletableFuture<Object> call(String peer, String method, Object argument) {
+        return rpc.call(peer, method, argument, Object.class, rpcTimeout);
+    }
+
+    /**
+     * Sends a file to any peer of the network. The peer downloads it from this one in chunks.
+     *
+     * @param file File to send.
+     * @param peer Id of the peer. (Adjacent or routed)
+     * @return Returns a future of the summary of the download, (size, time and throughput) reported by the peer.
+     */
+    CompletableFuture<Object> sendFile(File file, String peer) {
         try {
-            queryThread.get();
-        } catch (InterruptedException e) {
-            System.out.println("Server querying thread was interrupted.");
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            System.out.println("Server failed to execute.");
-            e.printStackTrace();
+            return rpc.call(peer, "fileOffer", fileTransfers.share(file), Object.class, FileTransfers.OFFER_TIMEOUT_MS);
+        } catch (IOException e) {
+            CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Offers a file to every peer in the network. Every peer downloads it from its parent in the traversal tree, while
+     * the parent is still downloading it itself, so the origin only serves its own children.
+     *
+     * @param file File to distribute.
+     * @return Returns a future that completes once every peer received the offer.
+     */
+    CompletableFuture<TraversalState> distributeFile(File file) {
+        try {
+            return sendToAllPeers(fileTransfers.share(file));
+        } catch (IOException e) {
+            CompletableFuture<TraversalState> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
-        System.out.println("|| PEER SUCCESSFULLY INITIALIZED ||");
     }
 
     /**
@@ -127,6 +578,9 @@ class Peer {
      */
     void stop() {
         Peer.Shared.running = false;
+        metrics.close();
+        if (fileTransfers != null) fileTransfers.close();
+        if (history != null) history.close();
         waitForAllThreads();
         server.closeServer();
         connections.values().forEach(Connection::disconnect);
@@ -139,25 +593,434 @@ class Peer {
      * Waits for all threads to complete.
      */
     private void waitForAllThreads() {
+        Shared.scheduler.shutdown();
         Shared.threadManager.shutdown();
         try {
             Shared.threadManager.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
         } catch (InterruptedException e) {
-            System.out.println("Error while waiting for threads to terminate.");
-            e.printStackTrace();
+            Log.error("Error while waiting for threads to terminate.", e);
+            Log.flush(EXIT_FLUSH_MS);
             System.exit(-1);
         }
+        Log.flush(EXIT_FLUSH_MS);
         System.exit(0);
     }
 
     /**
-     * Sends an object to one of the adjacent peers.
+     * Forgets every learned spanning tree. Must be called whenever a connection is opened or lost, so that the next
+     * broadcast through this peer floods and learns the new tree.
+     */
+    void connectionChanged() {
+        spanningTrees.invalidate();
+        if (topology == null) return;
+        Set<String> alive = new HashSet<>();
+        connections.forEach((ip, connection) -> {
+            if (connection.isOpen() && !connection.suspected) alive.add(ip);
+        });
+        TopologyDelta.NodeRecord record = topology.updateLocal(alive);
+        if (record != null) publishTopology(Collections.singletonList(record), null);
+    }
+
+    /**
+     * Queues topology records for every adjacent peer. Records are sent together once per batch interval, so a peer
+     * whose links come up one after the other, or that learns many records at once, sends one delta instead of one per
+     * change. A record is not sent back to the peer it came from, which already knows it.
+     *
+     * @param records Records that are new to this peer.
+     * @param sender  Adjacent peer the records came from, or null if they are this peer's own.
+     */
+    private void publishTopology(Collection<TopologyDelta.NodeRecord> records, String sender) {
+        synchronized (topologyOutbox) {
+            boolean idle = topologyOutbox.isEmpty();
+            for (TopologyDelta.NodeRecord record : records) {
+                TopologyDelta.NodeRecord queued = topologyOutbox.get(record.node);
+                if (queued != null && queued.sequence >= record.sequence) continue;
+                topologyOutbox.put(record.node, record);
+                if (sender == null) topologyOutboxSenders.remove(record.node);
+                else topologyOutboxSenders.put(record.node, sender);
+            }
+            if (idle && !topologyOutbox.isEmpty()) {
+                Shared.scheduler.schedule(() -> Shared.threadManager.execute(this::flushTopology), TOPOLOGY_BATCH_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sends the queued topology records to every adjacent peer in a single delta, leaving out the records that came
+     * from that peer.
+     */
+    private void flushTopology() {
+        ArrayList<TopologyDelta.NodeRecord> records;
+        Map<String, String> senders;
+        synchronized (topologyOutbox) {
+            records = new ArrayList<>(topologyOutbox.values());
+            senders = new HashMap<>(topologyOutboxSenders);
+            topologyOutbox.clear();
+            topologyOutboxSenders.clear();
+        }
+        if (records.isEmpty() || !Shared.running) return;
+        connections.forEach((peer, connection) -> {
+            ArrayList<TopologyDelta.NodeRecord> forward = new ArrayList<>(records.size());
+            for (TopologyDelta.NodeRecord record : records) {
+                if (!peer.equals(senders.get(record.node))) forward.add(record);
+            }
+            if (!forward.isEmpty()) connection.sendObject(new TopologyDelta(localId, forward));
+        });
+    }
+
+    /**
+     * Called by a connection every time its stream was opened or lost. An adjacent peer that was (re)connected is
+     * brought up to date with the whole topology map, from then on only changes are exchanged.
      *
-     * @param o    Object to be sent.
-     * @param Ipv4 Ip address of destination peer.
+     * @param connection Connection to an adjacent peer.
+     */
+    private void connectionStateChanged(Connection connection) {
+        if (!Shared.running) return;
+        if (!connection.isOpen()) {
+            peerSuspected(connection.peerId);
+            return;
+        }
+        connectionChanged();
+        connection.sendObject(new TopologyDelta(localId, topology.snapshot()));
+        List<SubscriptionDelta.Record> subscribed = subscriptions.snapshot();
+        if (!subscribed.isEmpty()) connection.sendObject(new SubscriptionDelta(localId, subscribed));
+        if (history != null && catchUpStarted.compareAndSet(false, true)) startCatchUp(connection.peerId);
+    }
+
+    /**
+     * Catches up on missed broadcasts from an adjacent peer, and from another one if that fails. (The answer is lost,
+     * for one, if the connection of the peer back to this one is not open yet)
+     *
+     * @param peer Id of the adjacent peer.
+     */
+    private void startCatchUp(String peer) {
+        catchUp(peer).whenComplete((delivered, e) -> {
+            if (e == null) {
+                if (delivered > 0) Log.info("Caught up on {} missed broadcasts from {}.", delivered, peer);
+                return;
+            }
+            Log.warn("Could not catch up on missed broadcasts from {}, retrying: {}", peer, e.getMessage());
+            Shared.scheduler.schedule(() -> Shared.threadManager.execute(() -> {
+                for (Connection connection : connections.values()) {
+                    if (connection.isOpen() && !connection.suspected) {
+                        startCatchUp(connection.peerId);
+                        return;
+                    }
+                }
+                /* No neighbour to ask, the next connection that opens starts over. */
+                catchUpStarted.set(false);
+            }), CATCH_UP_RETRY_MS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * Sends a heartbeat to every adjacent peer, reports the peers whose heartbeats stopped and fails the sends that
+     * waited too long for room in a send queue. Runs periodically on the scheduler.
+     */
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        Heartbeat heartbeat = new Heartbeat(localId);
+        connections.forEach((ip, connection) -> {
+            connection.sendControl(heartbeat);
+            connection.expireWaitingSends(now);
+            if (!connection.suspected && connection.phi(now) > phiThreshold) peerSuspected(ip);
+        });
+        server.flushCredits();
+    }
+
+    /**
+     * Returns credits to an adjacent peer for the frames of it this peer handled. (Used by the Server)
+     *
+     * @param peerId Id of the peer.
+     * @param epoch  Epoch of the stream the frames arrived on.
+     * @param frames Number of frames handled.
+     * @return Returns whether the credits were queued.
+     */
+    private boolean returnCredit(String peerId, int epoch, int frames) {
+        Connection connection = connections.get(peerId);
+        return connection != null && connection.sendControl(new Credit(localId, epoch, frames));
+    }
+
+    /**
+     * Applies the features an adjacent peer announced to the connection to it. Large frames are compressed only if
+     * both this peer and the other one are configured to compress.
+     *
+     * @param hello Hello received from the peer.
+     */
+    private void handleHello(Hello hello) {
+        Connection connection = connections.get(hello.source);
+        if (connection == null) return;
+        boolean deflate = compression == CompressingCodec.Mode.DEFLATE && (hello.capabilities & CompressingCodec.CAPABILITY_DEFLATE) != 0;
+        connection.setCompression(deflate);
+    }
+
+    /**
+     * Lets the connection to an adjacent peer send more frames.
+     *
+     * @param credit Credit received from the peer.
+     */
+    private void handleCredit(Credit credit) {
+        Connection connection = connections.get(credit.source);
+        if (connection != null) connection.creditGranted(credit.epoch, credit.frames);
+    }
+
+    /**
+     * Records a heartbeat of an adjacent peer. A suspected peer that is heard from again takes part in traversals
+     * again.
+     *
+     * @param heartbeat Heartbeat received.
+     */
+    private void handleHeartbeat(Heartbeat heartbeat) {
+        Connection connection = connections.get(heartbeat.source);
+        if (connection == null) return;
+        connection.heartbeatReceived();
+        if (!connection.suspected) return;
+        connection.suspected = false;
+        recoveries.increment();
+        Log.info("Peer {} is alive again.", heartbeat.source);
+        connectionChanged();
+    }
+
+    /**
+     * Treats an adjacent peer as failed, after its heartbeats stopped or its stream closed. Every traversal waiting
+     * for a callback of the peer stops waiting, and the peer is left out of new ones until it is heard from again.
+     *
+     * @param peerId Id of the peer.
+     */
+    private void peerSuspected(String peerId) {
+        Connection connection = connections.get(peerId);
+        if (connection == null || connection.suspected) return;
+        connection.suspected = true;
+        suspicions.increment();
+        Log.warn("Peer {} is suspected to have failed.", peerId);
+        traversals.forEachActive(state -> state.childLost(peerId));
+        connectionChanged();
+    }
+
+    /**
+     * Merges a topology delta and passes the records that were new to this peer on to the other adjacent peers.
+     *
+     * @param delta Delta received from an adjacent peer.
+     */
+    private void handleTopologyDelta(TopologyDelta delta) {
+        List<TopologyDelta.NodeRecord> applied = topology.merge(delta.records);
+        if (!applied.isEmpty()) publishTopology(applied, delta.sender);
+    }
+
+    /**
+     * Subscribes this peer to a topic, replacing any earlier listener of it. Every other peer learns of it, and
+     * publishes on the topic are forwarded towards this peer from then on.
+     *
+     * @param topic    Name of the topic.
+     * @param listener Receives the data published on the topic.
+     */
+    void subscribe(String topic, Consumer<Object> listener) {
+        topicListeners.put(topic, listener);
+        publishSubscriptions();
+    }
+
+    /**
+     * @param topic Name of a topic this peer no longer wants publishes of.
      */
-    void sendObject(Object o, String Ipv4) {
-        connections.get(Ipv4).sendObject(o);
+    void unsubscribe(String topic) {
+        if (topicListeners.remove(topic) != null) publishSubscriptions();
+    }
+
+    /**
+     * @return Returns the topics this peer subscribed to.
+     */
+    List<String> subscribedTopics() {
+        return subscriptions.localTopics();
+    }
+
+    /**
+     * @return Returns the topics every adjacent peer leads to subscribers of.
+     */
+    Map<String, Set<String>> topicInterest() {
+        return subscriptions.interestByLink(topology);
+    }
+
+    /**
+     * Sends the topics of this peer to every adjacent peer, if they changed.
+     */
+    private void publishSubscriptions() {
+        SubscriptionDelta.Record record = subscriptions.updateLocal(new TreeSet<>(topicListeners.keySet()));
+        if (record != null) sendToAdjPeers(new SubscriptionDelta(localId, Collections.singletonList(record)));
+    }
+
+    /**
+     * Applies the subscription records of an adjacent peer and passes the new ones on to every other adjacent peer.
+     *
+     * @param delta Delta received.
+     */
+    private void handleSubscriptionDelta(SubscriptionDelta delta) {
+        List<SubscriptionDelta.Record> applied = subscriptions.merge(delta.records);
+        if (applied.isEmpty()) return;
+        SubscriptionDelta forward = new SubscriptionDelta(localId, applied);
+        connections.forEach((peer, connection) -> {
+            if (!peer.equals(delta.sender)) connection.sendObject(forward);
+        });
+    }
+
+    /**
+     * Publishes data on a topic. Unlike sendToAllPeers, the data only travels along the shortest paths to the
+     * subscribers of the topic, so a publish on a topic with few subscribers costs about the length of those paths,
+     * however large the network is. Best effort: a publish is not acknowledged, and subscribers this peer has not
+     * heard of yet miss it.
+     *
+     * @param topic Name of the topic.
+     * @param data  Data to publish.
+     * @return Returns the number of adjacent peers the publish was sent to.
+     */
+    int publish(String topic, Object data) {
+        BroadcastId id = nextBroadcastId();
+        Map<String, List<String>> routes = subscriptions.routes(topic, topology);
+        Set<String> handled = new HashSet<>();
+        handled.add(localId);
+        routes.values().forEach(handled::addAll);
+        synchronized (recentPublishes) {
+            recentPublishes.put(id, handled);
+        }
+        topicPublished.increment();
+        if (topicListeners.containsKey(topic)) deliverTopic(topic, data);
+        return sendTopic(new TopicMessage(id, topic, localId, localId, Collections.emptyList(), data), routes);
+    }
+
+    /**
+     * Delivers a publish if this peer is one of its destinations, and passes it on towards the others. A copy that
+     * arrives through a second path, while routing tables disagree, only carries on with the destinations no earlier
+     * copy had. Destinations whose next hop is the peer the copy came from are dropped rather than sent back and forth
+     * (counted by topic.lostToSender), the routing tables of the two peers disagree on them.
+     *
+     * @param message Publish received.
+     */
+    private void handleTopicMessage(TopicMessage message) {
+        List<String> destinations = new ArrayList<>();
+        synchronized (recentPublishes) {
+            Set<String> handled = recentPublishes.computeIfAbsent(message.id, id -> new HashSet<>());
+            for (String destination : message.destinations) {
+                if (handled.add(destination)) destinations.add(destination);
+            }
+        }
+        if (destinations.isEmpty()) {
+            topicDuplicates.increment();
+            return;
+        }
+        Map<String, List<String>> routes = new HashMap<>();
+        int lostToSender = 0;
+        for (String destination : destinations) {
+            if (destination.equals(localId)) {
+                deliverTopic(message.topic, message.data);
+                continue;
+            }
+            String link = topology.nextHop(destination);
+            if (link == null) continue;
+            if (link.equals(message.sender)) {
+                lostToSender++;
+                continue;
+            }
+            routes.computeIfAbsent(link, key -> new ArrayList<>()).add(destination);
+        }
+        topicLostToSender.add(lostToSender);
+        sendTopic(message, routes);
+    }
+
+    private void deliverTopic(String topic, Object data) {
+        Consumer<Object> listener = topicListeners.get(topic);
+        if (listener == null) return;
+        topicDelivered.increment();
+        listener.accept(data);
+    }
+
+    /**
+     * Sends a copy of a publish to every adjacent peer that leads to some of its destinations.
+     *
+     * @param message Publish to pass on.
+     * @param routes  Destinations, grouped by the adjacent peer that leads to them.
+     * @return Returns the number of adjacent peers it was sent to.
+     */
+    private int sendTopic(TopicMessage message, Map<String, List<String>> routes) {
+        int sent = 0;
+        for (Map.Entry<String, List<String>> route : routes.entrySet()) {
+            Connection connection = connections.get(route.getKey());
+            if (connection == null || !connection.isOpen()) continue;
+            connection.sendObject(new TopicMessage(message.id, message.topic, message.origin, localId, route.getValue(), message.data));
+            sent++;
+        }
+        topicForwarded.add(sent);
+        return sent;
+    }
+
+    /**
+     * @return Returns every peer reachable in the topology map, nearest first.
+     */
+    List<String> activePeers() {
+        return topology.activePeers();
+    }
+
+    /**
+     * @param destination Id of the destination peer.
+     * @return Returns a shortest path from this peer to the destination in the topology map, or null if unreachable.
+     */
+    List<String> shortestPath(String destination) {
+        return topology.shortestPath(destination);
+    }
+
+    /**
+     * @return Returns a random peer of the network, or null if no other peer is known.
+     */
+    String randomPeer() {
+        return topology.randomPeer(ThreadLocalRandom.current());
+    }
+
+    /**
+     * Sends an object to any peer of the network without waiting for it to be written. Adjacent peers are sent the
+     * object directly, others through their next hop in the routing table.
+     *
+     * @param o      Object to be sent.
+     * @param peerId Id of the destination peer.
+     * @return Returns a future that completes once the object was written to the stream of the first hop.
+     */
+    CompletableFuture<Void> sendObject(Object o, String peerId) {
+        Connection connection = connections.get(peerId);
+        if (connection != null) return connection.sendObject(o);
+        return routeMessage(new RoutedMessage(localId, peerId, RoutedMessage.DEFAULT_TTL, o));
+    }
+
+    /**
+     * Hands a routed message to the next hop towards its destination.
+     *
+     * @param message Message to forward.
+     * @return Returns a future that completes once the message was written to the socket of the next hop.
+     */
+    private CompletableFuture<Void> routeMessage(RoutedMessage message) {
+        String nextHop = topology == null ? null : topology.nextHop(message.destination);
+        Connection connection = nextHop == null ? null : connections.get(nextHop);
+        if (connection == null || message.ttl <= 0) {
+            routedDropped.increment();
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("No route to " + message.destination + "."));
+            return failed;
+        }
+        return connection.sendObject(message);
+    }
+
+    /**
+     * Delivers a routed message addressed to this peer, or passes it on towards its destination.
+     *
+     * @param message Message received from an adjacent peer.
+     */
+    private void handleRoutedMessage(RoutedMessage message) {
+        if (message.destination.equals(localId)) {
+            routedDelivered.increment();
+            handleObjData(message.payload);
+            return;
+        }
+        routedForwarded.increment();
+        message.ttl--;
+        routeMessage(message).whenComplete((written, e) -> {
+            if (e != null) DROPPED_MESSAGES.warn("Dropped a message from {}: {}", message.source, e.getMessage());
+        });
     }
 
     /**
@@ -173,45 +1036,77 @@ class Peer {
      * Sends an object to all peers in the network.
      *
      * @param o Object to be sent.
+     * @return Returns a future that completes once every peer in the network has answered.
      */
-    void sendToAllPeers(Object o, LocalTime time) {
+    CompletableFuture<TraversalState> sendToAllPeers(Object o) {
         TraversalObj traversalObj = new TraversalObj();
         traversalObj.data = o;
-        traversalObj.visited = new LinkedList<>();
-        traversalObj.globalSource = Ipv4Local;
-        traversalObj.type = "FORWARD";
-        traversalObj.callbackSubject = Ipv4Local;
-        traversalObj.timeStamp = time;
-        handleObjData(traversalObj);
+        traversalObj.globalSource = localId;
+        traversalObj.type = broadcastMode == BroadcastMode.TREE ? "TREE" : "FORWARD";
+        traversalObj.callbackSubject = localId;
+        traversalObj.id = nextBroadcastId();
+        traversalObj.budgetMillis = (int) Math.min(Integer.MAX_VALUE, traversalDeadline);
+        long startedAt = System.nanoTime();
+        CompletableFuture<TraversalState> completion = recursiveTraversal(traversalObj);
+        if (completion == null) {
+            completion = new CompletableFuture<>();
+            completion.completeExceptionally(new IllegalStateException("Broadcast " + traversalObj.id + " was already started."));
+            return completion;
+        }
+        return completion.thenApply(state -> {
+            broadcastLatency.recordSince(startedAt);
+            broadcastMessages.add(state.messagesSent.get());
+            if (state.partial) partialTraversals.increment();
+            return state;
+        });
     }
 
     /**
-     * Used to increase the currentNumberOfCallbacks by 1.
-     *  @param reference Reference to the callback Map.
-     * @param key       Key of desired callback counter.
+     * @return Returns the id of a new broadcast started by this peer.
      */
-    private void updateCallbackCounter(AtomicReference<Map<String, ArrayList<Integer>>> reference, String key, int index) {
-        Map<String, ArrayList<Integer>> before, after = new HashMap<>();
-        do {
-            before = reference.get();
-            after.putAll(before);
-            after.get(key).set(0, after.get(key).get(index) + 1);
-        } while (!reference.compareAndSet(before, after));
+    private synchronized BroadcastId nextBroadcastId() {
+        if (broadcastIds == null) broadcastIds = new BroadcastId.Generator(localId);
+        return broadcastIds.next();
     }
 
     /**
-     * Initialize atomic counter to empty Table and ArrayList filled with 2 zeros. First index for Max callbacks and the second for current number of callbacks.
+     * Used by the Server to drop duplicate forwards (flood and tree) before their body is decoded. Only ids the seen
+     * cache reports are confirmed in the traversal store, so the Bloom filters never make the peer ignore a new
+     * broadcast. The store also remembers traversals that already expired, so a late duplicate is neither handled
+     * again nor counted as a false positive.
      *
-     * @param reference Reference to callback Map.
-     * @param key       Key of desired callback counter.
+     * @param id   Id of the broadcast.
+     * @param type Type of the traversal message.
+     * @return Returns whether the message is a forward of a broadcast this peer already handled.
+     */
+    private boolean isDuplicateForward(BroadcastId id, String type) {
+        if (!"FORWARD".equals(type) && !"TREE".equals(type)) return false;
+        if (!seenCache.mightContain(id)) return false;
+        if (traversals.isKnown(id)) return true;
+        seenCache.reportFalsePositive();
+        return false;
+    }
+
+    /**
+     * @return Returns a snapshot of every metric of this peer.
      */
-    private void initCounterAtomically(AtomicReference<Map<String, ArrayList<Integer>>> reference, String key) {
-        Map<String, ArrayList<Integer>> before, after = new HashMap<>();
-        do {
-            before = reference.get();
-            after.putAll(before);
-            after.put(key, new ArrayList<>(Collections.nCopies(2, 0)));
-        } while (!reference.compareAndSet(before, after));
+    String stats() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * @param name Name of a counter. (See stats)
+     * @return Returns the current value of the counter.
+     */
+    long counter(String name) {
+        return metrics.counter(name).get();
+    }
+
+    /**
+     * @return Returns a description of the duplicate suppression cache.
+     */
+    String seenCacheStats() {
+        return seenCache.toString();
     }
 
     /**
@@ -223,147 +1118,346 @@ class Peer {
         if (o instanceof SerializableText) {
             handleTextData((SerializableText) o);
         } else if (o instanceof TraversalObj) {
+            if (((TraversalObj) o).type.equals("FORWARD")) forwardsReceived.increment();
             recursiveTraversal((TraversalObj) o);
         } else if (o instanceof PollingMessage) {
             handlePollingData((PollingMessage) o);
+        } else if (o instanceof TopologyDelta) {
+            handleTopologyDelta((TopologyDelta) o);
+        } else if (o instanceof TopicMessage) {
+            handleTopicMessage((TopicMessage) o);
+        } else if (o instanceof SubscriptionDelta) {
+            handleSubscriptionDelta((SubscriptionDelta) o);
+        } else if (o instanceof RoutedMessage) {
+            handleRoutedMessage((RoutedMessage) o);
+        } else if (o instanceof RpcRequest) {
+            rpc.handleRequest((RpcRequest) o);
+        } else if (o instanceof RpcResponse) {
+            rpc.handleResponse((RpcResponse) o);
+        } else if (o instanceof Heartbeat) {
+            handleHeartbeat((Heartbeat) o);
+        } else if (o instanceof Credit) {
+            handleCredit((Credit) o);
+        } else if (o instanceof Hello) {
+            handleHello((Hello) o);
         } else {
-            System.out.println("Received an unrecognizable object.");
+            Log.warn("Received an unrecognizable object.");
         }
     }
 
+    /**
+     * Handles a poll that did not arrive through a traversal. (Only logged, there is nobody to answer to)
+     *
+     * @param pollingObj Poll received.
+     */
     private void handlePollingData(PollingMessage pollingObj) {
-        if (pollingObj.pollResults.containsKey(Ipv4Local)) {
-            System.out.println("||ERROR OCCURRED|| FOUND KEY TWICE IN POLLING MESSAGE");
-            return;
-        }
-        pollingObj.pollResults.put(Ipv4Local, (new Random()).nextBoolean());
+        Log.warn("Received a poll outside of a traversal: {}", pollingObj);
+    }
 
-        /* TODO REMOVE THE BLOCK BELOW */
-        System.out.println("|| POLLING MAP ||");
-        pollingObj.pollResults.forEach((key, value) -> System.out.println(key + " : " + value));
-        System.out.println("-----------------");
+    /**
+     * Votes on a poll that reached this peer.
+     *
+     * @param pollingObj The poll as forwarded by the parent peer. (Aggregates without votes)
+     * @return Returns the partial result of this peer, holding only its own vote so far.
+     */
+    private PollingMessage castVote(PollingMessage pollingObj) {
+        PollingMessage pollResult = pollingObj.emptyCopy();
+        pollResult.vote(localId, vote());
+        return pollResult;
     }
 
-    Map<String, Boolean> startPollingMessage() {
-        LocalTime time = LocalTime.now(Clock.systemUTC());
-        sendToAllPeers(new PollingMessage(), time);
-        return new HashMap<>(Shared.pollingResults.get().get(time.toString()));
+    /**
+     * @return Returns the vote of this peer. (1 for yes, 0 for no)
+     */
+    private long vote() {
+        return ThreadLocalRandom.current().nextBoolean() ? 1 : 0;
     }
 
     /**
-     * Implementation of a peer traversal algorithm.
+     * Starts a poll of every peer in the network.
      *
-     * @param traversalObj An object which contains all required data to continue recursion.
+     * @return Returns a future of the merged result of every vote.
      */
-    private void recursiveTraversal(TraversalObj traversalObj) {
-        if (checkBaseCase(traversalObj)) return;
-        handleObjData(traversalObj.data);
-        traversalObj.visited.add(Ipv4Local);
-        String timeStamp = traversalObj.timeStamp.toString();
+    CompletableFuture<PollingMessage> startPollingMessage() {
+        long startedAt = System.nanoTime();
+        return sendToAllPeers(PollingMessage.standard()).thenApply(state -> {
+            pollRoundTrip.recordSince(startedAt);
+            state.pollResult.partial = state.partial;
+            return state.pollResult;
+        });
+    }
 
-        initCounterAtomically(Peer.Shared.callBackCounter, timeStamp);
-        Shared.numTraversalMessage.put(timeStamp, 0);
+    /**
+     * Implementation of a peer traversal algorithm. Forwards the object to every adjacent peer it did not visit yet and returns
+     * right away; the callback to the parent peer is sent by whichever thread delivers the last child callback.
+     *
+     * @param traversalObj An object which contains all required data to continue recursion.
+     * @return Returns the completion of the traversal on this peer, or null if the object did not start a new one.
+     */
+    private CompletableFuture<TraversalState> recursiveTraversal(TraversalObj traversalObj) {
+        long receivedAt = System.nanoTime();
+        TraversalState state = new TraversalState();
+        if (checkBaseCase(traversalObj, state)) return null;
+        String parent = traversalObj.globalSource.equals(localId) ? null : traversalObj.callbackSubject;
+        if (traversalObj.data instanceof PollingMessage) {
+            state.pollResult = castVote((PollingMessage) traversalObj.data);
+        } else if (traversalObj.data instanceof FileOffer) {
+            if (parent != null) downloadFromParent((FileOffer) traversalObj.data, parent);
+        } else if (logDelivery(traversalObj)) {
+            handleObjData(traversalObj.data);
+        }
+        state.treeEpoch = spanningTrees.epoch();
+        Collection<Connection> targets = treeTargets(traversalObj, parent);
+        state.treeMode = targets != null;
+        PeerGraphData.PeerIndex peerIndex = topology.peerIndex();
+        VisitedSet visited = visitedSet(traversalObj, parent, peerIndex);
+        if (targets == null) {
+            /* Every neighbour but the parent and the peers the broadcast went through. The set is exact, so no
+             * neighbour is skipped that does not have the broadcast; others that have it answer with an invalid callback. */
+            targets = new ArrayList<>();
+            for (Connection connection : connections.values()) {
+                if (connection.suspected || connection.peerId.equals(parent)) continue;
+                if (!visited.contains(peerIndex.position(connection.peerId))) targets.add(connection);
+            }
+        }
 
         TraversalObj sendingData = new TraversalObj();
         sendingData.equals(traversalObj);
-        sendingData.callbackSubject = Ipv4Local;
+        sendingData.callbackSubject = localId;
+        sendingData.type = state.treeMode ? "TREE" : "FORWARD";
+        sendingData.visited = visited;
+        /* Children get less time than this peer, so their partial answers still arrive before its own deadline. The
+         * margin is fixed per hop, not a share of the budget, so deep networks do not run out of time geometrically;
+         * a budget is never cut to 0, which would mean no deadline at all. */
+        if (traversalObj.budgetMillis > 0) sendingData.budgetMillis = Math.max(1, traversalObj.budgetMillis - HOP_MARGIN_MS);
 
-        connections.values().stream().filter(connection -> !traversalObj.visited.contains(connection.ip)).forEach(connection -> {
-            updateCallbackCounter(Shared.callBackCounter, timeStamp, 0);
-            Shared.numTraversalMessage.put(timeStamp, Shared.numTraversalMessage.get(timeStamp) + 1);
-            Shared.threadManager.submit(() -> sendObject(sendingData, connection.ip));
+        Metrics.Counter messageCounter = state.treeMode ? treeMessages : floodMessages;
+        long retryUntil = retryUntil(traversalObj);
+        targets.forEach(connection -> {
+            state.expectCallback(connection.peerId);
+            state.messagesSent.incrementAndGet();
+            messageCounter.increment();
+            forwardToChild(state, connection, sendingData, retryUntil);
         });
+        if (traversalObj.budgetMillis > 0) {
+            ScheduledFuture<?> deadline = Shared.scheduler.schedule(state::deadlinePassed, traversalObj.budgetMillis, TimeUnit.MILLISECONDS);
+            state.completion.whenComplete((completed, e) -> deadline.cancel(false));
+        }
+        if (Log.enabled(Log.Level.DEBUG)) Log.debug("Expected callbacks: {} ({})", state.getExpectedCallbacks(), traversalObj.id);
+        long forwardedAt = System.nanoTime();
+        fanOut.recordNanos(forwardedAt - receivedAt);
 
-        waitForCallbacks(timeStamp);
-        if (traversalObj.globalSource.equals(Ipv4Local)) {
-            System.out.println("CONFIRMATION: DATA REACHED ALL NODES");
-            System.out.println("NUMBER OF MESSAGES SENT: " + Shared.numTraversalMessage.get(timeStamp));
-            if (traversalObj.data instanceof PollingMessage) {
-                atomicallyUpdatePollResults(Shared.pollingResults, timeStamp, Shared.listCallbacks.get().get(timeStamp));
+        CompletableFuture<TraversalState> done = state.completion.thenApply(completed -> {
+            fanIn.recordSince(forwardedAt);
+            if (Log.enabled(Log.Level.DEBUG)) Log.debug("Got all callbacks: {} ({})", completed.getReceivedCallbacks(), traversalObj.id);
+            /* A tree learned from a partial answer would leave the missing subtrees out of every later broadcast. */
+            if (!completed.treeMode && !completed.partial) {
+                spanningTrees.learn(traversalObj.globalSource, parent, completed.children, completed.treeEpoch);
             }
-            return;
-        }
-        traversalObj.type = "CALLBACK";
-        sendObject(traversalObj, traversalObj.callbackSubject);
-        Shared.numTraversalMessage.put(timeStamp, Shared.numTraversalMessage.get(timeStamp) + 1);
+            if (traversalObj.globalSource.equals(localId)) {
+                if (completed.partial) {
+                    Log.warn("DEADLINE OR FAILURE: DATA REACHED ONLY PART OF THE NETWORK ({} messages sent)", completed.messagesSent.get());
+                } else {
+                    Log.info("CONFIRMATION: DATA REACHED ALL NODES ({} messages sent)", completed.messagesSent.get());
+                }
+                return completed;
+            }
+            traversalObj.type = "CALLBACK";
+            /* Like invalid callbacks, valid ones name their sender, so the parent learns its children. */
+            traversalObj.callbackSubject = localId;
+            traversalObj.partial = completed.partial;
+            /* The parent does not forward the answer, so it does not need the path. */
+            traversalObj.visited = VisitedSet.empty();
+            /* A poll answers with the merged result of the whole subtree instead of the poll it received. */
+            if (completed.pollResult != null) traversalObj.data = completed.pollResult;
+            sendTraversal(parent, traversalObj, retryUntil(traversalObj));
+            completed.messagesSent.incrementAndGet();
+            messageCounter.increment();
+            return completed;
+        });
+        state.forwardingDone();
+        return done;
+    }
+
+    /**
+     * Adds this peer and its parent to the visited set of a traversal. The positions of a received set are only used
+     * if it was built from the same peer index as this peer has; otherwise the path so far is unknown here, and the
+     * set starts again from the parent.
+     *
+     * @param traversalObj Traversal received or started.
+     * @param parent       Id of the parent peer, or null if this peer started the traversal.
+     * @param peerIndex    Peer index of the topology map.
+     * @return Returns the visited set to forward.
+     */
+    private VisitedSet visitedSet(TraversalObj traversalObj, String parent, PeerGraphData.PeerIndex peerIndex) {
+        VisitedSet visited = traversalObj.visited.fingerprint() == peerIndex.fingerprint
+                ? traversalObj.visited.copy() : new VisitedSet(peerIndex.fingerprint, peerIndex.size());
+        if (parent != null) visited.add(peerIndex.position(parent));
+        visited.add(peerIndex.position(localId));
+        return visited;
     }
 
     /**
-     * Waits to receive all callbacks from adjacent peers.
+     * Forwards a traversal to one child. Only a connection that was lost counts the child as lost, and only then are
+     * the spanning trees learned so far dropped; a child that is merely slow gets the forward late. (See sendTraversal)
      *
-     * @param timeStamp The time at which the parent node started search. (Used to keep track of which messages was already received)
+     * @param state       State of the traversal.
+     * @param connection  Connection to the child.
+     * @param sendingData Traversal object to forward.
+     * @param retryUntil  Time after which a forward that could not be queued is given up.
+     */
+    private void forwardToChild(TraversalState state, Connection connection, TraversalObj sendingData, long retryUntil) {
+        sendTraversal(connection.peerId, sendingData, retryUntil).whenComplete((written, e) -> {
+            if (e == null || e instanceof Connection.QueueFullException) return;
+            state.childLost(connection.peerId);
+            connectionChanged();
+        });
+    }
+
+    /**
+     * @param traversalObj Traversal received or started.
+     * @return Returns the time until which messages of the traversal are worth sending: its deadline, or the time after
+     * which peers abandon it if it has none.
      */
-    private void waitForCallbacks(String timeStamp) {
-        System.out.println("Expected Callbacks: " + Peer.Shared.callBackCounter.get().get(timeStamp).get(0));
-        Map<String, ArrayList<Integer>> tempCount;
-        do {
-            tempCount = Peer.Shared.callBackCounter.get();
-        } while (tempCount.get(timeStamp).get(1) < tempCount.get(timeStamp).get(0));
-        System.out.println("GOT ALL CALLBACKS! " + Peer.Shared.callBackCounter.get().get(timeStamp).get(1));
+    private long retryUntil(TraversalObj traversalObj) {
+        return System.currentTimeMillis() + (traversalObj.budgetMillis > 0 ? traversalObj.budgetMillis : traversalTtl);
     }
 
     /**
-     * Used to check base case for recursion.
+     * Sends a message of a traversal to an adjacent peer. A full send queue means the peer is behind, not gone, so the
+     * message is queued again after SEND_RETRY_MS instead of failing, until it goes out or retryUntil passes.
      *
-     * @param data An object which contains all required data to continue recursion.
-     * @return Returns whether the Peer should continue recursion.
+     * @param peerId     Id of the peer.
+     * @param o          Message to send.
+     * @param retryUntil Time after which the message is given up if it still could not be queued.
+     * @return Returns a future that completes once the message was written, or fails with the last error.
      */
-    private boolean checkBaseCase(TraversalObj data) {
-        if (Peer.Shared.callBackCounter.get().containsKey(data.timeStamp.toString())) {
-            if (data.type.startsWith("CALLBACK")) {
-                updateCallbackCounter(Shared.callBackCounter, data.timeStamp.toString(), 1);
-                atomicallyUpdateCallbackList(Shared.listCallbacks, data.timeStamp.toString(), data.data);
-                return true;
+    private CompletableFuture<Void> sendTraversal(String peerId, Object o, long retryUntil) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        sendObject(o, peerId).whenComplete((sent, e) -> {
+            if (e instanceof Connection.QueueFullException && Shared.running && System.currentTimeMillis() < retryUntil) {
+                traversalSendRetries.increment();
+                Shared.scheduler.schedule(() -> Shared.threadManager.execute(() -> sendTraversal(peerId, o, retryUntil).whenComplete((retried, retryError) -> {
+                    if (retryError == null) written.complete(null);
+                    else written.completeExceptionally(retryError);
+                })), SEND_RETRY_MS, TimeUnit.MILLISECONDS);
+            } else if (e != null) {
+                written.completeExceptionally(e);
+            } else {
+                written.complete(null);
             }
-            data.visited.add(Ipv4Local);
-            data.type = "CALLBACKINVALID";
-            sendObject(data, data.callbackSubject);
-            Shared.numTraversalMessage.put(data.timeStamp.toString(), Shared.numTraversalMessage.get(data.timeStamp.toString()) + 1);
+        });
+        return written;
+    }
+
+    /**
+     * Appends a broadcast to the log of delivered broadcasts before it is handled.
+     *
+     * @param traversalObj The traversal that reached this peer.
+     * @return Returns whether the broadcast is to be handled, false if it was already delivered while catching up.
+     */
+    private boolean logDelivery(TraversalObj traversalObj) {
+        if (history == null) return true;
+        try {
+            return history.append(traversalObj.id, traversalObj.data) >= 0;
+        } catch (IOException e) {
+            Log.error("Could not log broadcast {}.", traversalObj.id, e);
             return true;
         }
-        return false;
     }
 
     /**
-     * Handles received text data. (Logs the text message)
+     * Downloads a file that was offered through a broadcast.
      *
-     * @param text The text received.
+     * @param offer  Offer of the file.
+     * @param parent Peer the broadcast came from.
      */
-    
-    private void handleTextData(SerializableText text) {
-        System.out.println(text.text + " (" + text.timeStamp.toString() + ")(" + text.source + ")");
+    private void downloadFromParent(FileOffer offer, String parent) {
+        fileTransfers.download(offer, parent).whenComplete((summary, e) -> {
+            if (e != null) Log.warn("Could not download {}: {}", offer, e.getMessage());
+        });
     }
 
-    private void atomicallyUpdateCallbackList(AtomicReference<Map<String, LinkedList<Object>>> reference, String key, Object o) {
-        Map<String, LinkedList<Object>> before, after = new HashMap<>();
-        do {
-            before = reference.get();
-            after.putAll(before);
-            if (after.containsKey(key)) {
-                after.get(key).add(o);
-            } else {
-                after.put(key, new LinkedList<>(Collections.nCopies(1, o)));
-            }
-        } while (!reference.compareAndSet(before, after));
+    /**
+     * Picks the peers a tree broadcast is forwarded to.
+     *
+     * @param traversalObj The traversal that reached this peer.
+     * @param parent       Peer the traversal came from, or null on the origin.
+     * @return Returns the connections to the children of this peer in the spanning tree of the origin, or null if the
+     * traversal has to flood. (Not a tree broadcast, or the tree is unknown or outdated)
+     */
+    private Collection<Connection> treeTargets(TraversalObj traversalObj, String parent) {
+        if (!traversalObj.type.equals("TREE")) return null;
+        Set<String> children = spanningTrees.children(traversalObj.globalSource, parent);
+        if (children == null) return null;
+        ArrayList<Connection> targets = new ArrayList<>();
+        for (String child : children) {
+            Connection connection = connections.get(child);
+            if (connection == null || connection.suspected) return null;
+            targets.add(connection);
+        }
+        return targets;
     }
 
-    private void atomicallyUpdatePollResults(AtomicReference<Map<String, Map<String, Boolean>>> reference, String key, LinkedList<Object> newValue) {
-        Map<String, Map<String, Boolean>> before, after = new HashMap<>();
-        if (newValue.isEmpty()) {
-            return;
-        } else {
-            System.out.println("New Value Is Empty");
-        }
-        if (newValue.get(0) instanceof TraversalObj) {
-            do {
-                before = reference.get();
-                after.putAll(before);
-                for (Object newEntry : newValue) {
-                    after.put(key, ((PollingMessage) ((TraversalObj) newEntry).data).pollResults);
+    /**
+     * Used to check base case for recursion. Registers the state of the traversal if this is the first time this peer
+     * sees it.
+     *
+     * @param data  An object which contains all required data to continue recursion.
+     * @param state State to register for a new traversal.
+     * @return Returns whether the Peer should stop the recursion.
+     */
+    private boolean checkBaseCase(TraversalObj data, TraversalState state) {
+        if (data.type.startsWith("CALLBACK")) {
+            TraversalState existing = traversals.get(data.id);
+            if (existing == null) {
+                Log.debug("Received a callback for an unknown traversal. ({})", data.id);
+            } else if (existing.completion.isDone() || !existing.claimCallback(data.callbackSubject)) {
+                /* The traversal already gave up on this peer, its answer is no longer part of the result. */
+                Log.debug("Received a late callback from {}. ({})", data.callbackSubject, data.id);
+            } else {
+                if (data.partial) existing.partial = true;
+                if (data.type.equals("CALLBACK")) {
+                    existing.children.add(data.callbackSubject);
+                } else if (existing.treeMode) {
+                    spanningTrees.removeChild(data.globalSource, data.callbackSubject);
                 }
-            } while (!reference.compareAndSet(before, after));
-        } else {
-            System.out.println("Could not update poll results.");
+                if (data.type.equals("CALLBACK") && existing.pollResult != null && data.data instanceof PollingMessage) {
+                    if (!existing.pollResult.merge((PollingMessage) data.data)) {
+                        Log.warn("Received a poll result that does not match the poll. ({})", data.id);
+                    }
+                    existing.callbackReceived(null);
+                } else {
+                    existing.callbackReceived(data.type.equals("CALLBACK") ? data : null);
+                }
+            }
+            return true;
+        }
+        if (!data.bodySkipped && traversals.register(data.id, state)) {
+            seenCache.add(data.id);
+            return false;
         }
+        /* Already reached through another peer. The parent only needs to know, so the payload is not sent back. */
+        duplicateForwards.increment();
+        (data.type.equals("TREE") ? treeMessages : floodMessages).increment();
+        TraversalObj invalid = new TraversalObj();
+        invalid.id = data.id;
+        invalid.globalSource = data.globalSource;
+        invalid.callbackSubject = localId;
+        invalid.type = "CALLBACKINVALID";
+        sendTraversal(data.callbackSubject, invalid, retryUntil(data));
+        TraversalState existing = traversals.get(data.id);
+        if (existing != null) existing.messagesSent.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Handles received text data. (Prints the text message)
+     *
+     * @param text The text received.
+     */
+    private void handleTextData(SerializableText text) {
+        /* Delivered text is output of the peer, like the answers to commands, so it is shown whatever the log level. */
+        if (printText) System.out.println(text.text + " (" + text.timeStamp + ")(" + text.source + ")");
     }
 }
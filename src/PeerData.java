@@ -3,19 +3,72 @@
  * @project P2P-Network
  */
 
-import java.util.Map;
+import java.util.List;
 
 class PeerData {
-    Map<String, Integer> adjPeers;
+    static final long DEFAULT_STATS_INTERVAL_MS = 10 * 1000;
+    static final long DEFAULT_HEARTBEAT_MS = 500;
+    static final double DEFAULT_PHI_THRESHOLD = 8;
+    static final long DEFAULT_TRAVERSAL_DEADLINE_MS = 30 * 1000;
+    static final long DEFAULT_BOOTSTRAP_TIMEOUT_MS = 30 * 1000;
+
+    /* Ids of the adjacent peers. (node:port) */
+    List<String> adjPeers;
     int serverPort;
+    /* Transport to the adjacent peers. Sockets (TcpTransport) when null. */
+    Transport transport = null;
+    Server.InboundMode inboundMode = Server.InboundMode.BLOCKING;
+    int eventLoops = 1;
+    WireCodec.Type codec = WireCodec.Type.BINARY;
+    long traversalTtl = TraversalStore.DEFAULT_ACTIVE_TTL_MS;
+    int maxTraversals = TraversalStore.DEFAULT_MAX_TRAVERSALS;
+    int sendQueue = Connection.DEFAULT_SEND_QUEUE;
+    PeerExecutors.Mode executorMode = PeerExecutors.Mode.CACHED;
+    int maxHandlers = 0;
+    /* Address the peer binds to and identifies itself with, together with the server port. Detected automatically
+     * when null. */
+    String host = null;
+    /* File the metrics are appended to periodically. Disabled when null. */
+    String statsFile = null;
+    long statsInterval = DEFAULT_STATS_INTERVAL_MS;
+    Peer.BroadcastMode broadcastMode = Peer.BroadcastMode.FLOOD;
+    long rpcTimeout = RpcEndpoint.DEFAULT_TIMEOUT_MS;
+    long heartbeatMillis = DEFAULT_HEARTBEAT_MS;
+    /* Suspicion level above which an adjacent peer is treated as failed. */
+    double phiThreshold = DEFAULT_PHI_THRESHOLD;
+    /* Time a broadcast or poll may take before it completes with the answers it has. (No deadline when 0) */
+    long traversalDeadline = DEFAULT_TRAVERSAL_DEADLINE_MS;
+    /* Time startPeer waits for the adjacent peers before it returns. Unreachable ones keep being dialed. */
+    long bootstrapTimeout = DEFAULT_BOOTSTRAP_TIMEOUT_MS;
+    /* Frames a sender may have outstanding per connection before it waits for credits. (No flow control when 0) */
+    int inboundWindow = Connection.DEFAULT_CREDIT_WINDOW;
+    Server.ShedPolicy shedPolicy = Server.ShedPolicy.NONE;
+    /* Directory files downloaded from other peers are written to. */
+    String fileDirectory = FileTransfers.DEFAULT_DIRECTORY;
+    int fileChunkSize = FileTransfers.DEFAULT_CHUNK_SIZE;
+    /* Whether this peer asks its neighbours to compress the large frames they send to it. */
+    CompressingCodec.Mode compression = CompressingCodec.Mode.NONE;
+    int compressionThreshold = CompressingCodec.DEFAULT_THRESHOLD;
+    /* Level of the log, which every peer of the process shares. */
+    Log.Level logLevel = Log.Level.INFO;
+    /* Whether delivered text is printed to the console. (Off for benchmarks and simulations, which deliver plenty) */
+    boolean printText = true;
+    /* Directory of the log of delivered broadcasts. (No log when null) */
+    String historyDirectory = null;
+    int historySegmentBytes = BroadcastLog.DEFAULT_SEGMENT_BYTES;
+    long historyRetentionBytes = BroadcastLog.DEFAULT_RETENTION_BYTES;
+    long historyRetentionMillis = BroadcastLog.DEFAULT_RETENTION_MS;
+    /* Time between two comparisons of the broadcast log with a random neighbour. (No repair when 0) */
+    long antiEntropyMillis = AntiEntropy.DEFAULT_INTERVAL_MS;
+    long antiEntropyWindow = AntiEntropy.DEFAULT_WINDOW_MS;
 
     /**
      * Holds all the required data to start a peer.
      *
-     * @param _adjPeers   List of adjacent peers to connect to. Map IP address, Port Number
+     * @param _adjPeers   List of adjacent peers to connect to, as node:port.
      * @param _serverPort The port number at which the serverSocket will start at.
      */
-    PeerData(Map<String, Integer> _adjPeers, int _serverPort) {
+    PeerData(List<String> _adjPeers, int _serverPort) {
         adjPeers = _adjPeers;
         serverPort = _serverPort;
     }
@@ -0,0 +1,122 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PeerExecutors {
+
+    /**
+     * Threads used to run listeners, message handlers and traversal hops.
+     */
+    enum Mode {
+        /* Platform threads from a cached thread pool. */
+        CACHED,
+        /* One virtual thread per task. (Needs a Java 21 runtime, falls back to CACHED otherwise) */
+        VIRTUAL
+    }
+
+    private PeerExecutors() {
+    }
+
+    /**
+     * Creates the executor of a peer.
+     *
+     * @param mode Kind of threads to run tasks on.
+     * @return Returns the executor.
+     */
+    static ExecutorService create(Mode mode) {
+        if (mode == Mode.VIRTUAL) {
+            try {
+                /* Looked up reflectively so the project still builds and runs on older JDKs. */
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Log.warn("Virtual threads are not available on this JVM, using a cached thread pool.");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Limits how many tasks of an executor run at the same time. Submitting never blocks: tasks over the limit wait
+     * in a queue and are started by the task that finishes before them.
+     *
+     * @param delegate       Executor that runs the tasks.
+     * @param maxConcurrency Maximum number of tasks running at once, or 0 for no limit.
+     * @return Returns the bounded executor, or the delegate itself if there is no limit.
+     */
+    static ExecutorService bounded(ExecutorService delegate, int maxConcurrency) {
+        return maxConcurrency <= 0 ? delegate : new BoundedExecutor(delegate, maxConcurrency);
+    }
+
+    private static class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final int maxConcurrency;
+        private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger running = new AtomicInteger();
+
+        BoundedExecutor(ExecutorService _delegate, int _maxConcurrency) {
+            delegate = _delegate;
+            maxConcurrency = _maxConcurrency;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            waiting.add(task);
+            startWaitingTasks();
+        }
+
+        private void startWaitingTasks() {
+            while (!waiting.isEmpty()) {
+                int current = running.get();
+                if (current >= maxConcurrency) return;
+                if (!running.compareAndSet(current, current + 1)) continue;
+                Runnable task = waiting.poll();
+                if (task == null) {
+                    running.decrementAndGet();
+                    continue;
+                }
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        startWaitingTasks();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            waiting.clear();
+            delegate.shutdownNow();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -1,20 +1,200 @@
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.*;
 
 /**
  * @author varun on 6/23/2018
  * @project P2P-Network
  */
-public class PeerGraphData implements Serializable {
-    private static final long serialVersionUID = -5395214196729013092L;
+public class PeerGraphData {
+    private final String self;
+    private final Map<String, TopologyDelta.NodeRecord> localGraphData = new HashMap<>();
+    private long nextSequence;
+    private long version = 0;
+    /* Breadth-first search from this peer, cached until the graph changes. */
+    private long searchedVersion = -1;
+    private final Map<String, String> previousHop = new HashMap<>();
+    private final Map<String, String> nextHop = new HashMap<>();
+    private final ArrayList<String> reachable = new ArrayList<>();
+    /* Records are never removed, so the index only has to be rebuilt when their number changes. */
+    private PeerIndex peerIndex = new PeerIndex(Collections.emptyList());
 
-    Map<String, LinkedList<String>> localGraphData = new HashMap<>();
+    /**
+     * Position of every peer of the map in the sorted list of their ids. Two peers that know the same peers have the
+     * same fingerprint, and then the same positions.
+     */
+    static final class PeerIndex {
+        final long fingerprint;
+        private final Map<String, Integer> positions = new HashMap<>();
 
-    void Combine(LinkedList<PeerGraphData> structureData) {
-        structureData.forEach(data -> localGraphData.putAll(data.localGraphData));
+        private PeerIndex(Collection<String> peerIds) {
+            ArrayList<String> sorted = new ArrayList<>(peerIds);
+            Collections.sort(sorted);
+            long hash = sorted.size();
+            for (String peerId : sorted) {
+                positions.put(peerId, positions.size());
+                hash = BroadcastId.mix(hash * 31 + BroadcastId.hashPeer(peerId));
+            }
+            /* 0 marks a set without index. */
+            fingerprint = hash == 0 ? 1 : hash;
+        }
+
+        /**
+         * @param peerId Id of a peer.
+         * @return Returns the position of the peer, or -1 if it is not in the index.
+         */
+        int position(String peerId) {
+            return positions.getOrDefault(peerId, -1);
+        }
+
+        int size() {
+            return positions.size();
+        }
+    }
+
+    /**
+     * Topology map of the network as seen by one peer. Holds the newest adjacency record of every peer it heard of,
+     * and answers queries (active peers, shortest paths) locally. An edge only counts when both of its peers list it,
+     * so peers that left the network drop out as soon as their neighbours publish their new adjacency.
+     *
+     * @param _self Id of this peer.
+     */
+    PeerGraphData(String _self) {
+        self = _self;
+        /* Outlives restarts of the peer, so records of an earlier run are always replaced. */
+        nextSequence = System.currentTimeMillis() * 1000;
     }
 
-    PeerGraphData() { }
+    /**
+     * Publishes the adjacency of this peer.
+     *
+     * @param neighbours Current adjacent peers.
+     * @return Returns the new record, or null if the adjacency did not change.
+     */
+    synchronized TopologyDelta.NodeRecord updateLocal(Collection<String> neighbours) {
+        TopologyDelta.NodeRecord current = localGraphData.get(self);
+        if (current != null && new HashSet<>(current.neighbours).equals(new HashSet<>(neighbours))) return null;
+        TopologyDelta.NodeRecord record = new TopologyDelta.NodeRecord(self, nextSequence++, neighbours);
+        localGraphData.put(self, record);
+        version++;
+        return record;
+    }
+
+    /**
+     * Merges the records of a delta into the map.
+     *
+     * @param records Received records.
+     * @return Returns the records that were newer than the known ones, and so have to be passed on.
+     */
+    synchronized List<TopologyDelta.NodeRecord> merge(List<TopologyDelta.NodeRecord> records) {
+        ArrayList<TopologyDelta.NodeRecord> applied = new ArrayList<>();
+        for (TopologyDelta.NodeRecord record : records) {
+            /* Only this peer may change its own record. */
+            if (record.node.equals(self)) continue;
+            TopologyDelta.NodeRecord current = localGraphData.get(record.node);
+            if (current != null && current.sequence >= record.sequence) continue;
+            localGraphData.put(record.node, record);
+            applied.add(record);
+        }
+        if (!applied.isEmpty()) version++;
+        return applied;
+    }
+
+    /**
+     * @return Returns every known record, to bring a newly connected peer up to date.
+     */
+    synchronized List<TopologyDelta.NodeRecord> snapshot() {
+        return new ArrayList<>(localGraphData.values());
+    }
+
+    /**
+     * @return Returns the number of changes applied to the map so far.
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * @return Returns the index of every peer in the map, for visited sets. (See VisitedSet)
+     */
+    synchronized PeerIndex peerIndex() {
+        if (peerIndex.size() != localGraphData.size()) peerIndex = new PeerIndex(localGraphData.keySet());
+        return peerIndex;
+    }
+
+    /**
+     * @return Returns every peer reachable from this one, in order of distance. (This peer excluded)
+     */
+    synchronized List<String> activePeers() {
+        search();
+        return new ArrayList<>(reachable);
+    }
+
+    /**
+     * @param destination Id of the destination peer.
+     * @return Returns the peers on a shortest path from this peer to the destination, both included, or null if the
+     * destination is not reachable.
+     */
+    synchronized List<String> shortestPath(String destination) {
+        search();
+        if (!destination.equals(self) && !previousHop.containsKey(destination)) return null;
+        LinkedList<String> path = new LinkedList<>();
+        for (String node = destination; node != null; node = previousHop.get(node)) {
+            path.addFirst(node);
+        }
+        return path;
+    }
+
+    /**
+     * Looks up the routing table derived from the map. (Link state: every peer computes its own shortest paths)
+     *
+     * @param destination Id of the destination peer.
+     * @return Returns the adjacent peer that starts a shortest path to the destination, or null if unreachable.
+     */
+    synchronized String nextHop(String destination) {
+        search();
+        return nextHop.get(destination);
+    }
+
+    /**
+     * @param random Source of randomness.
+     * @return Returns a random active peer, or null if no other peer is reachable.
+     */
+    synchronized String randomPeer(Random random) {
+        search();
+        return reachable.isEmpty() ? null : reachable.get(random.nextInt(reachable.size()));
+    }
+
+    /**
+     * Runs a breadth-first search from this peer over confirmed edges, unless the graph did not change since the last
+     * one. Fills the shortest path tree and the next hop of every reachable peer.
+     */
+    private void search() {
+        if (searchedVersion == version) return;
+        previousHop.clear();
+        nextHop.clear();
+        reachable.clear();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        queue.add(self);
+        while (!queue.isEmpty()) {
+            String node = queue.poll();
+            for (String neighbour : confirmedNeighbours(node)) {
+                if (neighbour.equals(self) || previousHop.containsKey(neighbour)) continue;
+                previousHop.put(neighbour, node);
+                nextHop.put(neighbour, node.equals(self) ? neighbour : nextHop.get(node));
+                reachable.add(neighbour);
+                queue.add(neighbour);
+            }
+        }
+        searchedVersion = version;
+    }
+
+    private List<String> confirmedNeighbours(String node) {
+        TopologyDelta.NodeRecord record = localGraphData.get(node);
+        if (record == null) return Collections.emptyList();
+        ArrayList<String> confirmed = new ArrayList<>();
+        for (String neighbour : record.neighbours) {
+            TopologyDelta.NodeRecord other = localGraphData.get(neighbour);
+            if (other != null && other.neighbours.contains(node)) confirmed.add(neighbour);
+        }
+        return confirmed;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+class PhiAccrualDetector {
+    private static final int WINDOW = 100;
+
+    private final long[] intervals = new long[WINDOW];
+    private final long minStdDevMillis;
+    private int numIntervals = 0;
+    private int nextInterval = 0;
+    private long sum = 0;
+    private long sumOfSquares = 0;
+    private long lastHeartbeat;
+    private boolean started = false;
+
+    /**
+     * Phi accrual failure detector. (Hayashibara et al.) Instead of a fixed timeout it keeps the distribution of the
+     * last heartbeat intervals and reports how unlikely the current silence is: phi = -log10(P(interval > silence)).
+     * A phi of 8 means the odds that the peer is still alive are about one in 10^8, whatever the link's usual jitter.
+     *
+     * Nothing is suspected before the first heartbeat, so a peer that is still starting up is not reported.
+     *
+     * @param expectedIntervalMillis Heartbeat interval, used until real intervals have been observed.
+     */
+    PhiAccrualDetector(long expectedIntervalMillis) {
+        minStdDevMillis = Math.max(1, expectedIntervalMillis / 4);
+        /* Bootstrap with two samples around the expected interval, so the first phi values are meaningful. */
+        record(expectedIntervalMillis - minStdDevMillis);
+        record(expectedIntervalMillis + minStdDevMillis);
+    }
+
+    /**
+     * Records a heartbeat.
+     *
+     * @param nowMillis Arrival time.
+     */
+    synchronized void heartbeat(long nowMillis) {
+        if (started) record(nowMillis - lastHeartbeat);
+        started = true;
+        lastHeartbeat = nowMillis;
+    }
+
+    /**
+     * @param nowMillis Current time.
+     * @return Returns the suspicion level of the peer. (0 right after a heartbeat, growing while it stays silent)
+     */
+    synchronized double phi(long nowMillis) {
+        if (!started) return 0;
+        double mean = (double) sum / numIntervals;
+        double variance = (double) sumOfSquares / numIntervals - mean * mean;
+        double stdDev = Math.max(minStdDevMillis, Math.sqrt(Math.max(0, variance)));
+        double y = (nowMillis - lastHeartbeat - mean) / stdDev;
+        /* Logistic approximation of the normal distribution's tail, as used by Cassandra and Akka. */
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (y > 0) return -Math.log10(e / (1.0 + e));
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    private void record(long interval) {
+        if (numIntervals == WINDOW) {
+            long dropped = intervals[nextInterval];
+            sum -= dropped;
+            sumOfSquares -= dropped * dropped;
+        } else {
+            numIntervals++;
+        }
+        intervals[nextInterval] = interval;
+        nextInterval = (nextInterval + 1) % WINDOW;
+        sum += interval;
+        sumOfSquares += interval * interval;
+    }
+}
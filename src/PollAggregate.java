@@ -0,0 +1,296 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+abstract class PollAggregate implements Serializable {
+    private static final long serialVersionUID = 3184727766104920731L;
+
+    static final int KIND_COUNT = 0;
+    static final int KIND_SUM = 1;
+    static final int KIND_MIN_MAX = 2;
+    static final int KIND_VOTERS = 3;
+
+    /**
+     * Partial result of a poll. Every peer adds its own vote to an empty aggregate and merges the aggregates returned
+     * by its children, so each callback carries one fixed-size summary of a whole subtree instead of every vote in it.
+     * Merging must be associative and commutative, since subtrees answer in any order. To add an aggregate, give it a
+     * kind and handle that kind in read().
+     */
+    PollAggregate() {
+    }
+
+    /**
+     * @return Returns the kind written on the wire.
+     */
+    abstract int kind();
+
+    /**
+     * Adds the vote of a single peer.
+     *
+     * @param voter Id of the peer.
+     * @param value Vote of the peer.
+     */
+    abstract void vote(String voter, long value);
+
+    /**
+     * Adds the partial result of another subtree. (One this aggregate matches)
+     *
+     * @param other Aggregate to merge into this one.
+     */
+    abstract void merge(PollAggregate other);
+
+    /**
+     * @param other Partial result of another subtree.
+     * @return Returns whether the other aggregate can be merged into this one: same kind and configuration.
+     */
+    boolean matches(PollAggregate other) {
+        return kind() == other.kind();
+    }
+
+    /**
+     * @return Returns an aggregate of the same kind and configuration, without any votes.
+     */
+    abstract PollAggregate emptyCopy();
+
+    /**
+     * Writes the state of the aggregate, without its kind.
+     */
+    abstract void writeState(WireBuffer out);
+
+    /**
+     * Writes the aggregate to a buffer.
+     *
+     * @param out Buffer to write to.
+     */
+    void write(WireBuffer out) {
+        out.writeByte(kind());
+        writeState(out);
+    }
+
+    /**
+     * Reads an aggregate written by write().
+     *
+     * @param in Buffer to read from.
+     * @return Returns the aggregate.
+     * @throws IOException If the kind is unknown or the state is malformed.
+     */
+    static PollAggregate read(WireBuffer in) throws IOException {
+        int kind = in.readByte();
+        switch (kind) {
+            case KIND_COUNT:
+                return new Count(in.readVarLong());
+            case KIND_SUM:
+                return new Sum(in.readLong());
+            case KIND_MIN_MAX:
+                return new MinMax(in.readLong(), in.readLong());
+            case KIND_VOTERS:
+                int length = in.readVarInt();
+                /* An empty bitmap has no bit to hash a voter to. */
+                if (length <= 0 || length > in.remaining() / 8) throw new IOException("Invalid voter bitmap length " + length);
+                long[] words = new long[length];
+                for (int i = 0; i < length; i++) words[i] = in.readLong();
+                return new Voters(words);
+            default:
+                throw new IOException("Unknown poll aggregate " + kind);
+        }
+    }
+
+    /**
+     * Number of votes.
+     */
+    static class Count extends PollAggregate {
+        private static final long serialVersionUID = -2905185271936503339L;
+        long count;
+
+        Count(long _count) {
+            count = _count;
+        }
+
+        int kind() {
+            return KIND_COUNT;
+        }
+
+        void vote(String voter, long value) {
+            count++;
+        }
+
+        void merge(PollAggregate other) {
+            count += ((Count) other).count;
+        }
+
+        PollAggregate emptyCopy() {
+            return new Count(0);
+        }
+
+        void writeState(WireBuffer out) {
+            out.writeVarLong(count);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count;
+        }
+    }
+
+    /**
+     * Sum of the votes. (The number of yes votes, for yes/no polls)
+     */
+    static class Sum extends PollAggregate {
+        private static final long serialVersionUID = 6634120487380520953L;
+        long sum;
+
+        Sum(long _sum) {
+            sum = _sum;
+        }
+
+        int kind() {
+            return KIND_SUM;
+        }
+
+        void vote(String voter, long value) {
+            sum += value;
+        }
+
+        void merge(PollAggregate other) {
+            sum += ((Sum) other).sum;
+        }
+
+        PollAggregate emptyCopy() {
+            return new Sum(0);
+        }
+
+        void writeState(WireBuffer out) {
+            out.writeLong(sum);
+        }
+
+        @Override
+        public String toString() {
+            return "sum=" + sum;
+        }
+    }
+
+    /**
+     * Smallest and largest vote. (Long.MAX_VALUE and Long.MIN_VALUE while empty)
+     */
+    static class MinMax extends PollAggregate {
+        private static final long serialVersionUID = -813650251874399260L;
+        long min;
+        long max;
+
+        MinMax(long _min, long _max) {
+            min = _min;
+            max = _max;
+        }
+
+        int kind() {
+            return KIND_MIN_MAX;
+        }
+
+        void vote(String voter, long value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        void merge(PollAggregate other) {
+            min = Math.min(min, ((MinMax) other).min);
+            max = Math.max(max, ((MinMax) other).max);
+        }
+
+        PollAggregate emptyCopy() {
+            return new MinMax(Long.MAX_VALUE, Long.MIN_VALUE);
+        }
+
+        void writeState(WireBuffer out) {
+            out.writeLong(min);
+            out.writeLong(max);
+        }
+
+        @Override
+        public String toString() {
+            return min > max ? "min=none max=none" : "min=" + min + " max=" + max;
+        }
+    }
+
+    /**
+     * Fixed-size bitmap of the hashed ids of the voters. Tells whether a peer (probably) voted, and estimates the
+     * number of distinct voters, which exposes a peer that was counted twice.
+     */
+    static class Voters extends PollAggregate {
+        static final int DEFAULT_BITS = 1024;
+        private static final long serialVersionUID = 4951301648214187032L;
+        private final long[] words;
+
+        Voters(long[] _words) {
+            words = _words;
+        }
+
+        int kind() {
+            return KIND_VOTERS;
+        }
+
+        void vote(String voter, long value) {
+            int bit = bitOf(voter);
+            words[bit >>> 6] |= 1L << bit;
+        }
+
+        void merge(PollAggregate other) {
+            long[] otherWords = ((Voters) other).words;
+            for (int i = 0; i < words.length; i++) words[i] |= otherWords[i];
+        }
+
+        /* Voters hash to a bit modulo the size of the bitmap, so bitmaps of another size cannot be combined. */
+        @Override
+        boolean matches(PollAggregate other) {
+            return super.matches(other) && ((Voters) other).words.length == words.length;
+        }
+
+        PollAggregate emptyCopy() {
+            return new Voters(new long[words.length]);
+        }
+
+        void writeState(WireBuffer out) {
+            out.writeVarInt(words.length);
+            for (long word : words) out.writeLong(word);
+        }
+
+        /**
+         * @param voter Id of the peer.
+         * @return Returns whether the peer may have voted. (False positives only)
+         */
+        boolean mightHaveVoted(String voter) {
+            int bit = bitOf(voter);
+            return (words[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        /**
+         * @return Returns the linear counting estimate of the number of distinct voters.
+         */
+        double estimatedVoters() {
+            long bits = (long) words.length * 64;
+            long zeros = bits;
+            for (long word : words) zeros -= Long.bitCount(word);
+            if (zeros == 0) return bits;
+            return -bits * Math.log((double) zeros / bits);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (words == null || words.length == 0) throw new InvalidObjectException("Empty voter bitmap");
+        }
+
+        private int bitOf(String voter) {
+            return (int) Math.floorMod(BroadcastId.hashPeer(voter), (long) words.length * 64);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("voters~%.1f", estimatedVoters());
+        }
+    }
+}
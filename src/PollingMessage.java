@@ -1,6 +1,5 @@
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
 
 /**
  * @author varun on 6/22/2018
@@ -9,7 +8,65 @@ import java.util.Map;
 public class PollingMessage implements Serializable {
     private static final long serialVersionUID = -4223473385165167047L;
 
-    Map<String, Boolean> pollResults = new HashMap<>();
+    ArrayList<PollAggregate> aggregates = new ArrayList<>();
+    /* Set on the result of a poll that some peers did not answer in time. */
+    transient boolean partial = false;
 
     public PollingMessage() { }
+
+    /**
+     * @return Returns an empty poll that counts the votes, sums them, tracks their range and records the voters.
+     */
+    static PollingMessage standard() {
+        PollingMessage poll = new PollingMessage();
+        poll.aggregates.add(new PollAggregate.Count(0));
+        poll.aggregates.add(new PollAggregate.Sum(0));
+        poll.aggregates.add(new PollAggregate.MinMax(Long.MAX_VALUE, Long.MIN_VALUE));
+        poll.aggregates.add(new PollAggregate.Voters(new long[PollAggregate.Voters.DEFAULT_BITS / 64]));
+        return poll;
+    }
+
+    /**
+     * @return Returns a poll with the same aggregates as this one, without any votes.
+     */
+    PollingMessage emptyCopy() {
+        PollingMessage poll = new PollingMessage();
+        aggregates.forEach(aggregate -> poll.aggregates.add(aggregate.emptyCopy()));
+        return poll;
+    }
+
+    /**
+     * Adds the vote of a single peer to every aggregate.
+     *
+     * @param voter Id of the peer.
+     * @param value Vote of the peer.
+     */
+    synchronized void vote(String voter, long value) {
+        aggregates.forEach(aggregate -> aggregate.vote(voter, value));
+    }
+
+    /**
+     * Merges the result of a subtree into this one.
+     *
+     * @param other Poll with the same aggregates, in the same order, of the same configuration.
+     * @return Returns whether the polls matched. (A poll that does not match is ignored)
+     */
+    synchronized boolean merge(PollingMessage other) {
+        if (other.aggregates.size() != aggregates.size()) return false;
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (!aggregates.get(i).matches(other.aggregates.get(i))) return false;
+        }
+        for (int i = 0; i < aggregates.size(); i++) {
+            aggregates.get(i).merge(other.aggregates.get(i));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder();
+        aggregates.forEach(aggregate -> result.append(result.length() == 0 ? "" : " ").append(aggregate));
+        if (partial) result.append(" (partial)");
+        return result.toString();
+    }
 }
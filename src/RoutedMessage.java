@@ -0,0 +1,32 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class RoutedMessage implements Serializable {
+    static final int DEFAULT_TTL = 64;
+    private static final long serialVersionUID = -6408305114683627190L;
+
+    String source;
+    String destination;
+    int ttl;
+    Object payload;
+
+    /**
+     * Unicast envelope for a peer that is not adjacent. Every peer on the way hands it to its next hop towards the
+     * destination, and the destination handles the payload as if it had been sent directly.
+     *
+     * @param _source      Id of the sending peer.
+     * @param _destination Id of the destination peer.
+     * @param _ttl         Maximum number of hops left, guards against loops while routing tables disagree.
+     * @param _payload     Object to deliver.
+     */
+    RoutedMessage(String _source, String _destination, int _ttl, Object _payload) {
+        source = _source;
+        destination = _destination;
+        ttl = _ttl;
+        payload = _payload;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+class RpcEndpoint {
+    static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    private final String localPeer;
+    private final BiFunction<Object, String, CompletableFuture<Void>> sender;
+    private final ConcurrentHashMap<String, Function<Object, Object>> handlers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Metrics.Histogram latency;
+    private final Metrics.Counter timeouts;
+
+    /**
+     * Request/response calls between peers. Every call gets a correlation id and waits in a table until its response
+     * arrives or its timeout fires, so any number of calls can be outstanding on the same connection and responses
+     * may arrive in any order.
+     *
+     * @param _localPeer Id of this peer.
+     * @param _sender    Sends an object to a peer. (Adjacent or routed)
+     * @param metrics    Registry of the peer.
+     */
+    RpcEndpoint(String _localPeer, BiFunction<Object, String, CompletableFuture<Void>> _sender, Metrics metrics) {
+        localPeer = _localPeer;
+        sender = _sender;
+        latency = metrics.histogram("rpc.latency");
+        timeouts = metrics.counter("rpc.timeouts");
+        metrics.gauge("rpc.pending", pendingCalls::size);
+    }
+
+    /**
+     * Registers the handler of a method. A handler may return a CompletionStage to answer asynchronously.
+     *
+     * @param method       Name of the method.
+     * @param argumentType Type of the argument, calls with any other argument fail.
+     * @param handler      Handler of the calls.
+     * @param <A>          Argument type.
+     */
+    <A> void register(String method, Class<A> argumentType, Function<A, ?> handler) {
+        handlers.put(method, argument -> {
+            if (argument != null && !argumentType.isInstance(argument)) {
+                throw new IllegalArgumentException(method + " expects " + argumentType.getSimpleName() + ", got " + argument.getClass().getSimpleName());
+            }
+            return handler.apply(argumentType.cast(argument));
+        });
+    }
+
+    /**
+     * Calls a method on another peer.
+     *
+     * @param peer          Id of the peer.
+     * @param method        Name of the method.
+     * @param argument      Argument of the method.
+     * @param resultType    Expected type of the result.
+     * @param timeoutMillis Time after which the call fails with a TimeoutException.
+     * @param <R>           Result type.
+     * @return Returns a future of the result.
+     */
+    <R> CompletableFuture<R> call(String peer, String method, Object argument, Class<R> resultType, long timeoutMillis) {
+        long id = nextId.incrementAndGet();
+        PendingCall pendingCall = new PendingCall();
+        pendingCalls.put(id, pendingCall);
+        pendingCall.timeout = Peer.Shared.scheduler.schedule(() -> {
+            if (pendingCalls.remove(id) != null) {
+                timeouts.increment();
+                pendingCall.result.completeExceptionally(new TimeoutException(method + " on " + peer + " timed out."));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        sender.apply(new RpcRequest(id, localPeer, method, argument), peer).whenComplete((written, e) -> {
+            if (e != null && pendingCalls.remove(id) != null) {
+                pendingCall.timeout.cancel(false);
+                pendingCall.result.completeExceptionally(e);
+            }
+        });
+        return pendingCall.result.thenApply(resultType::cast);
+    }
+
+    /**
+     * Runs the handler of a request and sends its result back to the caller.
+     *
+     * @param request Request received.
+     */
+    void handleRequest(RpcRequest request) {
+        Function<Object, Object> handler = handlers.get(request.method);
+        if (handler == null) {
+            respond(request, null, new IllegalArgumentException("Unknown method " + request.method));
+            return;
+        }
+        Object result;
+        try {
+            result = handler.apply(request.argument);
+        } catch (RuntimeException e) {
+            respond(request, null, e);
+            return;
+        }
+        if (result instanceof CompletionStage) {
+            ((CompletionStage<?>) result).whenComplete((value, e) -> respond(request, value, e));
+        } else {
+            respond(request, result, null);
+        }
+    }
+
+    private void respond(RpcRequest request, Object result, Throwable error) {
+        RpcResponse response = new RpcResponse(request.id, error == null ? result : null, error == null ? null : String.valueOf(error));
+        sender.apply(response, request.source).whenComplete((written, e) -> {
+            if (e != null) Log.warn("Could not answer {} of {}: {}", request.method, request.source, e.getMessage());
+        });
+    }
+
+    /**
+     * Completes the call a response belongs to. Responses of calls that already timed out are ignored.
+     *
+     * @param response Response received.
+     */
+    void handleResponse(RpcResponse response) {
+        PendingCall pendingCall = pendingCalls.remove(response.id);
+        if (pendingCall == null) return;
+        pendingCall.timeout.cancel(false);
+        latency.recordSince(pendingCall.startedAt);
+        if (response.error != null) {
+            pendingCall.result.completeExceptionally(new RemoteException(response.error));
+        } else {
+            pendingCall.result.complete(response.result);
+        }
+    }
+
+    /**
+     * Failure reported by the handler on the remote peer.
+     */
+    static class RemoteException extends Exception {
+        private static final long serialVersionUID = 8819546373325960734L;
+
+        RemoteException(String message) {
+            super(message);
+        }
+    }
+
+    private static class PendingCall {
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private final long startedAt = System.nanoTime();
+        private volatile ScheduledFuture<?> timeout;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class RpcRequest implements Serializable {
+    private static final long serialVersionUID = 5214480993637254127L;
+
+    long id;
+    String source;
+    String method;
+    Object argument;
+
+    /**
+     * Call of a request handler on another peer.
+     *
+     * @param _id       Correlation id, unique among the calls of the source peer.
+     * @param _source   Id of the calling peer, where the response is sent to.
+     * @param _method   Name of the request handler.
+     * @param _argument Argument of the handler.
+     */
+    RpcRequest(long _id, String _source, String _method, Object _argument) {
+        id = _id;
+        source = _source;
+        method = _method;
+        argument = _argument;
+    }
+}
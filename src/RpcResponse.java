@@ -0,0 +1,27 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class RpcResponse implements Serializable {
+    private static final long serialVersionUID = -3190417734268561902L;
+
+    long id;
+    Object result;
+    String error;
+
+    /**
+     * Answer to an RpcRequest.
+     *
+     * @param _id     Correlation id of the request.
+     * @param _result Value returned by the handler.
+     * @param _error  Description of the failure, or null if the handler succeeded.
+     */
+    RpcResponse(long _id, Object _result, String _error) {
+        id = _id;
+        result = _result;
+        error = _error;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class SeenCache {
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final int NUM_HASHES = 4;
+    private static final int BITS_PER_ENTRY = 12;
+
+    private final int capacity;
+    private final int numBits;
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private final AtomicLong currentCount = new AtomicLong();
+    private volatile long previousCount = 0;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong positives = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * Fixed-memory "recently seen" set of broadcast ids made of two rotating Bloom filters. Ids are added to the
+     * current filter and looked up in both; once the current filter holds its capacity it becomes the previous one
+     * and the oldest filter is cleared. Between capacity and twice the capacity of the most recent ids are therefore
+     * always remembered, with about 12 bits per id.
+     *
+     * @param _capacity Number of ids per filter generation.
+     */
+    SeenCache(int _capacity) {
+        capacity = Math.max(64, _capacity);
+        numBits = capacity * BITS_PER_ENTRY;
+        current = new AtomicLongArray((numBits + 63) / 64);
+        previous = new AtomicLongArray((numBits + 63) / 64);
+    }
+
+    /**
+     * Adds an id to the cache.
+     *
+     * @param id Broadcast id.
+     */
+    void add(BroadcastId id) {
+        AtomicLongArray filter = current;
+        long h1 = id.origin ^ BroadcastId.mix(id.sequence);
+        long h2 = BroadcastId.mix(h1) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (int) Math.floorMod(h1 + i * h2, (long) numBits);
+            long mask = 1L << (bit & 63);
+            long word;
+            do {
+                word = filter.get(bit >>> 6);
+                if ((word & mask) != 0) break;
+            } while (!filter.compareAndSet(bit >>> 6, word, word | mask));
+        }
+        if (currentCount.incrementAndGet() >= capacity) rotate();
+    }
+
+    /**
+     * @param id Broadcast id.
+     * @return Returns false if the id was definitely not seen recently, true if it probably was.
+     */
+    boolean mightContain(BroadcastId id) {
+        lookups.incrementAndGet();
+        boolean found = contains(current, id) || contains(previous, id);
+        if (found) positives.incrementAndGet();
+        return found;
+    }
+
+    /**
+     * Reports that a positive answer of mightContain turned out to be wrong.
+     */
+    void reportFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    private boolean contains(AtomicLongArray filter, BroadcastId id) {
+        long h1 = id.origin ^ BroadcastId.mix(id.sequence);
+        long h2 = BroadcastId.mix(h1) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (int) Math.floorMod(h1 + i * h2, (long) numBits);
+            if ((filter.get(bit >>> 6) & (1L << (bit & 63))) == 0) return false;
+        }
+        return true;
+    }
+
+    private synchronized void rotate() {
+        if (currentCount.get() < capacity) return;
+        previous = current;
+        previousCount = currentCount.get();
+        current = new AtomicLongArray((numBits + 63) / 64);
+        currentCount.set(0);
+    }
+
+    /**
+     * @return Returns the memory used by the filters in bytes.
+     */
+    long memoryBytes() {
+        return 2L * ((numBits + 63) / 64) * 8;
+    }
+
+    /**
+     * @return Returns the measured false positive rate. (False positives over lookups)
+     */
+    double measuredFalsePositiveRate() {
+        long total = lookups.get();
+        return total == 0 ? 0 : (double) falsePositives.get() / total;
+    }
+
+    /**
+     * @return Returns the false positive rate expected from the current fill of both filters.
+     */
+    double expectedFalsePositiveRate() {
+        double currentRate = bloomFalsePositiveRate(currentCount.get());
+        double previousRate = bloomFalsePositiveRate(previousCount);
+        return 1 - (1 - currentRate) * (1 - previousRate);
+    }
+
+    private double bloomFalsePositiveRate(long entries) {
+        return Math.pow(1 - Math.exp(-(double) NUM_HASHES * entries / numBits), NUM_HASHES);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("seen-cache: %d lookups, %d positives, %d false positives (measured fp %.5f, expected fp %.5f), %d bytes",
+                lookups.get(), positives.get(), falsePositives.get(), measuredFalsePositiveRate(), expectedFalsePositiveRate(), memoryBytes());
+    }
+}
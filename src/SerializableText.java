@@ -18,7 +18,7 @@ class SerializableText implements Serializable {
      * Object used to send String data.
      *
      * @param _text   String data.
-     * @param _source IP address of source peer.
+     * @param _source Id of source peer.
      */
     SerializableText(String _text, String _source) {
         text = _text;
@@ -4,130 +4,279 @@
  */
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.stream.IntStream;
 
 class Server {
-    private ServerSocket serverSocket;
-    private LinkedList<Socket> socketList = new LinkedList<>();
-    private LinkedList<ObjectInputStream> objInputStreams = new LinkedList<>();
+    private Transport transport = null;
+    private Set<String> adjPeers = Collections.emptySet();
+    private final Set<String> acceptedClients = ConcurrentHashMap.newKeySet();
+    private CountDownLatch allClientsAccepted = new CountDownLatch(0);
     private Consumer<Object> handleDataReceived = null;
+    private final BinaryCodec.TraversalFilter traversalFilter;
+    private final Metrics metrics;
+    private final AtomicLong queuedHandlers = new AtomicLong();
+    private final Metrics.Histogram handlerWait;
+    private final Consumer<String> streamClosed;
+    private final CreditSender returnCredit;
+    private final Set<InboundStream> streams = ConcurrentHashMap.newKeySet();
+    private final Metrics.Counter shedFrames;
+    private final Metrics.Counter overflowFrames;
+    private int inboundWindow = Connection.DEFAULT_CREDIT_WINDOW;
+    private ShedPolicy shedPolicy = ShedPolicy.NONE;
+    /* Runs the message handlers of this peer only, so the limit of one peer does not apply to others in the JVM. */
+    private Executor handlerExecutor = null;
 
     /**
-     * Server Class.
+     * The ways the TCP transport reads the sockets of the adjacent peers.
+     */
+    enum InboundMode {
+        /* One blocking listener thread per accepted socket. */
+        BLOCKING,
+        /* A few selector threads shared by all accepted sockets. */
+        NIO
+    }
+
+    /**
+     * What happens to low priority frames (plain text) while the inbound queue of a stream is more than half full.
+     */
+    enum ShedPolicy {
+        /* Every frame is queued as long as there is room. */
+        NONE,
+        /* Low priority frames are dropped, leaving the room to broadcasts, polls and calls. */
+        LOW_PRIORITY
+    }
+
+    /**
+     * Returns credits to an adjacent peer.
      */
-    Server() {
+    interface CreditSender {
+        /**
+         * @param peerId Id of the adjacent peer.
+         * @param epoch  Epoch of the stream the frames arrived on. (See Hello)
+         * @param frames Number of frames handled.
+         * @return Returns whether the credits could be sent.
+         */
+        boolean send(String peerId, int epoch, int frames);
     }
 
     /**
-     * Formats the IP address of a socket.
+     * Server Class.
      *
-     * @param socket Socket Object
-     * @return Returns formatted IP address.
+     * @param _traversalFilter Drops the body of traversal frames the peer does not need, before they are decoded.
+     * @param _metrics         Registry of the peer, receives the inbound traffic and the handler queue depth.
+     * @param _streamClosed    Told the id of every adjacent peer whose stream ended while the peer runs.
+     * @param _returnCredit    Sends a number of credits to an adjacent peer, returns whether they could be sent.
      */
-    private String formatIP(Socket socket) {
-        return socket != null ? socket.getInetAddress().toString().replace("/", "") : "";
+    Server(BinaryCodec.TraversalFilter _traversalFilter, Metrics _metrics, Consumer<String> _streamClosed, CreditSender _returnCredit) {
+        traversalFilter = _traversalFilter;
+        metrics = _metrics;
+        streamClosed = _streamClosed;
+        returnCredit = _returnCredit;
+        handlerWait = metrics.histogram("server.handlerWait");
+        shedFrames = metrics.counter("server.shedFrames");
+        overflowFrames = metrics.counter("server.overflowFrames");
+        metrics.gauge("server.inboundQueued", queuedHandlers::get);
     }
 
     /**
-     * Finds a suitable client for the server. (Only allows certain IP addresses to connect to it)
+     * Creates the handler of an inbound stream. The first frame of every stream must be the Hello of an adjacent peer,
+     * which tells the handler whose stream it is; any other stream is closed. From then on the handler counts the
+     * traffic of the stream, handles control messages right away and queues every other object for the message handler
+     * of the peer, up to the inbound window of the stream.
      *
-     * @param whiteListIP The list of allowed IP addresses to connect to the server.
-     * @return Returns a socket connection to the selected client.
+     * @return Returns the frame handler of the stream.
      */
-    private Socket findSuitableClient(LinkedList<String> whiteListIP) {
-        Socket tempSocket = null;
-        while (Peer.Shared.running) {
-            try {
-                tempSocket = serverSocket.accept();
-                if (whiteListIP.contains(formatIP(tempSocket))) {
-                    System.out.println("Accepted Client " + formatIP(tempSocket) + ":" + tempSocket.getPort());
-                    break;
-                } else {
-                    tempSocket.close();
-                    System.out.println("Rejected Client " + formatIP(tempSocket) + ":" + tempSocket.getPort());
+    private Transport.FrameHandler frameHandler() {
+        return new Transport.FrameHandler() {
+            private InboundStream stream = null;
+            private Metrics.Counter bytesIn;
+            private Metrics.Counter messagesIn;
+
+            @Override
+            public void frameReceived(Object o, int frameLength) throws IOException {
+                if (stream == null) introduce(o);
+                bytesIn.add(frameLength);
+                messagesIn.increment();
+                /* Cheap and time critical, a heartbeat stuck behind a backlog would get the sender suspected. */
+                if (o instanceof Heartbeat || o instanceof Credit || o instanceof Hello) {
+                    handleDataReceived.accept(o);
+                    return;
                 }
-            } catch (IOException e) {
-                System.out.println("Error occurred while trying to accept client connection.");
-                e.printStackTrace();
+                if (!stream.admit(o)) return;
+                queuedHandlers.incrementAndGet();
+                long queuedAt = System.nanoTime();
+                handlerExecutor.execute(() -> {
+                    queuedHandlers.decrementAndGet();
+                    handlerWait.recordSince(queuedAt);
+                    try {
+                        handleDataReceived.accept(o);
+                    } finally {
+                        stream.handled();
+                    }
+                });
             }
-        }
-        return tempSocket;
+
+            private void introduce(Object o) throws IOException {
+                String peerId = o instanceof Hello ? ((Hello) o).source : null;
+                if (peerId == null || !adjPeers.contains(peerId)) {
+                    Log.warn("Rejected client {}.", peerId == null ? "that did not introduce itself" : peerId);
+                    throw new IOException("Not an adjacent peer.");
+                }
+                bytesIn = metrics.counter("connection." + peerId + ".bytesIn");
+                messagesIn = metrics.counter("connection." + peerId + ".messagesIn");
+                stream = new InboundStream(peerId, ((Hello) o).epoch);
+                streams.add(stream);
+                metrics.gauge("connection." + peerId + ".inboundQueued", stream.queued::get);
+                if (acceptedClients.add(peerId)) allClientsAccepted.countDown();
+                Log.info("Server connected to {} ({}/{})", peerId, acceptedClients.size(), adjPeers.size());
+            }
+
+            @Override
+            public void streamClosed() {
+                if (stream == null) return;
+                streams.remove(stream);
+                if (Peer.Shared.running) streamClosed.accept(stream.peerId);
+            }
+        };
     }
 
     /**
-     * Listens to any updates in the InputStream of a Socket.
-     *
-     * @param inStream ObjectInputStream
+     * Returns the credits every inbound stream collected so far, including the ones below the batching threshold.
+     * Called periodically, so credits that could not be sent are retried and the sender never waits forever.
      */
-    private void inputStreamListener(ObjectInputStream inStream) {
-        while (Peer.Shared.running) {
-            try {
-                Object o = inStream.readObject();
-                Peer.Shared.threadManager.submit(() -> handleDataReceived.accept(o));
-            } catch (IOException e) {
-                System.out.println("Error occurred while receiving data.");
-                e.printStackTrace();
-            } catch (ClassNotFoundException e) {
-                System.out.println("Received data that does not contain a recognizable object.");
-                e.printStackTrace();
+    void flushCredits() {
+        streams.forEach(InboundStream::flushCredits);
+    }
+
+    /**
+     * @param o Object received.
+     * @return Returns whether the object may be shed under load. (Plain text, directly or routed)
+     */
+    private static boolean isLowPriority(Object o) {
+        if (o instanceof RoutedMessage) o = ((RoutedMessage) o).payload;
+        return o instanceof SerializableText;
+    }
+
+    /**
+     * Flow control state of one inbound stream. The sender may have at most inboundWindow frames outstanding; every
+     * frame that was handled (or dropped) earns it a credit back, returned in batches of a quarter window. Credits are
+     * tagged with the epoch of the stream, so the ones still returned after the sender replaced it are ignored.
+     */
+    private class InboundStream {
+        private final String peerId;
+        private final int epoch;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger unreturnedCredits = new AtomicInteger();
+
+        InboundStream(String _peerId, int _epoch) {
+            peerId = _peerId;
+            epoch = _epoch;
+        }
+
+        /**
+         * @param o Object received.
+         * @return Returns whether the object was queued, rather than dropped because the stream is over its window or
+         * shed because it is low priority and the stream is behind.
+         */
+        boolean admit(Object o) {
+            if (inboundWindow > 0) {
+                if (queued.get() >= inboundWindow) {
+                    /* Only a sender that ignores its credits gets here. */
+                    overflowFrames.increment();
+                    frameDone();
+                    return false;
+                }
+                if (shedPolicy == ShedPolicy.LOW_PRIORITY && queued.get() >= inboundWindow / 2 && isLowPriority(o)) {
+                    shedFrames.increment();
+                    frameDone();
+                    return false;
+                }
             }
+            queued.incrementAndGet();
+            return true;
+        }
+
+        void handled() {
+            queued.decrementAndGet();
+            frameDone();
+        }
+
+        private void frameDone() {
+            if (inboundWindow == 0) return;
+            if (unreturnedCredits.incrementAndGet() >= Math.max(1, inboundWindow / 4)) flushCredits();
+        }
+
+        void flushCredits() {
+            int frames = unreturnedCredits.getAndSet(0);
+            if (frames > 0 && !returnCredit.send(peerId, epoch, frames)) unreturnedCredits.addAndGet(frames);
         }
     }
 
     /**
-     * Listens and establishes a connection to all whitelisted peers.
+     * Creates the decoder of a new inbound stream. (The binary codec also decodes java serialized frames)
      *
-     * @param adjPeerIP The ip addresses of all the adjacent peers.
-     * @param port      The port number at which the server initializes.
+     * @return Returns a new decoder.
      */
-    void startServer(LinkedList<String> adjPeerIP, int port, Consumer<Object> handleSocketInputStream) {
+    private WireCodec newDecoder() {
+        return new CompressingCodec(new BinaryCodec(traversalFilter), 0, metrics);
+    }
+
+    /**
+     * Starts accepting the adjacent peers in the background, for as long as the peer runs. A peer that reconnects after
+     * its stream was lost is accepted again.
+     *
+     * @param localId                 Id of this peer.
+     * @param adjPeerIds              The ids of all the adjacent peers.
+     * @param peerData                Metadata of the peer. (Inbound window, shed policy and handler limit)
+     * @param _transport              Transport the adjacent peers connect through.
+     * @param handleSocketInputStream Handler of every object received.
+     */
+    void startServer(String localId, Collection<String> adjPeerIds, PeerData peerData, Transport _transport, Consumer<Object> handleSocketInputStream) {
         handleDataReceived = handleSocketInputStream;
+        inboundWindow = peerData.inboundWindow;
+        shedPolicy = peerData.shedPolicy;
+        handlerExecutor = PeerExecutors.bounded(Peer.Shared.threadManager, peerData.maxHandlers);
+        adjPeers = new HashSet<>(adjPeerIds);
+        allClientsAccepted = new CountDownLatch(adjPeers.size());
+        transport = _transport;
         try {
-            serverSocket = new ServerSocket(port);
-            serverSocket.setSoTimeout(0);
+            transport.listen(localId, this::newDecoder, this::frameHandler);
         } catch (IOException e) {
-            System.out.println("Could not create a ServerSocket.");
-            e.printStackTrace();
+            Log.error("Could not listen for adjacent peers.", e);
         }
+    }
 
-        adjPeerIP.forEach(peer -> {
-            try {
-                socketList.add(findSuitableClient(adjPeerIP));
-                objInputStreams.add(new ObjectInputStream(socketList.getLast().getInputStream()));
-                Peer.Shared.threadManager.submit(() -> inputStreamListener(objInputStreams.getLast()));
-                System.out.println("Server connected to " + formatIP(socketList.getLast()) + ":" + socketList.getLast().getPort() + " (" + (adjPeerIP.indexOf(peer) + 1) + "/" + adjPeerIP.size() + ")");
-            } catch (IOException e) {
-                System.out.println("Error occurred while finding a suitable client.");
-                e.printStackTrace();
-            }
-        });
-        System.out.println("Setup connections to ALL clients successfully!");
+    /**
+     * Waits until every adjacent peer has connected to this one at least once.
+     *
+     * @param timeoutMillis Maximum time to wait.
+     * @return Returns whether every adjacent peer has connected.
+     */
+    boolean awaitClients(long timeoutMillis) {
+        try {
+            if (!allClientsAccepted.await(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS)) return false;
+        } catch (InterruptedException e) {
+            Log.error("Interrupted while waiting for clients.", e);
+            return false;
+        }
+        Log.info("Setup connections to all clients successfully.");
+        return true;
     }
 
     /**
      * Safely ends the server.
      */
     void closeServer() {
-
-        IntStream.range(0, socketList.size()).forEach(i -> {
-            try {
-                socketList.get(i).close();
-                objInputStreams.get(i).close();
-            } catch (IOException e) {
-                System.out.println("Error while closing a socket.");
-                e.printStackTrace();
-            }
-        });
-        try {
-            serverSocket.close();
-        } catch (IOException e) {
-            System.out.println("Error while closing server socket.");
-            e.printStackTrace();
-        }
+        if (transport != null) transport.close();
     }
 }
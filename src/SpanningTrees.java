@@ -0,0 +1,102 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SpanningTrees {
+    private final ConcurrentHashMap<String, TreeNode> trees = new ConcurrentHashMap<>();
+    private final AtomicInteger epoch = new AtomicInteger();
+
+    /**
+     * The position of this peer in the spanning tree of every origin it has seen a flood from. The parent is the peer
+     * the first forward came from and the children are the peers that answered with a valid callback, so following
+     * the children of every peer reaches the network exactly once. Any change to the connections of this peer
+     * forgets every tree; the next broadcast through this peer floods again and learns the new one.
+     */
+    SpanningTrees() {
+    }
+
+    /**
+     * @return Returns the current epoch. Trees learned by a flood that started in an earlier epoch are discarded.
+     */
+    int epoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Records the position of this peer in the tree of an origin.
+     *
+     * @param origin   Peer that started the flood.
+     * @param parent   Peer the flood came from, or null on the origin itself.
+     * @param children Peers that answered with a valid callback.
+     * @param epoch    Epoch at which the flood reached this peer.
+     */
+    void learn(String origin, String parent, Collection<String> children, int epoch) {
+        if (epoch != this.epoch.get()) return;
+        trees.put(origin, new TreeNode(parent, children, epoch));
+        /* Forgotten in between, the tree might already be outdated. */
+        if (epoch != this.epoch.get()) trees.remove(origin);
+    }
+
+    /**
+     * @param origin Peer that started the broadcast.
+     * @param parent Peer the broadcast came from, or null on the origin itself.
+     * @return Returns the children of this peer in the tree of the origin, or null if the tree is unknown, outdated
+     * or was learned with a different parent.
+     */
+    Set<String> children(String origin, String parent) {
+        TreeNode node = trees.get(origin);
+        if (node == null || node.epoch != epoch.get()) return null;
+        if (parent == null ? node.parent != null : !parent.equals(node.parent)) return null;
+        synchronized (node) {
+            return new HashSet<>(node.children);
+        }
+    }
+
+    /**
+     * Removes a child that was reached by someone else, so the tree stops sending it duplicates.
+     *
+     * @param origin Peer that started the broadcast.
+     * @param child  Child that answered with an invalid callback.
+     */
+    void removeChild(String origin, String child) {
+        TreeNode node = trees.get(origin);
+        if (node == null) return;
+        synchronized (node) {
+            node.children.remove(child);
+        }
+    }
+
+    /**
+     * Forgets every tree, after a connection of this peer was opened or lost.
+     */
+    void invalidate() {
+        epoch.incrementAndGet();
+        trees.clear();
+    }
+
+    /**
+     * @return Returns the number of origins this peer knows a tree for.
+     */
+    int size() {
+        return trees.size();
+    }
+
+    private static class TreeNode {
+        private final String parent;
+        private final Set<String> children;
+        private final int epoch;
+
+        TreeNode(String _parent, Collection<String> _children, int _epoch) {
+            parent = _parent;
+            children = new HashSet<>(_children);
+            epoch = _epoch;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+
+class SubscriptionDelta implements Serializable {
+    private static final long serialVersionUID = -3188210948313508477L;
+
+    String sender;
+    ArrayList<Record> records = new ArrayList<>();
+
+    /**
+     * Changes to the subscriptions of the network, exchanged between adjacent peers like topology deltas: every record
+     * replaces the topics of a single peer and is versioned by that peer alone, so only the peers whose subscriptions
+     * changed are sent, in any order and through any path.
+     *
+     * @param _sender  Peer that sends this delta. (Not forwarded back to it)
+     * @param _records Records of the delta.
+     */
+    SubscriptionDelta(String _sender, Collection<Record> _records) {
+        sender = _sender;
+        records.addAll(_records);
+    }
+
+    /**
+     * Topics a single peer subscribed to.
+     */
+    static class Record implements Serializable {
+        private static final long serialVersionUID = 5539167215842019606L;
+
+        final String node;
+        final long sequence;
+        final ArrayList<String> topics;
+
+        /**
+         * @param _node     Id of the peer.
+         * @param _sequence Version of the subscriptions, only increased by the peer itself.
+         * @param _topics   Topics of the peer.
+         */
+        Record(String _node, long _sequence, Collection<String> _topics) {
+            node = _node;
+            sequence = _sequence;
+            topics = new ArrayList<>(_topics);
+        }
+    }
+}
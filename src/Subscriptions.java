@@ -0,0 +1,138 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.*;
+
+class Subscriptions {
+    private final String self;
+    private final Map<String, SubscriptionDelta.Record> records = new HashMap<>();
+    private long nextSequence;
+    private long version = 0;
+    /* Interest per link, derived from the records and the routing table and cached until either changes. */
+    private long derivedVersion = -1;
+    private long derivedTopologyVersion = -1;
+    private final Map<String, Set<String>> topicsByLink = new HashMap<>();
+    private final Map<String, Map<String, List<String>>> routesByTopic = new HashMap<>();
+
+    /**
+     * Topics every peer of the network subscribed to, as seen by one peer, and the interest of every link of this
+     * peer derived from them: a link is interested in a topic if it is the next hop towards a subscriber of it.
+     * Publishes start only on interested links, each carrying the subscribers behind its link, so a publish only
+     * travels along the shortest paths to the subscribers of its topic.
+     *
+     * @param _self Id of this peer.
+     */
+    Subscriptions(String _self) {
+        self = _self;
+        /* Outlives restarts of the peer, so records of an earlier run are always replaced. */
+        nextSequence = System.currentTimeMillis() * 1000;
+    }
+
+    /**
+     * Publishes the topics of this peer.
+     *
+     * @param topics Topics this peer subscribes to.
+     * @return Returns the new record, or null if the topics did not change.
+     */
+    synchronized SubscriptionDelta.Record updateLocal(Collection<String> topics) {
+        SubscriptionDelta.Record current = records.get(self);
+        if (current != null && new HashSet<>(current.topics).equals(new HashSet<>(topics))) return null;
+        if (current == null && topics.isEmpty()) return null;
+        SubscriptionDelta.Record record = new SubscriptionDelta.Record(self, nextSequence++, topics);
+        records.put(self, record);
+        version++;
+        return record;
+    }
+
+    /**
+     * Merges the records of a delta.
+     *
+     * @param delta Received records.
+     * @return Returns the records that were newer than the known ones, and so have to be passed on.
+     */
+    synchronized List<SubscriptionDelta.Record> merge(List<SubscriptionDelta.Record> delta) {
+        ArrayList<SubscriptionDelta.Record> applied = new ArrayList<>();
+        for (SubscriptionDelta.Record record : delta) {
+            /* Only this peer may change its own record. */
+            if (record.node.equals(self)) continue;
+            SubscriptionDelta.Record current = records.get(record.node);
+            if (current != null && current.sequence >= record.sequence) continue;
+            records.put(record.node, record);
+            applied.add(record);
+        }
+        if (!applied.isEmpty()) version++;
+        return applied;
+    }
+
+    /**
+     * @return Returns every known record, to bring a newly connected peer up to date.
+     */
+    synchronized List<SubscriptionDelta.Record> snapshot() {
+        return new ArrayList<>(records.values());
+    }
+
+    /**
+     * @return Returns the topics this peer subscribes to.
+     */
+    synchronized List<String> localTopics() {
+        SubscriptionDelta.Record record = records.get(self);
+        return record == null ? Collections.emptyList() : new ArrayList<>(record.topics);
+    }
+
+    /**
+     * @param topic Name of a topic.
+     * @return Returns every peer known to subscribe to the topic, this one included.
+     */
+    synchronized List<String> subscribers(String topic) {
+        List<String> subscribers = new ArrayList<>();
+        records.forEach((node, record) -> {
+            if (record.topics.contains(topic)) subscribers.add(node);
+        });
+        return subscribers;
+    }
+
+    /**
+     * @param topic    Name of a topic.
+     * @param topology Topology map of this peer, whose routing table picks the links.
+     * @return Returns the other subscribers of the topic, grouped by the adjacent peer that leads to them.
+     */
+    synchronized Map<String, List<String>> routes(String topic, PeerGraphData topology) {
+        derive(topology);
+        Map<String, List<String>> routes = new HashMap<>();
+        routesByTopic.getOrDefault(topic, Collections.emptyMap()).forEach((link, subscribers) -> routes.put(link, new ArrayList<>(subscribers)));
+        return routes;
+    }
+
+    /**
+     * @param topology Topology map of this peer, whose routing table picks the links.
+     * @return Returns the topics every adjacent peer leads to subscribers of.
+     */
+    synchronized Map<String, Set<String>> interestByLink(PeerGraphData topology) {
+        derive(topology);
+        return new TreeMap<>(topicsByLink);
+    }
+
+    /**
+     * Rebuilds the interest of every link, unless neither the subscriptions nor the topology changed since the last
+     * time.
+     */
+    private void derive(PeerGraphData topology) {
+        long topologyVersion = topology.version();
+        if (derivedVersion == version && derivedTopologyVersion == topologyVersion) return;
+        topicsByLink.clear();
+        routesByTopic.clear();
+        records.forEach((node, record) -> {
+            if (node.equals(self) || record.topics.isEmpty()) return;
+            String link = topology.nextHop(node);
+            if (link == null) return;
+            for (String topic : record.topics) {
+                topicsByLink.computeIfAbsent(link, key -> new TreeSet<>()).add(topic);
+                routesByTopic.computeIfAbsent(topic, key -> new HashMap<>()).computeIfAbsent(link, key -> new ArrayList<>()).add(node);
+            }
+        });
+        derivedVersion = version;
+        derivedTopologyVersion = topologyVersion;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+class TcpTransport implements Transport {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final Log.Limiter CLOSED_STREAMS = new Log.Limiter();
+    private static final Log.Limiter UNREADABLE_FRAMES = new Log.Limiter();
+    private static final Log.Limiter FAILED_STREAMS = new Log.Limiter();
+
+    private final Server.InboundMode inboundMode;
+    private final int eventLoops;
+    private final String bindHost;
+    private ServerSocket serverSocket;
+    private NioInboundEngine nioEngine;
+    private final List<Socket> socketList = new CopyOnWriteArrayList<>();
+
+    /**
+     * Socket based transport. Inbound streams are read either by one blocking listener thread per socket or by a few
+     * selector threads shared by all sockets. Outbound streams buffer small frames, so a batch of frames shares one
+     * system call.
+     *
+     * @param _inboundMode Way inbound sockets are read.
+     * @param _eventLoops  Number of selector threads used by the NIO inbound mode.
+     * @param _bindHost    Local address to listen on and connect from, so other peers recognize this one. (Every
+     *                     local address if null)
+     */
+    TcpTransport(Server.InboundMode _inboundMode, int _eventLoops, String _bindHost) {
+        inboundMode = _inboundMode;
+        eventLoops = _eventLoops;
+        bindHost = _bindHost;
+    }
+
+    @Override
+    public Link connect(String peerId, String localId) throws IOException {
+        Socket socket = new Socket(Transport.host(peerId), Transport.port(peerId), bindHost == null ? null : InetAddress.getByName(bindHost), 0);
+        socket.setTcpNoDelay(true);
+        OutputStream outStream = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        return new Link() {
+            @Override
+            public void write(WireBuffer frame) throws IOException {
+                outStream.write(frame.array(), 0, frame.length());
+            }
+
+            @Override
+            public void flush() throws IOException {
+                outStream.flush();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.error("Error while closing socket.", e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void listen(String localId, Supplier<WireCodec> decoders, Supplier<FrameHandler> frameHandlers) throws IOException {
+        int port = Transport.port(localId);
+        if (inboundMode == Server.InboundMode.NIO) {
+            nioEngine = new NioInboundEngine(eventLoops, decoders, frameHandlers);
+            nioEngine.start(bindHost, port);
+            return;
+        }
+        serverSocket = new ServerSocket(port, 50, bindHost == null ? null : InetAddress.getByName(bindHost));
+        serverSocket.setSoTimeout(0);
+        Peer.Shared.threadManager.submit(() -> acceptLoop(decoders, frameHandlers));
+    }
+
+    /**
+     * Formats the IP address of a socket.
+     *
+     * @param socket Socket Object
+     * @return Returns formatted IP address.
+     */
+    private String formatIP(Socket socket) {
+        return socket != null ? socket.getInetAddress().toString().replace("/", "") : "";
+    }
+
+    /**
+     * Accepts sockets for as long as the peer runs and starts a listener for every one of them. Which peer is on the
+     * other end is only known once it introduced itself, so the frame handler decides whether the stream is kept.
+     *
+     * @param decoders      Creates the decoder of every accepted stream.
+     * @param frameHandlers Creates the frame handler of every accepted stream.
+     */
+    private void acceptLoop(Supplier<WireCodec> decoders, Supplier<FrameHandler> frameHandlers) {
+        while (Peer.Shared.running && !serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Log.info("Accepted client {}:{}", formatIP(socket), socket.getPort());
+                DataInputStream inStream = new DataInputStream(socket.getInputStream());
+                socketList.add(socket);
+                Peer.Shared.threadManager.submit(() -> {
+                    inputStreamListener(inStream, formatIP(socket) + ":" + socket.getPort(), decoders.get(), frameHandlers.get());
+                    socketList.remove(socket);
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        Log.error("Error while closing a socket.", e);
+                    }
+                });
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) return;
+                Log.error("Error occurred while trying to accept client connection.", e);
+            }
+        }
+    }
+
+    /**
+     * Listens to any updates in the InputStream of a Socket. Stops once the stream is closed by the other peer.
+     *
+     * @param inStream     DataInputStream
+     * @param remote       Address of the other end of the stream.
+     * @param codec        Decoder of the stream.
+     * @param frameHandler Handler of the decoded frames.
+     */
+    private void inputStreamListener(DataInputStream inStream, String remote, WireCodec codec, FrameHandler frameHandler) {
+        while (Peer.Shared.running) {
+            try {
+                byte[] payload = Frames.readPayload(inStream);
+                Object o = Frames.decode(payload, 0, payload.length, codec);
+                frameHandler.frameReceived(o, Frames.HEADER_LENGTH + payload.length);
+            } catch (EOFException e) {
+                CLOSED_STREAMS.warn("Connection closed by {}.", remote);
+                break;
+            } catch (IOException e) {
+                if (Peer.Shared.running) CLOSED_STREAMS.warn("Closing the stream from {}: {}", remote, e.getMessage());
+                break;
+            } catch (ClassNotFoundException e) {
+                UNREADABLE_FRAMES.error("Received data from {} that does not contain a recognizable object.", remote, e);
+            } catch (RuntimeException e) {
+                /* The stream may be out of step after a bug in the decoder or a handler, so only it is given up. */
+                FAILED_STREAMS.error("Closing the stream from {} after an unexpected error.", remote, e);
+                break;
+            }
+        }
+        try {
+            frameHandler.streamClosed();
+        } catch (RuntimeException e) {
+            FAILED_STREAMS.error("Error while closing the stream from {}.", remote, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (nioEngine != null) {
+            nioEngine.close();
+            return;
+        }
+        socketList.forEach(socket -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.error("Error while closing a socket.", e);
+            }
+        });
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            Log.error("Error while closing server socket.", e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+class TimerWheel<T> {
+    private final long tickMillis;
+    private final ArrayList<Slot<T>> slots;
+    private volatile long currentTick;
+
+    /**
+     * Hashed timer wheel. Timeouts are dropped into the slot of their deadline tick, so scheduling is O(1) and every
+     * tick only looks at a single slot. Timeouts further away than one revolution simply stay in their slot for more
+     * than one revolution. A cancelled timeout is unlinked from its slot right away, so it does not keep its element
+     * reachable until its deadline.
+     *
+     * @param _tickMillis Resolution of the wheel in milliseconds.
+     * @param numSlots    Number of slots of the wheel.
+     * @param nowMillis   Current time in milliseconds.
+     */
+    TimerWheel(long _tickMillis, int numSlots, long nowMillis) {
+        tickMillis = _tickMillis;
+        slots = new ArrayList<>(numSlots);
+        for (int i = 0; i < numSlots; i++) slots.add(new Slot<>());
+        currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules an element to expire at the given time.
+     *
+     * @param element        Element to expire.
+     * @param deadlineMillis Time in milliseconds at which it expires.
+     * @return Returns the timeout, to cancel it.
+     */
+    Timeout<T> schedule(T element, long deadlineMillis) {
+        long deadlineTick = Math.max(currentTick, (deadlineMillis + tickMillis - 1) / tickMillis);
+        Slot<T> slot = slots.get((int) Math.floorMod(deadlineTick, (long) slots.size()));
+        Timeout<T> timeout = new Timeout<>(element, deadlineTick, slot);
+        synchronized (slot) {
+            slot.link(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Cancels a timeout. Does nothing if it already expired or was cancelled.
+     *
+     * @param timeout Timeout to cancel, or null.
+     */
+    void cancel(Timeout<T> timeout) {
+        if (timeout == null) return;
+        synchronized (timeout.slot) {
+            timeout.slot.unlink(timeout);
+        }
+    }
+
+    /**
+     * Advances the wheel up to the given time and hands every expired element to the consumer.
+     *
+     * @param nowMillis Current time in milliseconds.
+     * @param onExpire  Consumer of expired elements.
+     */
+    synchronized void advance(long nowMillis, Consumer<T> onExpire) {
+        long nowTick = nowMillis / tickMillis;
+        ArrayList<T> expired = new ArrayList<>();
+        /* Never look at more than one revolution, every slot is visited by then. */
+        long firstTick = Math.max(currentTick, nowTick - slots.size() + 1);
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            Slot<T> slot = slots.get((int) Math.floorMod(tick, (long) slots.size()));
+            synchronized (slot) {
+                Timeout<T> timeout = slot.head;
+                while (timeout != null) {
+                    Timeout<T> next = timeout.next;
+                    if (timeout.deadlineTick <= nowTick) {
+                        slot.unlink(timeout);
+                        expired.add(timeout.element);
+                    }
+                    timeout = next;
+                }
+            }
+        }
+        currentTick = nowTick + 1;
+        expired.forEach(onExpire);
+    }
+
+    static final class Timeout<T> {
+        private final T element;
+        private final long deadlineTick;
+        private final Slot<T> slot;
+        /* Neighbours in the slot, guarded by the slot. */
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private boolean linked;
+
+        private Timeout(T _element, long _deadlineTick, Slot<T> _slot) {
+            element = _element;
+            deadlineTick = _deadlineTick;
+            slot = _slot;
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts of one slot, so a timeout is unlinked in O(1).
+     */
+    private static final class Slot<T> {
+        private Timeout<T> head;
+
+        void link(Timeout<T> timeout) {
+            timeout.next = head;
+            if (head != null) head.previous = timeout;
+            head = timeout;
+            timeout.linked = true;
+        }
+
+        void unlink(Timeout<T> timeout) {
+            if (!timeout.linked) return;
+            if (timeout.previous != null) timeout.previous.next = timeout.next;
+            else head = timeout.next;
+            if (timeout.next != null) timeout.next.previous = timeout.previous;
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.linked = false;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+
+class TopicMessage implements Serializable {
+    private static final long serialVersionUID = 2287563104978250341L;
+
+    BroadcastId id;
+    String topic;
+    String origin;
+    /* Peer this copy was sent by. (Not forwarded back to it) */
+    String sender;
+    /* Subscribers this copy has to reach. */
+    ArrayList<String> destinations;
+    Object data;
+
+    /**
+     * Data published on a topic. Every copy carries the subscribers it has to reach, and every peer on the way splits
+     * them among the adjacent peers that lead to them, so the copies follow the shortest paths to the subscribers and
+     * no peer receives a publish twice.
+     *
+     * @param _id           Id of the publish, to drop copies that arrive through a second path anyway.
+     * @param _topic        Name of the topic.
+     * @param _origin       Peer that published the data.
+     * @param _sender       Peer that sends this copy.
+     * @param _destinations Subscribers this copy has to reach.
+     * @param _data         Published data.
+     */
+    TopicMessage(BroadcastId _id, String _topic, String _origin, String _sender, Collection<String> _destinations, Object _data) {
+        id = _id;
+        topic = _topic;
+        origin = _origin;
+        sender = _sender;
+        destinations = new ArrayList<>(_destinations);
+        data = _data;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+
+class TopologyDelta implements Serializable {
+    private static final long serialVersionUID = 7760259172873016954L;
+
+    String sender;
+    ArrayList<NodeRecord> records = new ArrayList<>();
+
+    /**
+     * Changes to the topology map, exchanged between adjacent peers. Every record replaces the adjacency of a single
+     * peer and is versioned by that peer alone, so records can arrive in any order and through any path: older
+     * sequence numbers are ignored, newer ones are applied and passed on.
+     *
+     * @param _sender  Peer that sends this delta. (Its records are not passed back to it)
+     * @param _records Records of the delta.
+     */
+    TopologyDelta(String _sender, Collection<NodeRecord> _records) {
+        sender = _sender;
+        records.addAll(_records);
+    }
+
+    /**
+     * Adjacency of a single peer.
+     */
+    static class NodeRecord implements Serializable {
+        private static final long serialVersionUID = -2219485360196183384L;
+
+        final String node;
+        final long sequence;
+        final ArrayList<String> neighbours;
+
+        /**
+         * @param _node       Id of the peer.
+         * @param _sequence   Version of the adjacency, only increased by the peer itself.
+         * @param _neighbours Adjacent peers.
+         */
+        NodeRecord(String _node, long _sequence, Collection<String> _neighbours) {
+            node = _node;
+            sequence = _sequence;
+            neighbours = new ArrayList<>(_neighbours);
+        }
+    }
+}
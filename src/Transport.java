@@ -0,0 +1,105 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Carries the frames of a peer to its adjacent peers and back. Peers are identified by a node id and a port,
+ * formatted as node:port, so any number of peers can share a host. TcpTransport uses sockets, MemoryTransport connects
+ * peers running in the same process.
+ */
+interface Transport {
+
+    /**
+     * Outbound half of a stream to another peer. Used by a single writer at a time.
+     */
+    interface Link {
+        /**
+         * Sends a frame, or buffers it until the next flush.
+         *
+         * @param frame Encoded frame, header included. Never modified afterwards, so it may be kept instead of copied.
+         * @throws IOException If the stream failed.
+         */
+        void write(WireBuffer frame) throws IOException;
+
+        /**
+         * @throws IOException If the stream failed.
+         */
+        void flush() throws IOException;
+
+        /**
+         * Ends the stream. The other end still receives the frames that were flushed before.
+         */
+        void close();
+    }
+
+    /**
+     * Receives the decoded frames of one inbound stream.
+     */
+    interface FrameHandler {
+        /**
+         * @param o           Decoded object.
+         * @param frameLength Size of the frame on the wire, header included.
+         * @throws IOException If the stream has to be closed. (A stream that did not introduce itself properly)
+         */
+        void frameReceived(Object o, int frameLength) throws IOException;
+
+        /**
+         * Called once the stream ended or failed.
+         */
+        void streamClosed();
+    }
+
+    /**
+     * Opens a stream to another peer.
+     *
+     * @param peerId  Id of the peer. (node:port)
+     * @param localId Id of this peer.
+     * @return Returns the outbound half of the stream.
+     * @throws IOException If the peer could not be reached.
+     */
+    Link connect(String peerId, String localId) throws IOException;
+
+    /**
+     * Starts accepting streams from other peers in the background. Every stream gets its own decoder and frame handler.
+     *
+     * @param localId       Id of this peer.
+     * @param decoders      Creates the decoder of every accepted stream.
+     * @param frameHandlers Creates the frame handler of every accepted stream.
+     * @throws IOException If the peer could not listen.
+     */
+    void listen(String localId, Supplier<WireCodec> decoders, Supplier<FrameHandler> frameHandlers) throws IOException;
+
+    /**
+     * Stops accepting streams and closes every accepted one.
+     */
+    void close();
+
+    /**
+     * @param host Node id.
+     * @param port Port number.
+     * @return Returns the id of the peer listening on this port of the node.
+     */
+    static String peerId(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * @param peerId Id of a peer.
+     * @return Returns the node id part. (Host name or IP address for TCP)
+     */
+    static String host(String peerId) {
+        return peerId.substring(0, peerId.lastIndexOf(':'));
+    }
+
+    /**
+     * @param peerId Id of a peer.
+     * @return Returns the port number part.
+     */
+    static int port(String peerId) {
+        return Integer.parseInt(peerId.substring(peerId.lastIndexOf(':') + 1));
+    }
+}
@@ -4,18 +4,23 @@
  */
 
 import java.io.Serializable;
-import java.time.LocalTime;
-import java.util.LinkedList;
 
 class TraversalObj implements Serializable {
     private static final long serialVersionUID = -4942040386018202272L;
 
-    LinkedList<String> visited = new LinkedList<>();
     String globalSource;
     String callbackSubject;
     String type;
-    LocalTime timeStamp;
+    BroadcastId id;
     Object data;
+    /* Peers the traversal went through, to not forward it back to them. */
+    VisitedSet visited = VisitedSet.empty();
+    /* Time in milliseconds the receiving peer has to answer, 0 for no deadline. */
+    int budgetMillis = 0;
+    /* Set on callbacks whose subtree did not answer completely. */
+    boolean partial = false;
+    /* Set by the receiving codec when the body of a duplicate was dropped without decoding it. */
+    transient boolean bodySkipped = false;
 
     /**
      * Helper class for sending data to all peers in the network recursively.
@@ -29,11 +34,13 @@ class TraversalObj implements Serializable {
      * @param o Object to equal.
      */
     void equals(TraversalObj o) {
-        this.timeStamp = o.timeStamp;
+        this.id = o.id;
         this.data = o.data;
         this.globalSource = o.globalSource;
         this.type = o.type;
-        this.visited.addAll(o.visited);
+        this.visited = o.visited.copy();
         this.callbackSubject = o.callbackSubject;
+        this.budgetMillis = o.budgetMillis;
+        this.partial = o.partial;
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TraversalState {
+    final CompletableFuture<TraversalState> completion = new CompletableFuture<>();
+    final ConcurrentLinkedQueue<Object> callbacks = new ConcurrentLinkedQueue<>();
+    final AtomicInteger messagesSent = new AtomicInteger();
+    /* Votes of this peer and of every subtree that answered so far, if the traversal is a poll. */
+    volatile PollingMessage pollResult = null;
+    /* Peers that answered with a valid callback, i.e. the children of this peer in the traversal tree. */
+    final ConcurrentLinkedQueue<String> children = new ConcurrentLinkedQueue<>();
+    /* Whether the traversal was forwarded along a known spanning tree rather than flooded. */
+    volatile boolean treeMode = false;
+    volatile int treeEpoch = 0;
+    /* Set when a child was lost, answered partially, or the deadline passed before every callback arrived. */
+    volatile boolean partial = false;
+    private final Set<String> pendingChildren = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger expectedCallbacks = new AtomicInteger();
+    private final AtomicInteger receivedCallbacks = new AtomicInteger();
+    /* Starts at one so the traversal cannot complete before every forward has been counted. */
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    /**
+     * Progress of one traversal on this peer. The completion is completed by whichever thread delivers the last
+     * callback, so nothing has to wait for the children of this peer to answer.
+     */
+    TraversalState() {
+    }
+
+    /**
+     * Registers a callback that has to arrive before the traversal completes. Must be called before the matching
+     * object is sent.
+     *
+     * @param child Peer the object is sent to.
+     */
+    void expectCallback(String child) {
+        pendingChildren.add(child);
+        expectedCallbacks.incrementAndGet();
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Claims the callback of a child. Every expected callback is claimed at most once, either by its arrival or by
+     * the loss of the child, and only a successful claim may be followed by callbackReceived().
+     *
+     * @param child Peer that answered.
+     * @return Returns whether the callback was still expected.
+     */
+    boolean claimCallback(String child) {
+        return pendingChildren.remove(child);
+    }
+
+    /**
+     * Gives up on the callback of a child the failure detector suspects. The traversal completes without the
+     * subtree of the child.
+     *
+     * @param child Suspected peer.
+     * @return Returns whether a callback of the child was still expected.
+     */
+    boolean childLost(String child) {
+        if (!claimCallback(child)) return false;
+        partial = true;
+        if (pending.decrementAndGet() == 0) completion.complete(this);
+        return true;
+    }
+
+    /**
+     * Completes the traversal with the callbacks received so far, once its deadline has passed.
+     */
+    void deadlinePassed() {
+        if (completion.isDone()) return;
+        partial = true;
+        completion.complete(this);
+    }
+
+    /**
+     * Marks the end of the forwarding phase. Completes the traversal if every callback already arrived (or none was
+     * expected).
+     */
+    void forwardingDone() {
+        if (pending.decrementAndGet() == 0) completion.complete(this);
+    }
+
+    /**
+     * Records a callback from a child peer, after it was claimed.
+     *
+     * @param data Payload returned by the child, or null if the child had already been reached by someone else.
+     */
+    void callbackReceived(Object data) {
+        if (data != null) callbacks.add(data);
+        receivedCallbacks.incrementAndGet();
+        if (pending.decrementAndGet() == 0) completion.complete(this);
+    }
+
+    int getExpectedCallbacks() {
+        return expectedCallbacks.get();
+    }
+
+    int getReceivedCallbacks() {
+        return receivedCallbacks.get();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+class TraversalStore {
+    static final long DEFAULT_ACTIVE_TTL_MS = 5 * 60 * 1000;
+    static final long DEFAULT_FINISHED_TTL_MS = 60 * 1000;
+    static final int DEFAULT_MAX_TRAVERSALS = 16 * 1024;
+    private static final int NUM_STRIPES = 16;
+    private static final long TICK_MS = 100;
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+    private final TimerWheel<TraversalEntry> timerWheel;
+    private final long activeTtlMillis;
+    private final long finishedTtlMillis;
+    private final ScheduledFuture<?> ticker;
+
+    /**
+     * Per-traversal state of a peer. Keys are spread over independently locked stripes, so registering a traversal
+     * never copies or blocks the whole table. Every traversal expires through a timer wheel: finished ones after a
+     * short grace period (long enough to recognize late duplicates), abandoned ones after a longer one. Each stripe
+     * holds at most its share of the memory budget and evicts its oldest traversal when it is full. The ids of expired
+     * and evicted traversals are remembered a while longer, as many as there are traversals, so a late duplicate is
+     * still recognized without keeping its state.
+     *
+     * @param _activeTtlMillis   Time after which a traversal that never completed is abandoned.
+     * @param _finishedTtlMillis Time for which a completed traversal is remembered.
+     * @param maxTraversals      Maximum number of traversals kept in memory.
+     */
+    TraversalStore(long _activeTtlMillis, long _finishedTtlMillis, int maxTraversals) {
+        activeTtlMillis = _activeTtlMillis;
+        finishedTtlMillis = _finishedTtlMillis;
+        int stripeCapacity = Math.max(1, maxTraversals / NUM_STRIPES);
+        for (int i = 0; i < NUM_STRIPES; i++) stripes[i] = new Stripe(stripeCapacity);
+        int numSlots = (int) Math.min(4096, Math.max(activeTtlMillis, finishedTtlMillis) / TICK_MS + 1);
+        timerWheel = new TimerWheel<>(TICK_MS, numSlots, System.currentTimeMillis());
+        ticker = Peer.Shared.scheduler.scheduleAtFixedRate(() -> timerWheel.advance(System.currentTimeMillis(), this::expire), TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers the state of a new traversal, unless the traversal is already known.
+     *
+     * @param key   Key of the traversal.
+     * @param state State to register.
+     * @return Returns whether the state was registered.
+     */
+    boolean register(BroadcastId key, TraversalState state) {
+        Stripe stripe = stripeOf(key);
+        TraversalEntry entry = new TraversalEntry(key, state);
+        synchronized (stripe) {
+            if (stripe.containsKey(key) || stripe.retired.contains(key)) return false;
+            stripe.put(key, entry);
+            entry.timeout = timerWheel.schedule(entry, System.currentTimeMillis() + activeTtlMillis);
+        }
+        state.completion.thenRun(() -> finished(entry));
+        return true;
+    }
+
+    /**
+     * @param key Key of the traversal.
+     * @return Returns the state of the traversal, or null if it is unknown or expired.
+     */
+    TraversalState get(BroadcastId key) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            TraversalEntry entry = stripe.get(key);
+            return entry == null ? null : entry.state;
+        }
+    }
+
+    /**
+     * @param key Key of the traversal.
+     * @return Returns whether the traversal was registered: still running, finished or expired not long ago.
+     */
+    boolean isKnown(BroadcastId key) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.containsKey(key) || stripe.retired.contains(key);
+        }
+    }
+
+    /**
+     * Runs an action on the state of every traversal that has not completed yet. The action runs outside of the
+     * stripe locks, so it may complete traversals.
+     *
+     * @param action Action to run.
+     */
+    void forEachActive(Consumer<TraversalState> action) {
+        ArrayList<TraversalState> active = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (TraversalEntry entry : stripe.values()) {
+                    if (!entry.state.completion.isDone()) active.add(entry.state);
+                }
+            }
+        }
+        active.forEach(action);
+    }
+
+    /**
+     * @return Returns the number of traversals currently remembered.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Stops expiring traversals.
+     */
+    void close() {
+        ticker.cancel(false);
+    }
+
+    private Stripe stripeOf(BroadcastId key) {
+        return stripes[key.hashCode() & (NUM_STRIPES - 1)];
+    }
+
+    /**
+     * Replaces the timeout of a completed traversal with the shorter one of finished traversals.
+     *
+     * @param entry Completed entry.
+     */
+    private void finished(TraversalEntry entry) {
+        Stripe stripe = stripeOf(entry.key);
+        synchronized (stripe) {
+            /* An entry that was evicted meanwhile must not be kept reachable by a new timeout. */
+            if (stripe.get(entry.key) != entry) return;
+            timerWheel.cancel(entry.timeout);
+            entry.timeout = timerWheel.schedule(entry, System.currentTimeMillis() + finishedTtlMillis);
+        }
+    }
+
+    /**
+     * Called by the timer wheel. Evicted and finished entries have their earlier timeouts cancelled, so only the
+     * current timeout of an entry gets here.
+     *
+     * @param entry Expired entry.
+     */
+    private void expire(TraversalEntry entry) {
+        Stripe stripe = stripeOf(entry.key);
+        synchronized (stripe) {
+            if (!stripe.remove(entry.key, entry)) return;
+            stripe.retire(entry.key);
+        }
+        abandon(entry);
+    }
+
+    private static void abandon(TraversalEntry entry) {
+        if (!entry.state.completion.isDone()) {
+            entry.state.completion.completeExceptionally(new TimeoutException("Traversal " + entry.key + " was abandoned."));
+        }
+    }
+
+    private static class TraversalEntry {
+        private final BroadcastId key;
+        private final TraversalState state;
+        /* Current timeout of the entry, guarded by its stripe. */
+        private TimerWheel.Timeout<TraversalEntry> timeout;
+
+        TraversalEntry(BroadcastId _key, TraversalState _state) {
+            key = _key;
+            state = _state;
+        }
+    }
+
+    /**
+     * Insertion ordered map that drops its oldest traversal once it exceeds its capacity, together with its timeout,
+     * so memory stays bounded by the capacity rather than by the traversals started within one TTL.
+     */
+    private class Stripe extends LinkedHashMap<BroadcastId, TraversalEntry> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+        /* Keys of the traversals that left the stripe, oldest first. */
+        private final LinkedHashSet<BroadcastId> retired = new LinkedHashSet<>();
+
+        Stripe(int _capacity) {
+            capacity = _capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BroadcastId, TraversalEntry> eldest) {
+            if (size() <= capacity) return false;
+            timerWheel.cancel(eldest.getValue().timeout);
+            abandon(eldest.getValue());
+            retire(eldest.getKey());
+            return true;
+        }
+
+        /**
+         * Remembers the key of a traversal that left the stripe, forgetting the oldest one beyond the capacity.
+         *
+         * @param key Key of the traversal.
+         */
+        void retire(BroadcastId key) {
+            retired.add(key);
+            if (retired.size() > capacity) {
+                Iterator<BroadcastId> oldest = retired.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+}
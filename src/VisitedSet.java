@@ -0,0 +1,78 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.Serializable;
+
+class VisitedSet implements Serializable {
+    private static final long serialVersionUID = 2931712470658513022L;
+
+    private final long fingerprint;
+    private final long[] words;
+
+    /**
+     * Exact set of the peers a traversal went through, one bit per peer at its position in the peer index of the
+     * topology map. (See PeerGraphData.PeerIndex) Membership tests are O(1), and the set takes one bit per known peer
+     * whatever the length of the path. The positions only mean the same on peers whose index has the same fingerprint,
+     * so a peer with another index ignores a received set instead of guessing.
+     *
+     * @param _fingerprint Fingerprint of the index the positions refer to. (0 for an empty set without index)
+     * @param numPeers     Number of peers in the index.
+     */
+    VisitedSet(long _fingerprint, int numPeers) {
+        this(_fingerprint, new long[(numPeers + 63) / 64]);
+    }
+
+    /**
+     * Wraps the words of a received set.
+     *
+     * @param _fingerprint Fingerprint of the index the positions refer to.
+     * @param _words       Words of the set.
+     */
+    VisitedSet(long _fingerprint, long[] _words) {
+        fingerprint = _fingerprint;
+        words = _words;
+    }
+
+    /**
+     * @return Returns an empty set that matches no index.
+     */
+    static VisitedSet empty() {
+        return new VisitedSet(0, 0);
+    }
+
+    /**
+     * @return Returns a copy of this set.
+     */
+    VisitedSet copy() {
+        return new VisitedSet(fingerprint, words.clone());
+    }
+
+    /**
+     * Adds a peer to the set.
+     *
+     * @param position Position of the peer in the index, or -1 if it is not in it. (Then nothing is added)
+     */
+    void add(int position) {
+        if (position < 0 || position >= words.length * 64) return;
+        words[position >>> 6] |= 1L << (position & 63);
+    }
+
+    /**
+     * @param position Position of the peer in the index, or -1 if it is not in it.
+     * @return Returns whether the peer was visited.
+     */
+    boolean contains(int position) {
+        if (position < 0 || position >= words.length * 64) return false;
+        return (words[position >>> 6] & (1L << (position & 63))) != 0;
+    }
+
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    long[] words() {
+        return words;
+    }
+}
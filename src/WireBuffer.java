@@ -0,0 +1,240 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+class WireBuffer {
+    private byte[] bytes;
+    private int position;
+    private int limit;
+
+    /**
+     * Growable byte buffer used by the wire codecs. Written from the start when created empty, or read between an
+     * offset and a limit when wrapping received bytes.
+     *
+     * @param initialCapacity Initial size of the backing array.
+     */
+    WireBuffer(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * Wraps received bytes for reading.
+     *
+     * @param _bytes Backing array.
+     * @param offset Index of the first readable byte.
+     * @param length Number of readable bytes.
+     */
+    WireBuffer(byte[] _bytes, int offset, int length) {
+        bytes = _bytes;
+        position = offset;
+        limit = offset + length;
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * @return Returns the number of bytes written so far.
+     */
+    int length() {
+        return limit;
+    }
+
+    int position() {
+        return position;
+    }
+
+    int remaining() {
+        return limit - position;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, limit);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (limit + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, limit + extra));
+        }
+    }
+
+    private void require(int count) throws IOException {
+        if (count < 0) throw new IOException("Negative length " + count);
+        if (limit - position < count) throw new EOFException("Truncated frame");
+    }
+
+    void advance(int count) throws IOException {
+        require(count);
+        position += count;
+    }
+
+    void skip(int count) {
+        ensureCapacity(count);
+        limit += count;
+    }
+
+    void putIntAt(int index, int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        bytes[limit++] = (byte) value;
+    }
+
+    void writeBytes(byte[] src, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, bytes, limit, length);
+        limit += length;
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer, without changing its position. (Mapped files are read directly)
+     *
+     * @param src Buffer to copy.
+     */
+    void writeBytes(ByteBuffer src) {
+        int length = src.remaining();
+        ensureCapacity(length);
+        src.duplicate().get(bytes, limit, length);
+        limit += length;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint. (7 bits per byte, high bit set on every byte but the last)
+     *
+     * @param value Value to write. Treated as unsigned.
+     */
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[limit++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[limit++] = (byte) value;
+    }
+
+    void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Empties the buffer, so a scratch buffer can be reused without reallocating.
+     */
+    void clear() {
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * Drops everything written after an index.
+     *
+     * @param length New length.
+     */
+    void truncate(int length) {
+        limit = length;
+    }
+
+    /**
+     * Writes the output of a deflater that was given all of its input.
+     *
+     * @param deflater Deflater after finish() was called.
+     */
+    void writeDeflated(Deflater deflater) {
+        while (!deflater.finished()) {
+            ensureCapacity(4096);
+            limit += deflater.deflate(bytes, limit, bytes.length - limit);
+        }
+    }
+
+    void writeInt(int value) {
+        ensureCapacity(4);
+        putIntAt(limit, value);
+        limit += 4;
+    }
+
+    void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes[limit++] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     *
+     * @param value String to write.
+     */
+    void writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(utf8.length);
+        writeBytes(utf8, 0, utf8.length);
+    }
+
+    int readByte() throws IOException {
+        require(1);
+        return bytes[position++] & 0xFF;
+    }
+
+    byte[] readBytes(int length) throws IOException {
+        require(length);
+        byte[] out = Arrays.copyOfRange(bytes, position, position + length);
+        position += length;
+        return out;
+    }
+
+    long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    int readVarInt() throws IOException {
+        long value = readVarLong();
+        /* Every varint is a length, count or other non-negative value, so one past Integer.MAX_VALUE is malformed. */
+        if (value > Integer.MAX_VALUE) throw new IOException("Varint does not fit into an int");
+        return (int) value;
+    }
+
+    int readInt() throws IOException {
+        require(4);
+        int value = ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16) | ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+
+    long readLong() throws IOException {
+        require(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    String readString() throws IOException {
+        int length = readVarInt();
+        require(length);
+        String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+}
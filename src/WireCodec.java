@@ -0,0 +1,59 @@
+/*
+ * @author Varun on 6/17/2018
+ * @project P2P-Network
+ */
+
+import java.io.IOException;
+
+interface WireCodec {
+    int TAG_NULL = 0;
+    int TAG_JAVA = 1;
+    int TAG_TEXT = 2;
+    int TAG_TRAVERSAL = 3;
+    int TAG_POLLING = 4;
+    int TAG_ROUTED = 5;
+    int TAG_RPC_REQUEST = 6;
+    int TAG_RPC_RESPONSE = 7;
+    int TAG_HEARTBEAT = 8;
+    int TAG_CREDIT = 9;
+    int TAG_FILE_CHUNK = 10;
+    int TAG_HELLO = 11;
+    int TAG_DEFLATED = 12;
+    int TAG_TOPOLOGY = 13;
+    int TAG_HISTORY_RANGE = 14;
+    int TAG_TOPIC = 15;
+    int TAG_SUBSCRIPTIONS = 16;
+
+    /**
+     * Available codecs. A new codec instance is created per connection because codecs may keep per-stream state.
+     */
+    enum Type {
+        /* Every object goes through java serialization. */
+        JAVA,
+        /* Hand written format for the built-in messages, java serialization for anything else. */
+        BINARY;
+
+        WireCodec create() {
+            return this == JAVA ? new JavaSerializationCodec() : new BinaryCodec();
+        }
+    }
+
+    /**
+     * Appends a tagged object to the buffer.
+     *
+     * @param o   Object to be encoded.
+     * @param out Buffer to write to.
+     * @throws IOException If the object could not be encoded.
+     */
+    void encode(Object o, WireBuffer out) throws IOException;
+
+    /**
+     * Reads a tagged object from the buffer.
+     *
+     * @param in Buffer to read from.
+     * @return Returns the decoded object.
+     * @throws IOException            If the bytes are malformed.
+     * @throws ClassNotFoundException If a java serialized object references an unknown class.
+     */
+    Object decode(WireBuffer in) throws IOException, ClassNotFoundException;
+}